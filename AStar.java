@@ -1,10 +1,8 @@
 package sim.app.geo.MK_1;
 
-import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.planargraph.DirectedEdgeStar;
 import com.vividsolutions.jts.planargraph.Node;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import sim.util.geo.GeomPlanarGraphDirectedEdge;
 
 /**
@@ -24,6 +22,53 @@ import sim.util.geo.GeomPlanarGraphDirectedEdge;
 public class AStar
 {
 
+    // the road network, as primitive arrays
+    final RoadGraph graph;
+
+    // what each edge costs: closures and slowdowns to route around, or
+    // travel times, or null to route on the lengths alone
+    final EdgeCosts costs;
+
+    // A* meta information about the Nodes, indexed by node id. It is kept
+    // between queries and only trusted for nodes stamped with the current
+    // query number, so nothing has to be cleared or allocated per search.
+    final double[] gx, hx;
+    final int[] edgeFrom; // directed edge by which each node was discovered
+    final int[] seen;     // query number in which each node was discovered
+    final int[] closed;   // query number in which each node was investigated
+    final IndexedMinHeap openSet;
+    int query = 0;
+
+
+    /**
+     * @param graph the network to search. One AStar holds working storage
+     * proportional to the network, so it should be reused across queries but
+     * not shared between threads.
+     */
+    public AStar(RoadGraph graph)
+    {
+        this(graph, null);
+    }
+
+
+    /**
+     * @param graph the network to search
+     * @param costs the cost of each edge, which is read during each search,
+     * or null to search on the lengths alone
+     */
+    public AStar(RoadGraph graph, EdgeCosts costs)
+    {
+        this.graph = graph;
+        this.costs = costs;
+        gx = new double[graph.numNodes];
+        hx = new double[graph.numNodes];
+        edgeFrom = new int[graph.numNodes];
+        seen = new int[graph.numNodes];
+        closed = new int[graph.numNodes];
+        openSet = new IndexedMinHeap(graph.numNodes);
+    }
+
+
     public ArrayList<GeomPlanarGraphDirectedEdge> astarPath(Node start, Node goal)
     {
 
@@ -31,94 +76,106 @@ public class AStar
         if (start == null || goal == null)
         {
             System.out.println("Error: invalid node provided to AStar");
+            return new ArrayList<GeomPlanarGraphDirectedEdge>();
         }
 
-        // set up the containers for the result
-        ArrayList<GeomPlanarGraphDirectedEdge> result =
-            new ArrayList<GeomPlanarGraphDirectedEdge>();
+        return graph.toDirectedEdges(astarPath(graph.nodeId(start),
+            graph.nodeId(goal)));
+    }
 
-        // containers for the metainformation about the Nodes relative to the
-        // A* search
-        HashMap<Node, AStarNodeWrapper> foundNodes =
-            new HashMap<Node, AStarNodeWrapper>();
 
-        AStarNodeWrapper startNode = new AStarNodeWrapper(start);
-        AStarNodeWrapper goalNode = new AStarNodeWrapper(goal);
-        foundNodes.put(start, startNode);
-        foundNodes.put(goal, goalNode);
+    /**
+     * @param start id of the node to search from
+     * @param goal id of the node to search to
+     * @return the indices of the directed edges that lead from start to goal,
+     * or an empty array if goal cannot be reached
+     */
+    public int[] astarPath(int start, int goal)
+    {
+        if (start < 0 || goal < 0)
+        {
+            return new int[0];
+        }
 
-        startNode.gx = 0;
-        startNode.hx = heuristic(start, goal);
-        startNode.fx = heuristic(start, goal);
+        // start a new query: everything stamped with an older number is stale
+        if (++query == Integer.MAX_VALUE)
+        {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            query = 1;
+        }
+        openSet.clear();
 
-        // A* containers: nodes to be investigated, nodes that have been investigated
-        ArrayList<AStarNodeWrapper> closedSet = new ArrayList<AStarNodeWrapper>(),
-            openSet = new ArrayList<AStarNodeWrapper>();
-        openSet.add(startNode);
+        discover(start);
+        gx[start] = 0;
+        hx[start] = heuristic(start, goal);
+        openSet.insert(start, hx[start]);
 
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final double[] lengths = graph.lengths;
+        final EdgeCosts costs =
+            (this.costs == null || this.costs.isLengths()) ? null : this.costs;
 
-        while (openSet.size() > 0)
+        while (!openSet.isEmpty())
         { // while there are reachable nodes to investigate
 
-            AStarNodeWrapper x = findMin(openSet); // find the shortest path so far
-            if (x.node == goal)
+            int x = openSet.poll(); // find the shortest path so far
+            if (x == goal)
             { // we have found the shortest possible path to the goal!
                 // Reconstruct the path and send it back.
-                return reconstructPath(goalNode);
+                return reconstructPath(goal);
             }
-            openSet.remove(x); // maintain the lists
-            closedSet.add(x);
+            closed[x] = query;
 
             // check all the edges out from this Node
-            DirectedEdgeStar des = x.node.getOutEdges();
-            for (Object o : des.getEdges().toArray())
+            for (int l = offsets[x]; l < offsets[x + 1]; l++)
             {
-                GeomPlanarGraphDirectedEdge l = (GeomPlanarGraphDirectedEdge) o;
-                Node next = null;
-                next = l.getToNode();
+                int next = targets[l];
 
-                // get the A* meta information about this Node
-                AStarNodeWrapper nextNode;
-                if (foundNodes.containsKey(next))
-                {
-                    nextNode = foundNodes.get(next);
-                } else
-                {
-                    nextNode = new AStarNodeWrapper(next);
-                    foundNodes.put(next, nextNode);
-                }
-
-                if (closedSet.contains(nextNode)) // it has already been considered
+                if (closed[next] == query) // it has already been considered
                 {
                     continue;
                 }
 
                 // otherwise evaluate the cost of this node/edge combo
-                double tentativeCost = x.gx + length(l);
-                boolean better = false;
-
-                if (!openSet.contains(nextNode))
-                {
-                    openSet.add(nextNode);
-                    nextNode.hx = heuristic(next, goal);
-                    better = true;
-                } else if (tentativeCost < nextNode.gx)
-                {
-                    better = true;
+                double tentativeCost = gx[x]
+                    + ((costs == null) ? lengths[l] : costs.cost(l));
+                if (tentativeCost == Double.POSITIVE_INFINITY)
+                { // the road is closed
+                    continue;
                 }
 
                 // store A* information about this promising candidate node
-                if (better)
+                if (!openSet.contains(next))
                 {
-                    nextNode.cameFrom = x;
-                    nextNode.edgeFrom = l;
-                    nextNode.gx = tentativeCost;
-                    nextNode.fx = nextNode.gx + nextNode.hx;
+                    discover(next);
+                    hx[next] = heuristic(next, goal);
+                    gx[next] = tentativeCost;
+                    edgeFrom[next] = l;
+                    openSet.insert(next, gx[next] + hx[next]);
+                } else if (tentativeCost < gx[next])
+                {
+                    gx[next] = tentativeCost;
+                    edgeFrom[next] = l;
+                    openSet.decreaseKey(next, gx[next] + hx[next]);
                 }
             }
         }
 
-        return result;
+        return new int[0];
+    }
+
+
+    /**
+     * Marks a node as part of the current query
+     */
+    void discover(int n)
+    {
+        if (seen[n] != query)
+        {
+            seen[n] = query;
+            edgeFrom[n] = -1;
+        }
     }
 
 
@@ -126,20 +183,21 @@ public class AStar
      * Takes the information about the given node n and returns the path that
      * found it.
      * @param n the end point of the path
-     * @return an ArrayList of GeomPlanarGraphDirectedEdges that lead from the
-     * given Node to the Node from which the serach began
+     * @return the indices of the directed edges that lead from the Node from
+     * which the search began to the given Node
      */
-    ArrayList<GeomPlanarGraphDirectedEdge> reconstructPath(AStarNodeWrapper n)
+    int[] reconstructPath(int n)
     {
-        ArrayList<GeomPlanarGraphDirectedEdge> result =
-            new ArrayList<GeomPlanarGraphDirectedEdge>();
-        AStarNodeWrapper x = n;
-        while (x.cameFrom != null)
+        int count = 0;
+        for (int x = n; edgeFrom[x] >= 0; x = graph.sources[edgeFrom[x]])
         {
-            result.add(0, x.edgeFrom); // add this edge to the front of the list
-            x = x.cameFrom;
+            count++;
+        }
+        int[] result = new int[count];
+        for (int x = n; edgeFrom[x] >= 0; x = graph.sources[edgeFrom[x]])
+        {
+            result[--count] = edgeFrom[x];
         }
-
         return result;
     }
 
@@ -152,78 +210,8 @@ public class AStar
      * @param y
      * @return notional "distance" between the given nodes.
      */
-    double heuristic(Node x, Node y)
+    double heuristic(int x, int y)
     {
-        Coordinate xnode = x.getCoordinate();
-        Coordinate ynode = y.getCoordinate();
-        return Math.sqrt(Math.pow(xnode.x - ynode.x, 2)
-            + Math.pow(xnode.y - ynode.y, 2));
-    }
-
-
-
-    /**
-     * @param e
-     * @return The length of an edge
-     */
-    double length(GeomPlanarGraphDirectedEdge e)
-    {
-        Coordinate xnode = e.getFromNode().getCoordinate();
-        Coordinate ynode = e.getToNode().getCoordinate();
-        return Math.sqrt(Math.pow(xnode.x - ynode.x, 2)
-            + Math.pow(xnode.y - ynode.y, 2));
-    }
-
-
-
-    /**
-     *  Considers the list of Nodes open for consideration and returns the node
-     *  with minimum fx value
-     * @param set list of open Nodes
-     * @return
-     */
-    AStarNodeWrapper findMin(ArrayList<AStarNodeWrapper> set)
-    {
-        double min = 100000;
-        AStarNodeWrapper minNode = null;
-        for (AStarNodeWrapper n : set)
-        {
-            if (n.fx < min)
-            {
-                min = n.fx;
-                minNode = n;
-            }
-        }
-        return minNode;
-    }
-
-
-
-    /**
-     * A wrapper to contain the A* meta information about the Nodes
-     *
-     */
-    class AStarNodeWrapper
-    {
-
-        // the underlying Node associated with the metainformation
-        Node node;
-        // the Node from which this Node was most profitably linked
-        AStarNodeWrapper cameFrom;
-        // the edge by which this Node was discovered
-        GeomPlanarGraphDirectedEdge edgeFrom;
-        double gx, hx, fx;
-
-        
-        public AStarNodeWrapper(Node n)
-        {
-            node = n;
-            gx = 0;
-            hx = 0;
-            fx = 0;
-            cameFrom = null;
-            edgeFrom = null;
-        }
-
+        return graph.distance(x, y);
     }
-}
\ No newline at end of file
+}
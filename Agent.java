@@ -1,6 +1,7 @@
 package sim.app.geo.MK_1;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import sim.engine.SimState;
 import sim.engine.Steppable;
@@ -11,8 +12,6 @@ import sim.util.geo.PointMoveTo;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.linearref.LengthIndexedLine;
 import com.vividsolutions.jts.planargraph.Node;
 
 /**
@@ -23,11 +22,14 @@ import com.vividsolutions.jts.planargraph.Node;
  * and end points is determined by data in NorfolkITNLSOA.csv and assigned by the
  * user under 'goals' (approx. Line 80 in main file).
  * 
+ * Every kind of agent is an Agent; how fast it moves and where it goes are
+ * set by its AgentProfile.
+ * 
  * @author KJGarbutt
  *
 */
 
-public final class MainAgent implements Steppable	{
+public final class Agent implements Steppable	{
     private static final long serialVersionUID = -1113018274619047013L;
     
     ////////////////////////////////////////////////////////////////
@@ -35,6 +37,7 @@ public final class MainAgent implements Steppable	{
     ////////////////////////////////////////////////////////////////
     
     MK_1 world;
+    AgentProfile profile;	// what kind of agent this is
     // Residence/Work Attributes
     String homeTract = "";
     String workTract = "";
@@ -43,20 +46,25 @@ public final class MainAgent implements Steppable	{
     // point that denotes agent's position
     // private Point location;
     private MasonGeometry location; // point that denotes agent's position
+    private final Coordinate position = new Coordinate(); // where it is, drawn or not
     // How much to move the agent by in each step()
-    private double moveRate = 750; //0.001;
-    private LengthIndexedLine segment = null;
+    private double moveRate;
+    private EdgeGeometry segment = null; // shape of the current edge
+    private final Coordinate here = new Coordinate(); // reused for each move
     double startIndex = 0.0; // start position of current line
     double endIndex = 0.0; // end position of current line
     double currentIndex = 0.0; // current location along line
     GeomPlanarGraphEdge currentEdge = null;
+    int currentRoad = -1; // RoadGraph id of currentEdge
     int linkDirection = 1;
     double speed = 0; // useful for graph
-    ArrayList<GeomPlanarGraphDirectedEdge> pathFromHomeToWork =
+    List<GeomPlanarGraphDirectedEdge> pathFromHomeToWork =
         new ArrayList<GeomPlanarGraphDirectedEdge>();
+    Route route = null; // pathFromHomeToWork as directed edge indices
     int indexOnPath = 0;
     int pathDirection = 1;
     boolean reachedDestination = false;
+    int leg = 0; // the model's legsCompleted when last stepped
     PointMoveTo pointMoveTo = new PointMoveTo();
     
     //static private GeometryFactory fact = new GeometryFactory();
@@ -71,29 +79,28 @@ public final class MainAgent implements Steppable	{
 	 * @param homeNode - Coordinate indicating the Agent's home location
 	 * @param workNode - Coordinate indicating the Agent's workplace
 	 * @param world - reference to the containing NorfolkRouting instance
+	 * @param profile - the kind of agent, which sets its speed
 	 */
-    public MainAgent(MK_1 g, String homeTract, String workTract,
+    public Agent(MK_1 g, AgentProfile profile, String homeTract, String workTract,
             GeomPlanarGraphEdge startingEdge, GeomPlanarGraphEdge goalEdge)	{
 	   world = g;
+	   this.profile = profile;
+	   moveRate = profile.moveRate;
+	   leg = g.legsCompleted;
 	
 	   // set up information about where the node is and where it's going
 	   homeNode = startingEdge.getDirEdge(0).getFromNode();
 	   workNode = goalEdge.getDirEdge(0).getToNode();
-	   homeTract = homeTract;
-	   workTract = workTract;
+	   this.homeTract = homeTract;
+	   this.workTract = workTract;
 	
 	   // set the location to be displayed
 	   GeometryFactory fact = new GeometryFactory();
-	   location = new MasonGeometry(fact.createPoint(new Coordinate(10, 10))) ;
-	   Coordinate startCoord = null;
-	   startCoord = homeNode.getCoordinate();
+	   Coordinate startCoord = homeNode.getCoordinate();
+	   location = new MasonGeometry(fact.createPoint(new Coordinate(startCoord))) ;
 	   updatePosition(startCoord);
 	}
     
-    public MainAgent(MK_1 g, int homeTract, int workTract,
-			GeomPlanarGraphEdge startingEdge, GeomPlanarGraphEdge goalEdge) {
-	}
-    
     ////////////////////////////////////////////////////////////////
     ////////////////////////// ROUTING /////////////////////////////
     ////////////////////////////////////////////////////////////////
@@ -107,8 +114,10 @@ public final class MainAgent implements Steppable	{
    public boolean start(MK_1 state)	{
        findNewAStarPath(state);
        if (pathFromHomeToWork.isEmpty())	{
-           System.out.println("Initialization of agent failed: it is located in a part "
-               + "of the network that cannot access the given goal node");
+           if (world.logLevel >= MK_1.LOG_DEBUG)	{
+               System.out.println("Initialization of agent failed: it is located in a part "
+                   + "of the network that cannot access the given goal node");
+           }
            return false;
        } else	{
            return true;
@@ -122,40 +131,46 @@ public final class MainAgent implements Steppable	{
    private void findNewAStarPath(MK_1 geoTest)	{
 
        // get the home and work Nodes with which this Agent is associated
-       Node currentJunction = geoTest.network.findNode(location.geometry.getCoordinate());
+       Node currentJunction = geoTest.network.findNode(position);
        Node destinationJunction = workNode;
 
        if (currentJunction == null)	{
            return; // just a check
        }
-       // find the appropriate A* path between them
-       AStar pathfinder = new AStar();
-       ArrayList<GeomPlanarGraphDirectedEdge> path =
-           pathfinder.astarPath(currentJunction, destinationJunction);
+       // find the appropriate A* path between them, shared with every other
+       // agent making the same trip, unless it has been assigned one
+       Route found = geoTest.routeFor(currentJunction, destinationJunction);
+       List<GeomPlanarGraphDirectedEdge> path = found.getPath();
 
        // if the path works, lay it in
        if (path != null && path.size() > 0)	{
 
            // save it
            pathFromHomeToWork = path;
+           route = found;
+           if (geoTest.flooding != null)	{
+               geoTest.flooding.add(route, this);
+           }
 
            // set up how to traverse this first link
-           GeomPlanarGraphEdge edge =
-               (GeomPlanarGraphEdge) path.get(0).getEdge();
-           setupEdge(edge);
+           setupEdge(geoTest.graph.roads[route.edge(0)]);
 
            // update the current position for this link
-           updatePosition(segment.extractPoint(currentIndex));
+           segment.extractPoint(currentIndex, here);
+           updatePosition(here);
 
        }
    }
 
 
    double progress(double val)	{
-       double edgeLength = currentEdge.getLine().getLength();
-       double traffic = world.edgeTraffic.get(currentEdge).size();
+       double edgeLength = segment.getLength();
+       double traffic = world.edgeTraffic.count(currentRoad);
        double factor = 1000 * edgeLength / (traffic * 5);
        factor = Math.min(1, factor);
+       if (world.roadConditions != null)	{ // flood water slows everyone down
+           factor *= world.roadConditions.speedFactor(currentRoad);
+       }
        return val * linkDirection * factor;
    }
 
@@ -168,36 +183,46 @@ public final class MainAgent implements Steppable	{
        // check that we've been placed on an Edge
        if (segment == null)	{
            return;
-       } // check that we haven't already reached our destination
-       else if (reachedDestination)	{
+       }
+
+       // turn back if a leg has ended since the last step
+       if (leg != world.legsCompleted)	{
+           leg = world.legsCompleted;
+           if (profile.travelling)	{
+               flipPath();
+           }
+       }
+
+       // check that we haven't already reached our destination
+       if (reachedDestination)	{
            return;
        }
 
        // make sure that we're heading in the right direction
-       boolean toWork = ((MK_1) state).goToWork1;
+       boolean toWork = ((MK_1) state).goToWork;
        if ((toWork && pathDirection < 0) || (!toWork && pathDirection > 0))	{
            flipPath();
        }
 
        // move along the current segment
-       speed = progress(moveRate);
+       setSpeed(progress(moveRate));
        currentIndex += speed;
 
        // check to see if the progress has taken the current index beyond its goal
        // given the direction of movement. If so, proceed to the next edge
        if (linkDirection == 1 && currentIndex > endIndex)	{
-           Coordinate currentPos = segment.extractPoint(endIndex);
-           updatePosition(currentPos);
+           segment.extractPoint(endIndex, here);
+           updatePosition(here);
            transitionToNextEdge(currentIndex - endIndex);
        } else if (linkDirection == -1 && currentIndex < startIndex)	{
-           Coordinate currentPos = segment.extractPoint(startIndex);
-           updatePosition(currentPos);
+           segment.extractPoint(startIndex, here);
+           updatePosition(here);
            transitionToNextEdge(startIndex - currentIndex);
        } else
        { // just update the position!
-           Coordinate currentPos = segment.extractPoint(currentIndex);
+           segment.extractPoint(currentIndex, here);
 
-           updatePosition(currentPos);
+           updatePosition(here);
        }
    }
 
@@ -206,9 +231,15 @@ public final class MainAgent implements Steppable	{
     * Flip the agent's path around
     */
    void flipPath()	{
+       if (reachedDestination)	{ // setting off again
+           world.speeds.add(speed);
+       }
        reachedDestination = false;
        pathDirection = -pathDirection;
        linkDirection = -linkDirection;
+       if (world.flooding != null)	{ // the way back may have closed
+           world.flooding.turnedBack(this);
+       }
    }
 
 
@@ -227,17 +258,19 @@ public final class MainAgent implements Steppable	{
        if ((pathDirection > 0 && indexOnPath >= pathFromHomeToWork.size())
            || (pathDirection < 0 && indexOnPath < 0))// depends on where you're going!
        {
-    	   System.out.println(this + " has reached its destination");
+    	   if (world.logLevel >= MK_1.LOG_DEBUG)	{
+    	       System.out.println(this + " has reached its destination");
+    	   }
            reachedDestination = true;
+           world.speeds.remove(speed);
+           world.agentArrived();
            indexOnPath -= pathDirection; // make sure index is correct
            return;
        }
 
        // move to the next edge in the path
-       GeomPlanarGraphEdge edge = (GeomPlanarGraphEdge) 
-    		   pathFromHomeToWork.get(indexOnPath).getEdge();
-       setupEdge(edge);
-       speed = progress(residualMove);
+       setupEdge(world.graph.roads[route.edge(indexOnPath)]);
+       setSpeed(progress(residualMove));
        currentIndex += speed;
 
        // check to see if the progress has taken the current index beyond its goal
@@ -250,37 +283,43 @@ public final class MainAgent implements Steppable	{
    }
 
    ////////////////// HELPER FUNCTIONS ////////////////////////
+
+
+   /**
+    * Change the agent's speed, keeping the model's speed statistics up to date
+    */
+   void setSpeed(double s)	{
+       world.speeds.change(speed, s);
+       speed = s;
+   }
    
 
    /**
     * Sets the Agent up to proceed along an Edge
-    * @param edge the GeomPlanarGraphEdge to traverse next
+    * @param road the RoadGraph id of the GeomPlanarGraphEdge to traverse next
     */
-   void setupEdge(GeomPlanarGraphEdge edge)	{
+   void setupEdge(int road)	{
+       GeomPlanarGraphEdge edge = world.graph.road(road);
 
        // clean up on old edge
        if (currentEdge != null)	{
-           ArrayList<MainAgent> traffic = world.edgeTraffic.get(currentEdge);
-           traffic.remove(this);
+           world.edgeTraffic.leave(currentRoad, this);
        }
        currentEdge = edge;
+       currentRoad = road;
 
        // update new edge traffic
-       if (world.edgeTraffic.get(currentEdge) == null)	{
-           world.edgeTraffic.put(currentEdge, new ArrayList<MainAgent>());
-       }
-       world.edgeTraffic.get(currentEdge).add(this);
+       world.edgeTraffic.enter(currentRoad, this);
 
        // set up the new segment and index info
-       LineString line = edge.getLine();
-       segment = new LengthIndexedLine(line);
+       segment = world.graph.geometry(road);
        startIndex = segment.getStartIndex();
        endIndex = segment.getEndIndex();
        linkDirection = 1;
 
        // check to ensure that Agent is moving in the right direction
-       double distanceToStart = line.getStartPoint().distance(location.geometry),
-           distanceToEnd = line.getEndPoint().distance(location.geometry);
+       double distanceToStart = segment.distanceToStart(position.x, position.y),
+           distanceToEnd = segment.distanceToEnd(position.x, position.y);
        if (distanceToStart <= distanceToEnd)	{ // closer to start
            currentIndex = startIndex;
            linkDirection = 1;
@@ -292,13 +331,26 @@ public final class MainAgent implements Steppable	{
 
 
    /**
-    * Move the agent to the given coordinates
+    * Move the agent to the given coordinates, and its point too if the
+    * agents are being drawn
     */
    public void updatePosition(Coordinate c)	{
+       position.setCoordinate(c);
+       if (!world.displayAgents)	{
+           return;
+       }
        pointMoveTo.setCoordinate(c);
        // location.geometry.apply(pointMoveTo);
 
-       world.agents.setGeometryLocation(location, pointMoveTo);
+       profile.layer.setGeometryLocation(location, pointMoveTo);
+   }
+
+
+   /**
+    * @return where the agent is now, whether or not its point is being drawn
+    */
+   public Coordinate getPosition()	{
+       return position;
    }
 
 
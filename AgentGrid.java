@@ -0,0 +1,344 @@
+package sim.app.geo.MK_1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.Bag;
+import sim.util.IntBag;
+import sim.util.geo.MasonGeometry;
+import sim.util.geo.PointMoveTo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+
+/**
+ * Where the agents are, kept in a uniform grid of square cells over the
+ * model's MBR, for finding the agents near a point.
+ *
+ * The grid is not updated as each agent moves. It is rebuilt from scratch
+ * once per tick, after all the moves: the agents' coordinates are copied
+ * into two arrays, the cell of each is worked out, on several threads if
+ * asked, and a counting sort lists the agents cell by cell. The agents'
+ * GeomVectorFields then only need their quadtrees kept up to date when they
+ * are being drawn.
+ *
+ * Agents are numbered as the model holds them: the Agents in agentList
+ * first, then those in the AgentStore. getObjectsWithinDistance() answers
+ * in the agents' points instead, as GeomVectorField does for their layers.
+ */
+public final class AgentGrid implements Steppable	{
+    private static final long serialVersionUID = -2406184957731592861L;
+
+    final MK_1 world;
+    final double minX, minY;	// corner of the grid
+    final double cellSize;
+    final int columns, rows;
+
+    int size = 0;
+    double[] x = new double[0], y = new double[0];	// where each agent is
+    int[] cell = new int[0];	// the cell each agent is in
+    final int[] cellStart;		// agents in cell c are members[cellStart[c]] up to cellStart[c + 1]
+    private final int[] fill;	// next free place in members for each cell
+    int[] members = new int[0];
+
+    final int threads;
+    transient ExecutorService pool = null;
+
+
+    /**
+     * @param world the model
+     * @param MBR the area the grid covers; agents outside it are kept in the
+     * cells along its edge
+     * @param cellSize the width and height of a cell
+     * @param threads how many threads to place the agents in cells on, or 0
+     */
+    public AgentGrid(MK_1 world, Envelope MBR, double cellSize, int threads)	{
+        if (!(cellSize > 0))	{
+            throw new IllegalArgumentException("cell size must be positive: " + cellSize);
+        }
+        this.world = world;
+        this.cellSize = cellSize;
+        this.threads = Math.max(0, threads);
+        minX = MBR.getMinX();
+        minY = MBR.getMinY();
+        columns = Math.max(1, (int) Math.ceil(MBR.getWidth() / cellSize));
+        rows = Math.max(1, (int) Math.ceil(MBR.getHeight() / cellSize));
+        cellStart = new int[columns * rows + 1];
+        fill = new int[columns * rows];
+    }
+
+
+    /**
+     * Called every tick by the scheduler, after the agents have moved
+     */
+    public void step(SimState state)	{
+        rebuild();
+    }
+
+
+    /**
+     * Put every agent in the cell it is now in
+     */
+    public void rebuild()	{
+        gather();
+
+        if (threads > 1 && size >= 2 * threads)	{
+            locateInParallel();
+        } else	{
+            locate(0, size);
+        }
+
+        // counting sort of the agents by cell, keeping them in order within
+        // each cell
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < size; i++)	{
+            cellStart[cell[i] + 1]++;
+        }
+        for (int c = 0; c < fill.length; c++)	{
+            cellStart[c + 1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, fill, 0, fill.length);
+        for (int i = 0; i < size; i++)	{
+            members[fill[cell[i]]++] = i;
+        }
+    }
+
+
+    /**
+     * Copy every agent's coordinates into x and y
+     */
+    void gather()	{
+        ArrayList<Agent> list = world.agentList;
+        AgentStore store = world.agentStore;
+        int n = list.size() + ((store == null) ? 0 : store.size());
+        if (n > x.length)	{
+            int capacity = Math.max(n, 2 * x.length);
+            x = new double[capacity];
+            y = new double[capacity];
+            cell = new int[capacity];
+            members = new int[capacity];
+        }
+        size = n;
+
+        int k = 0;
+        for (Agent a : list)	{
+            Coordinate c = a.getPosition();
+            x[k] = c.x;
+            y[k] = c.y;
+            k++;
+        }
+        if (store != null)	{
+            // agents moved by events have to be brought up to date first
+            if (world.edgeExitEngine != null)	{
+                world.edgeExitEngine.updatePositions(world.schedule.getTime());
+            }
+            System.arraycopy(store.x, 0, x, k, store.size());
+            System.arraycopy(store.y, 0, y, k, store.size());
+        }
+    }
+
+
+    /**
+     * Work out the cells of agents from to to - 1
+     */
+    void locate(int from, int to)	{
+        for (int i = from; i < to; i++)	{
+            cell[i] = row(y[i]) * columns + column(x[i]);
+        }
+    }
+
+    private void locateInParallel()	{
+        if (pool == null)	{
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory()	{
+                public Thread newThread(Runnable r)	{
+                    Thread t = new Thread(r, "AgentGrid");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        int chunk = (size + threads - 1) / threads;
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int first = 0; first < size; first += chunk)	{
+            final int from = first;
+            final int to = Math.min(size, first + chunk);
+            tasks.add(new Callable<Object>()	{
+                public Object call()	{
+                    locate(from, to);
+                    return null;
+                }
+            });
+        }
+        try	{
+            for (Future<Object> f : pool.invokeAll(tasks))	{
+                f.get();
+            }
+        } catch (Exception e)	{
+            throw new RuntimeException("Agent grid rebuild failed", e);
+        }
+    }
+
+
+    /**
+     * Stop the threads used to rebuild the grid, if there are any
+     */
+    public void shutdown()	{
+        if (pool != null)	{
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+
+    int column(double px)	{
+        int c = (int) Math.floor((px - minX) / cellSize);
+        return Math.max(0, Math.min(columns - 1, c));
+    }
+
+    int row(double py)	{
+        int r = (int) Math.floor((py - minY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+
+    /**
+     * @return the number of agents in the grid when it was last rebuilt
+     */
+    public int size()	{
+        return size;
+    }
+
+    public double getX(int agent)	{
+        return x[agent];
+    }
+
+    public double getY(int agent)	{
+        return y[agent];
+    }
+
+
+    /**
+     * Find the agents within a distance of a point, as they were when the
+     * grid was last rebuilt
+     * @param result cleared and filled with the agents' numbers, cell by
+     * cell; a new IntBag if null
+     * @return result
+     */
+    public IntBag getAgentsWithinDistance(double px, double py, double distance,
+    		IntBag result)	{
+        if (result == null)	{
+            result = new IntBag();
+        } else	{
+            result.clear();
+        }
+        double limit = distance * distance;
+        int c0 = column(px - distance), c1 = column(px + distance);
+        int r0 = row(py - distance), r1 = row(py + distance);
+        for (int r = r0; r <= r1; r++)	{
+            for (int c = c0; c <= c1; c++)	{
+                int cellIndex = r * columns + c;
+                for (int k = cellStart[cellIndex]; k < cellStart[cellIndex + 1]; k++)	{
+                    int i = members[k];
+                    double dx = x[i] - px;
+                    double dy = y[i] - py;
+                    if (dx * dx + dy * dy <= limit)	{
+                        result.add(i);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return how many agents are within a distance of a point, as they were
+     * when the grid was last rebuilt
+     */
+    public int countAgentsWithinDistance(double px, double py, double distance)	{
+        double limit = distance * distance;
+        int c0 = column(px - distance), c1 = column(px + distance);
+        int r0 = row(py - distance), r1 = row(py + distance);
+        int count = 0;
+        for (int r = r0; r <= r1; r++)	{
+            for (int c = c0; c <= c1; c++)	{
+                int cellIndex = r * columns + c;
+                for (int k = cellStart[cellIndex]; k < cellStart[cellIndex + 1]; k++)	{
+                    int i = members[k];
+                    double dx = x[i] - px;
+                    double dy = y[i] - py;
+                    if (dx * dx + dy * dy <= limit)	{
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Find the agents within a distance of a geometry, as the agents'
+     * GeomVectorFields do, but from where the agents were when the grid was
+     * last rebuilt rather than from the layers' quadtrees, which are only
+     * kept up to date while the agents are drawn
+     * @return the points showing the agents, cell by cell. Points that are
+     * not being drawn are moved to where the agents are first.
+     */
+    public Bag getObjectsWithinDistance(Geometry g, double distance)	{
+        Bag result = new Bag();
+        Envelope e = g.getEnvelopeInternal();
+        Coordinate p = (g instanceof Point) ? g.getCoordinate() : null;
+        GeometryFactory fact = g.getFactory();
+        PointMoveTo move = new PointMoveTo();
+        double limit = distance * distance;
+        int c0 = column(e.getMinX() - distance), c1 = column(e.getMaxX() + distance);
+        int r0 = row(e.getMinY() - distance), r1 = row(e.getMaxY() + distance);
+        for (int r = r0; r <= r1; r++)	{
+            for (int c = c0; c <= c1; c++)	{
+                int cellIndex = r * columns + c;
+                for (int k = cellStart[cellIndex]; k < cellStart[cellIndex + 1]; k++)	{
+                    int i = members[k];
+                    boolean near;
+                    if (p != null)	{
+                        double dx = x[i] - p.x;
+                        double dy = y[i] - p.y;
+                        near = dx * dx + dy * dy <= limit;
+                    } else	{
+                        near = g.isWithinDistance(
+                        		fact.createPoint(new Coordinate(x[i], y[i])), distance);
+                    }
+                    if (near)	{
+                        result.add(point(i, move));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the point showing agent i, where the grid has it
+     */
+    private MasonGeometry point(int i, PointMoveTo move)	{
+        ArrayList<Agent> list = world.agentList;
+        MasonGeometry mg = (i < list.size()) ? list.get(i).getGeometry()
+        		: world.agentStore.location[i - list.size()];
+        if (!world.displayAgents)	{
+            move.setCoordinate(new Coordinate(x[i], y[i]));
+            mg.geometry.apply(move);
+            mg.geometry.geometryChanged();
+        }
+        return mg;
+    }
+}
@@ -0,0 +1,71 @@
+package sim.app.geo.MK_1;
+
+import java.io.Serializable;
+
+import sim.field.geo.GeomVectorField;
+
+/**
+ *
+ * The parameters that make one kind of Agent differ from another: how fast
+ * it moves, where its population comes from and where it heads for, and
+ * whether it turns back once everyone has arrived.
+ */
+public class AgentProfile implements Serializable	{
+    private static final long serialVersionUID = 3618220364924513742L;
+
+    final String name;				// e.g. "NGO Agent", used in messages
+    double moveRate;				// how far an agent moves in each step()
+    Integer[] goals;				// ROAD_IDs the agents are sent to
+    String populationFile;			// resource name or path of the population CSV
+    final GeomVectorField layer;	// where the agents are displayed
+    boolean returnTrips = true;		// turn back when everyone has arrived?
+    int population = 0;				// agents of this kind in the model
+    boolean travelling = true;		// setting out on the current leg?
+
+
+    /**
+     * @param name what this kind of agent is called
+     * @param moveRate how far an agent moves in each step
+     * @param goals the ROAD_IDs the agents choose their destinations from
+     * @param populationFile resource name of the population CSV, or the path
+     * of one that is not a resource
+     * @param layer the field the agents' locations are kept in
+     */
+    public AgentProfile(String name, double moveRate, Integer[] goals,
+    		String populationFile, GeomVectorField layer)	{
+        this.name = name;
+        this.moveRate = moveRate;
+        this.goals = goals;
+        this.populationFile = populationFile;
+        this.layer = layer;
+    }
+
+    public String getName()	{
+        return name;
+    }
+
+    public String getPopulationFile()	{
+        return populationFile;
+    }
+    public void setPopulationFile(String file)	{
+        populationFile = file;
+    }
+
+    public double getMoveRate()	{
+        return moveRate;
+    }
+    public void setMoveRate(double rate)	{
+        moveRate = rate;
+    }
+
+    public boolean getReturnTrips()	{
+        return returnTrips;
+    }
+    public void setReturnTrips(boolean returns)	{
+        returnTrips = returns;
+    }
+
+    public String toString()	{
+        return name;
+    }
+}
@@ -0,0 +1,509 @@
+package sim.app.geo.MK_1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.geo.GeomPlanarGraphEdge;
+import sim.util.geo.MasonGeometry;
+import sim.util.geo.PointMoveTo;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.planargraph.Node;
+
+/**
+ *
+ * Structure-of-arrays alternative to Agent objects, for very large
+ * populations. The state of agent i is held at index i of a set of primitive
+ * arrays, and the store is a single Steppable that moves every agent in one
+ * loop, instead of one Steppable per agent.
+ *
+ * The movement rules are those of Agent.step(), transitionToNextEdge() and
+ * setupEdge(), line for line; only the representation differs. Roads are
+ * referred to by their RoadGraph id, traffic is counted in the model's
+ * EdgeTraffic without listing the agents, and positions along a road come
+ * from the road's shared EdgeGeometry. Agents are moved in the order they were added, rather than in
+ * the order the schedule would have stepped separate Steppables.
+ *
+ * With stepThreads set, each step runs in two phases instead. First every
+ * agent works out its move on a pool of threads, seeing the traffic on each
+ * road as it was at the start of the step (plus itself, on roads it enters
+ * during the step). Then the changes in traffic are committed and the
+ * agents are shown in their new places, in agent order. No agent sees
+ * another's move within a step, so the outcome is the same for any number
+ * of threads.
+ */
+public final class AgentStore implements Steppable	{
+    private static final long serialVersionUID = -2716448733590143187L;
+
+    final MK_1 world;
+    final RoadGraph graph;
+
+    final EdgeGeometry[] segments;	// shape of each road, by road id
+    final EdgeTraffic traffic;		// agents on each road
+
+    ///////////////////// Agents ///////////////////////////////
+    int size = 0;
+    AgentProfile[] profile;
+    double[] moveRate;
+    Route[] path;			// shared with every agent making the same trip
+    int[] road;				// road the agent is on
+    double[] currentIndex;	// position along the road
+    int[] linkDirection;
+    int[] indexOnPath;
+    int[] pathDirection;
+    double[] speed;
+    boolean[] reachedDestination;
+    int[] leg;				// the model's legsCompleted when last stepped
+    double[] x, y;			// last position the agent was moved to
+    MasonGeometry[] location;	// point that shows the agent, in its profile's layer
+
+    ///////////////////// Two-phase stepping ///////////////////
+    int stepThreads = 0;		// 0 moves the agents one by one, as Agents do
+    boolean deferTraffic = false;	// true while the moves are being worked out
+    int[] frozen;				// traffic on each road at the start of the step
+    int[] startRoad;			// road each agent was on at the start of the step
+    boolean[] justArrived;		// reached its destination during the step
+    double[] startSpeed;		// speed at the start of the step
+    boolean[] startTravelling;	// not at its destination at the start of the step
+    transient ExecutorService pool = null;
+
+    private final PointMoveTo pointMoveTo = new PointMoveTo();
+    private final Coordinate here = new Coordinate();
+    private final GeometryFactory fact = new GeometryFactory();
+
+
+    /**
+     * @param world the model whose road network the agents move on
+     */
+    public AgentStore(MK_1 world)	{
+        this.world = world;
+        graph = world.graph;
+
+        segments = graph.roadGeometries;
+        traffic = world.edgeTraffic;
+        frozen = new int[graph.numRoads];
+        allocate(1024);
+    }
+
+    private void allocate(int capacity)	{
+        profile = (profile == null) ? new AgentProfile[capacity] : Arrays.copyOf(profile, capacity);
+        moveRate = (moveRate == null) ? new double[capacity] : Arrays.copyOf(moveRate, capacity);
+        path = (path == null) ? new Route[capacity] : Arrays.copyOf(path, capacity);
+        road = (road == null) ? new int[capacity] : Arrays.copyOf(road, capacity);
+        currentIndex = (currentIndex == null) ? new double[capacity]
+        		: Arrays.copyOf(currentIndex, capacity);
+        linkDirection = (linkDirection == null) ? new int[capacity]
+        		: Arrays.copyOf(linkDirection, capacity);
+        indexOnPath = (indexOnPath == null) ? new int[capacity]
+        		: Arrays.copyOf(indexOnPath, capacity);
+        pathDirection = (pathDirection == null) ? new int[capacity]
+        		: Arrays.copyOf(pathDirection, capacity);
+        speed = (speed == null) ? new double[capacity] : Arrays.copyOf(speed, capacity);
+        reachedDestination = (reachedDestination == null) ? new boolean[capacity]
+        		: Arrays.copyOf(reachedDestination, capacity);
+        leg = (leg == null) ? new int[capacity] : Arrays.copyOf(leg, capacity);
+        x = (x == null) ? new double[capacity] : Arrays.copyOf(x, capacity);
+        y = (y == null) ? new double[capacity] : Arrays.copyOf(y, capacity);
+        location = (location == null) ? new MasonGeometry[capacity]
+        		: Arrays.copyOf(location, capacity);
+        startRoad = (startRoad == null) ? new int[capacity] : Arrays.copyOf(startRoad, capacity);
+        justArrived = (justArrived == null) ? new boolean[capacity]
+        		: Arrays.copyOf(justArrived, capacity);
+        startSpeed = (startSpeed == null) ? new double[capacity]
+        		: Arrays.copyOf(startSpeed, capacity);
+        startTravelling = (startTravelling == null) ? new boolean[capacity]
+        		: Arrays.copyOf(startTravelling, capacity);
+    }
+
+
+    /**
+     * Add an agent and find its route, as new Agent(...).start() does
+     * @return the index of the agent, or -1 if its goal cannot be reached
+     * from its home
+     */
+    public int add(AgentProfile kind, GeomPlanarGraphEdge startingEdge,
+    		GeomPlanarGraphEdge goalEdge)	{
+        Node homeNode = startingEdge.getDirEdge(0).getFromNode();
+        Node workNode = goalEdge.getDirEdge(0).getToNode();
+        Route route = world.routeFor(homeNode, workNode);
+        if (route.isEmpty())	{
+            if (world.logLevel >= MK_1.LOG_DEBUG)	{
+                System.out.println("Initialization of agent failed: it is located in a part "
+                    + "of the network that cannot access the given goal node");
+            }
+            return -1;
+        }
+
+        if (size == profile.length)	{
+            allocate(2 * size);
+        }
+        int i = size++;
+        profile[i] = kind;
+        moveRate[i] = kind.moveRate;
+        path[i] = route;
+        if (world.flooding != null)	{
+            world.flooding.add(route, i);
+        }
+        road[i] = -1;
+        indexOnPath[i] = 0;
+        pathDirection[i] = 1;
+        linkDirection[i] = 1;
+        speed[i] = 0;
+        reachedDestination[i] = false;
+        world.speeds.add(0);
+        leg[i] = world.legsCompleted;
+        Coordinate home = homeNode.getCoordinate();
+        x[i] = home.x;
+        y[i] = home.y;
+
+        setupEdge(i, graph.roads[route.edge(0)]);
+        moveTo(i, segments[road[i]], currentIndex[i], here);
+
+        location[i] = new MasonGeometry(fact.createPoint(new Coordinate(x[i], y[i])));
+        location[i].isMovable = true;
+        kind.layer.addGeometry(location[i]);
+        return i;
+    }
+
+
+    /**
+     * @return the number of agents
+     */
+    public int size()	{
+        return size;
+    }
+
+    public double getSpeed(int i)	{
+        return speed[i];
+    }
+
+    public boolean hasReachedDestination(int i)	{
+        return reachedDestination[i];
+    }
+
+    public MasonGeometry getGeometry(int i)	{
+        return location[i];
+    }
+
+
+    /**
+     * @param threads how many threads to work out the agents' moves on, in
+     * two-phase steps; 0 to move the agents one at a time
+     */
+    public void setStepThreads(int threads)	{
+        stepThreads = Math.max(0, threads);
+    }
+
+
+    /**
+     * Stop the threads of two-phase stepping, if any
+     */
+    public void shutdown()	{
+        if (pool != null)	{
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+
+    /**
+     * Called every tick by the scheduler.
+     * Moves every agent along its path, then shows them where they now are
+     * if they are being displayed.
+     */
+    public void step(SimState state)	{
+        boolean toWork = ((MK_1) state).goToWork;
+        if (stepThreads > 0)	{
+            stepInPhases(toWork);
+        } else	{
+            for (int i = 0; i < size; i++)	{
+                step(i, toWork, here);
+            }
+        }
+        if (world.displayAgents)	{
+            showPositions();
+        }
+    }
+
+
+    /**
+     * Move every agent's point to where the agent now is
+     */
+    void showPositions()	{
+        for (int i = 0; i < size; i++)	{
+            here.x = x[i];
+            here.y = y[i];
+            pointMoveTo.setCoordinate(here);
+            profile[i].layer.setGeometryLocation(location[i], pointMoveTo);
+        }
+    }
+
+
+    /**
+     * Move every agent against the traffic at the start of the step, on the
+     * pool, then commit the changes in traffic
+     */
+    void stepInPhases(final boolean toWork)	{
+        for (int r = 0; r < frozen.length; r++)	{
+            frozen[r] = traffic.count(r);
+        }
+        System.arraycopy(road, 0, startRoad, 0, size);
+        System.arraycopy(speed, 0, startSpeed, 0, size);
+        for (int i = 0; i < size; i++)	{
+            startTravelling[i] = !reachedDestination[i];
+        }
+        Arrays.fill(justArrived, 0, size, false);
+
+        // phase 1: each agent only writes its own slots
+        deferTraffic = true;
+        try	{
+            if (pool == null)	{
+                pool = Executors.newFixedThreadPool(stepThreads, new ThreadFactory()	{
+                    public Thread newThread(Runnable r)	{
+                        Thread t = new Thread(r, "AgentStore step");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            int chunk = (size + stepThreads - 1) / stepThreads;
+            ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int first = 0; first < size; first += chunk)	{
+                final int from = first;
+                final int to = Math.min(size, first + chunk);
+                tasks.add(new Callable<Object>()	{
+                    public Object call()	{
+                        Coordinate scratch = new Coordinate();
+                        for (int i = from; i < to; i++)	{
+                            step(i, toWork, scratch);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> f : pool.invokeAll(tasks))	{
+                f.get();
+            }
+        } catch (Exception e)	{
+            throw new RuntimeException("Agent step failed", e);
+        } finally	{
+            deferTraffic = false;
+        }
+
+        // phase 2: commit, in agent order
+        for (int i = 0; i < size; i++)	{
+            if (road[i] != startRoad[i])	{
+                traffic.leave(startRoad[i], null);
+                traffic.enter(road[i], null);
+            }
+            if (justArrived[i])	{
+                if (world.logLevel >= MK_1.LOG_DEBUG)	{
+                    System.out.println("Agent " +i + " has reached its destination");
+                }
+                world.agentArrived();
+            }
+            // and the change in its speed, or in whether it is travelling
+            if (startTravelling[i] == reachedDestination[i] || speed[i] != startSpeed[i])	{
+                if (startTravelling[i])	{
+                    world.speeds.remove(startSpeed[i]);
+                }
+                if (!reachedDestination[i])	{
+                    world.speeds.add(speed[i]);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Agent.step() for agent i
+     * @param scratch somewhere to put points along the road
+     */
+    void step(int i, boolean toWork, Coordinate scratch)	{
+        // turn back if a leg has ended since the last step
+        if (leg[i] != world.legsCompleted)	{
+            leg[i] = world.legsCompleted;
+            if (profile[i].travelling)	{
+                flipPath(i);
+            }
+        }
+
+        // check that we haven't already reached our destination
+        if (reachedDestination[i])	{
+            return;
+        }
+
+        // make sure that we're heading in the right direction
+        if ((toWork && pathDirection[i] < 0) || (!toWork && pathDirection[i] > 0))	{
+            flipPath(i);
+        }
+
+        // move along the current segment
+        setSpeed(i, progress(i, moveRate[i]));
+        currentIndex[i] += speed[i];
+
+        // check to see if the progress has taken the current index beyond its goal
+        // given the direction of movement. If so, proceed to the next edge
+        int r = road[i];
+        double startIndex = segments[r].getStartIndex();
+        double endIndex = segments[r].getEndIndex();
+        if (linkDirection[i] == 1 && currentIndex[i] > endIndex)	{
+            moveTo(i, segments[r], endIndex, scratch);
+            transitionToNextEdge(i, currentIndex[i] - endIndex);
+        } else if (linkDirection[i] == -1 && currentIndex[i] < startIndex)	{
+            moveTo(i, segments[r], startIndex, scratch);
+            transitionToNextEdge(i, startIndex - currentIndex[i]);
+        } else	{ // just update the position!
+            moveTo(i, segments[r], currentIndex[i], scratch);
+        }
+    }
+
+
+    double progress(int i, double val)	{
+        double edgeLength = segments[road[i]].getLength();
+        double traffic;
+        if (deferTraffic)	{ // as it was, with this agent moved onto its road
+            traffic = frozen[road[i]] + ((road[i] == startRoad[i]) ? 0 : 1);
+        } else	{
+            traffic = this.traffic.count(road[i]);
+        }
+        double factor = 1000 * edgeLength / (traffic * 5);
+        factor = Math.min(1, factor);
+        if (world.roadConditions != null)	{ // flood water slows everyone down
+            factor *= world.roadConditions.speedFactor(road[i]);
+        }
+        return val * linkDirection[i] * factor;
+    }
+
+
+    /**
+     * Change agent i's speed, keeping the model's speed statistics up to date
+     * unless the step is being worked out on several threads, when they are
+     * brought up to date as the step is committed
+     */
+    void setSpeed(int i, double s)	{
+        if (!deferTraffic)	{
+            world.speeds.change(speed[i], s);
+        }
+        speed[i] = s;
+    }
+
+
+    /**
+     * Flip agent i's path around
+     */
+    void flipPath(int i)	{
+        if (reachedDestination[i] && !deferTraffic)	{ // setting off again
+            world.speeds.add(speed[i]);
+        }
+        reachedDestination[i] = false;
+        pathDirection[i] = -pathDirection[i];
+        linkDirection[i] = -linkDirection[i];
+        if (world.flooding != null)	{ // the way back may have closed
+            world.flooding.turnedBack(i);
+        }
+    }
+
+
+    /**
+     * Agent.transitionToNextEdge() for agent i, with the recursion into the
+     * following edges turned into a loop
+     * @param residualMove the amount of distance the agent can still travel
+     * this turn
+     */
+    void transitionToNextEdge(int i, double residualMove)	{
+        while (true)	{
+            // update the counter for where the index on the path is
+            indexOnPath[i] += pathDirection[i];
+
+            // check to make sure the Agent has not reached the end
+            // of the path already
+            if ((pathDirection[i] > 0 && indexOnPath[i] >= path[i].size())
+                || (pathDirection[i] < 0 && indexOnPath[i] < 0))	{
+                if (deferTraffic)	{
+                    justArrived[i] = true;
+                } else	{
+                    if (world.logLevel >= MK_1.LOG_DEBUG)	{
+                        System.out.println("Agent " +i + " has reached its destination");
+                    }
+                    world.speeds.remove(speed[i]);
+                    world.agentArrived();
+                }
+                reachedDestination[i] = true;
+                indexOnPath[i] -= pathDirection[i]; // make sure index is correct
+                return;
+            }
+
+            // move to the next edge in the path
+            setupEdge(i, graph.roads[path[i].edge(indexOnPath[i])]);
+            setSpeed(i, progress(i, residualMove));
+            currentIndex[i] += speed[i];
+
+            // check to see if the progress has taken the current index beyond
+            // its goal given the direction of movement. If so, proceed to the
+            // next edge
+            int r = road[i];
+            double startIndex = segments[r].getStartIndex();
+            double endIndex = segments[r].getEndIndex();
+            if (linkDirection[i] == 1 && currentIndex[i] > endIndex)	{
+                residualMove = currentIndex[i] - endIndex;
+            } else if (linkDirection[i] == -1 && currentIndex[i] < startIndex)	{
+                residualMove = startIndex - currentIndex[i];
+            } else	{
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Agent.setupEdge() for agent i
+     * @param r the id of the road to traverse next
+     */
+    void setupEdge(int i, int r)	{
+
+        // clean up on old edge, and update new edge traffic; in a two-phase
+        // step this waits for the commit
+        if (!deferTraffic)	{
+            if (road[i] >= 0)	{
+                traffic.leave(road[i], null);
+            }
+            traffic.enter(r, null);
+        }
+        road[i] = r;
+
+        // set up the new index info
+        double startIndex = segments[r].getStartIndex();
+        double endIndex = segments[r].getEndIndex();
+        linkDirection[i] = 1;
+
+        // check to ensure that Agent is moving in the right direction
+        double distanceToStart = segments[r].distanceToStart(x[i], y[i]),
+            distanceToEnd = segments[r].distanceToEnd(x[i], y[i]);
+        if (distanceToStart <= distanceToEnd)	{ // closer to start
+            currentIndex[i] = startIndex;
+            linkDirection[i] = 1;
+        } else if (distanceToEnd < distanceToStart)	{ // closer to end
+            currentIndex[i] = endIndex;
+            linkDirection[i] = -1;
+        }
+    }
+
+
+    /**
+     * Move agent i to the given distance along a road
+     */
+    void moveTo(int i, EdgeGeometry segment, double index, Coordinate scratch)	{
+        segment.extractPoint(index, scratch);
+        x[i] = scratch.x;
+        y[i] = scratch.y;
+    }
+}
@@ -0,0 +1,256 @@
+package sim.app.geo.MK_1;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * Runs many replications of MK_1 without the GUI, several at a time, in one
+ * JVM. The road network is read once and shared by every run; each run has
+ * its own model, agents and random number generator, seeded seed, seed+1, ...
+ * so a sweep can be repeated exactly. One summary line per run is written to
+ * a CSV file, in run order.
+ *
+ * Usage:
+ *   java sim.app.geo.MK_1.BatchRunner [-repeat R] [-seed S] [-for STEPS]
+ *       [-threads T] [-out results.csv] [-snapshot FILE] [-ch]
+ *       [-hierarchy FILE] [-verbose]
+ *       [-synthetic COLUMNSxROWS [-agents N] [-population DIRECTORY]]
+ *       [-metrics FILE]
+ *
+ * With -synthetic the runs use a SyntheticNetwork of the given size, and N
+ * agents written to population files in DIRECTORY (by default a new
+ * temporary one), instead of the Norfolk data. With -metrics each run
+ * collects ModelMetrics and saves them to FILE with the run number added
+ * before the extension, e.g. metrics-0.json.
+ *
+ * The model's own output is discarded unless -verbose is given, as it would
+ * be interleaved between the runs; the models are set to LOG_QUIET so they
+ * do not spend time on it either.
+ */
+public class BatchRunner	{
+
+    static final String HEADER = "run,seed,steps,agents,arrived,legs,"
+    		+ "meanSpeed,routes,routeHitRate,seconds";
+
+    final NetworkData network;
+    final long steps;
+    int logLevel = MK_1.LOG_QUIET;	// for every run's model
+    SyntheticNetwork synthetic = null;	// the network runs are on, if made up
+    File[] populationFiles = null;		// and their population files
+    String metricsFile = null;			// where runs save their metrics, or null
+
+
+    /**
+     * @param network the network every run shares
+     * @param steps how many steps to run each replication for
+     */
+    public BatchRunner(NetworkData network, long steps)	{
+        this.network = network;
+        this.steps = steps;
+    }
+
+
+    /**
+     * Run one replication to the end and summarise it
+     * @param run the number of the run, for the results file
+     * @param seed the random number seed
+     * @return the CSV line for the run
+     */
+    public String run(int run, long seed)	{
+        long started = System.currentTimeMillis();
+        MK_1 model = new MK_1(seed, network);
+        model.setLogLevel(logLevel);
+        if (populationFiles != null)	{
+            synthetic.usePopulations(model, populationFiles);
+        }
+        if (metricsFile != null)	{
+            int dot = metricsFile.lastIndexOf('.');
+            model.setCollectMetrics(true);
+            model.setMetricsFile((dot > 0)
+            		? metricsFile.substring(0, dot) + "-" +run + metricsFile.substring(dot)
+            		: metricsFile + "-" +run);
+        }
+        model.start();
+        // run ticks 0 .. steps-1; with edge exit events there are other
+        // steps of the schedule in between
+        long step = 0;
+        while (model.schedule.getTime() < steps - 1 && model.schedule.step(model))	{
+            step++;
+        }
+        model.finish();
+        double seconds = (System.currentTimeMillis() - started) / 1000.0;
+        return summarise(model, run, seed, step, seconds);
+    }
+
+
+    /**
+     * @return one line of the results file
+     */
+    static String summarise(MK_1 model, int run, long seed, long steps, double seconds)	{
+        int agents = 0, arrived = 0;
+        double speed = 0;
+        for (Agent a : model.agentList)	{
+            agents++;
+            if (a.reachedDestination)	{
+                arrived++;
+            } else	{
+                speed += Math.abs(a.speed);
+            }
+        }
+        AgentStore store = model.agentStore;
+        for (int i = 0; store != null && i < store.size(); i++)	{
+            agents++;
+            if (store.hasReachedDestination(i))	{
+                arrived++;
+            } else	{
+                speed += Math.abs(store.getSpeed(i));
+            }
+        }
+        double meanSpeed = (agents > arrived) ? speed / (agents - arrived) : 0;
+        return String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%.4f,%d,%.4f,%.3f",
+        		run, seed, steps, agents, arrived, model.getLegsCompleted(),
+        		meanSpeed, model.routes.size(), model.routes.getHitRate(), seconds);
+    }
+
+
+    /**
+     * Run count replications on a pool of threads
+     * @param threads how many runs to have going at once
+     * @param seed the seed of the first run; run i uses seed + i
+     * @return the results, one line per run and in run order
+     */
+    public ArrayList<String> runAll(int count, long seed, int threads)
+    		throws Exception	{
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try	{
+            ArrayList<Future<String>> runs = new ArrayList<Future<String>>();
+            for (int i = 0; i < count; i++)	{
+                final int run = i;
+                final long runSeed = seed + i;
+                runs.add(pool.submit(new Callable<String>()	{
+                    public String call()	{
+                        return BatchRunner.this.run(run, runSeed);
+                    }
+                }));
+            }
+            ArrayList<String> results = new ArrayList<String>();
+            for (Future<String> f : runs)	{
+                results.add(f.get());
+            }
+            return results;
+        } finally	{
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * @return the value following key in args, or def if there is none
+     */
+    static String argumentForKey(String key, String[] args, String def)	{
+        for (int i = 0; i < args.length - 1; i++)	{
+            if (args[i].equalsIgnoreCase(key))	{
+                return args[i + 1];
+            }
+        }
+        return def;
+    }
+
+    static boolean keyExists(String key, String[] args)	{
+        for (String a : args)	{
+            if (a.equalsIgnoreCase(key))	{
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Main function runs a batch of replications
+     */
+    public static void main(String[] args) throws Exception	{
+        int repeat = Integer.parseInt(argumentForKey("-repeat", args, "10"));
+        long seed = Long.parseLong(argumentForKey("-seed", args, "1"));
+        long steps = Long.parseLong(argumentForKey("-for", args, "1000"));
+        int threads = Integer.parseInt(argumentForKey("-threads", args,
+        		"" + Runtime.getRuntime().availableProcessors()));
+        String out = argumentForKey("-out", args, "results.csv");
+
+        PrintStream console = System.out;
+        String size = argumentForKey("-synthetic", args, null);
+        SyntheticNetwork synthetic = null;
+        File[] populationFiles = null;
+        NetworkData network;
+        if (size != null)	{
+            String[] dimensions = size.toLowerCase(Locale.ROOT).split("x");
+            synthetic = new SyntheticNetwork(Integer.parseInt(dimensions[0]),
+            		Integer.parseInt(dimensions[1]), 100, 0.3, 0.2, seed);
+            console.println("Generating network of " +synthetic.getRoadCount() + " roads...");
+            network = NetworkData.generate(synthetic, keyExists("-ch", args),
+            		argumentForKey("-hierarchy", args, null));
+            String directory = argumentForKey("-population", args, null);
+            File populations = (directory != null) ? new File(directory)
+            		: Files.createTempDirectory("population").toFile();
+            populationFiles = synthetic.writePopulations(new MK_1(seed), populations,
+            		Long.parseLong(argumentForKey("-agents", args, "10000")), 10);
+        } else	{
+            console.println("Loading network...");
+            network = NetworkData.load(argumentForKey("-snapshot", args, null),
+            		keyExists("-ch", args), argumentForKey("-hierarchy", args, null));
+        }
+        if (network == null)	{
+            System.exit(1);
+        }
+
+        if (!keyExists("-verbose", args))	{
+            System.setOut(new PrintStream(new OutputStream()	{
+                public void write(int b)	{
+                }
+                public void write(byte[] b, int off, int len)	{
+                }
+            }));
+        }
+
+        console.println("Running " +repeat + " replications of " +steps
+        		+ " steps on " +threads + " threads...");
+        long started = System.currentTimeMillis();
+        ArrayList<String> results;
+        try	{
+            BatchRunner runner = new BatchRunner(network, steps);
+            runner.synthetic = synthetic;
+            runner.populationFiles = populationFiles;
+            runner.metricsFile = argumentForKey("-metrics", args, null);
+            if (keyExists("-verbose", args))	{
+                runner.logLevel = MK_1.LOG_INFO;
+            }
+            results = runner.runAll(repeat, seed, threads);
+        } finally	{
+            System.setOut(console);
+        }
+
+        PrintWriter w = new PrintWriter(new FileWriter(out));
+        try	{
+            w.println(HEADER);
+            for (String line : results)	{
+                w.println(line);
+            }
+        } finally	{
+            w.close();
+        }
+        console.println("Done in " +(System.currentTimeMillis() - started) / 1000.0
+        		+ " s. Results written to " +out);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,619 @@
+package sim.app.geo.MK_1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A Contraction Hierarchies index over the road graph, for answering many
+ * shortest path queries between arbitrary origins and goals quickly.
+ *
+ * Preprocessing contracts the nodes one at a time, least important first.
+ * When a node is removed, a shortcut edge is added between each pair of its
+ * neighbours whose only shortest connection ran through it. A query is then
+ * two small Dijkstra searches, one forward from the origin and one backward
+ * from the goal, each following only edges that lead to more important nodes.
+ * Shortcuts remember the two edges they replace, so a path can be unpacked
+ * back into the directed edges of the road graph.
+ *
+ * The index holds only primitive arrays and is Serializable. Save it once per
+ * network with save() and read it back with load(), which rejects an index
+ * built from a different network.
+ */
+public final class ContractionHierarchy implements Serializable	{
+    private static final long serialVersionUID = 4389104287601528833L;
+
+    // Nodes settled before a witness search gives up and adds the shortcut
+    static final int WITNESS_SETTLE_LIMIT = 500;
+
+    final int numNodes;
+    final long fingerprint;	// of the road graph the index was built from
+    final int[] rank;		// order in which each node was contracted
+
+    // every edge of the hierarchy: the road graph's directed edges, then the
+    // shortcuts
+    final int numEdges;
+    final int[] edgeFrom;
+    final int[] edgeTo;
+    final double[] edgeWeight;
+    final int[] edgeOriginal;	// road graph directed edge, or -1 for a shortcut
+    final int[] edgeFirst;		// first of the two edges a shortcut replaces
+    final int[] edgeSecond;	// second of the two edges a shortcut replaces
+
+    // edges leading up the hierarchy out of each node, for forward searches
+    final int[] upOffsets;
+    final int[] upEdges;
+    // edges leading up the hierarchy into each node, for backward searches
+    final int[] downOffsets;
+    final int[] downEdges;
+
+    // query storage, one per thread as each holds arrays the size of the graph;
+    // made by the constructor and by readObject(), so queries need no lock
+    private transient ThreadLocal<Query> queries;
+
+
+    /**
+     * Preprocess a road graph. Takes time, so it is best done once and saved.
+     * @param graph the network to index
+     */
+    public ContractionHierarchy(RoadGraph graph)	{
+        numNodes = graph.numNodes;
+        fingerprint = fingerprint(graph);
+        Builder b = new Builder(graph);
+        b.contractAll();
+
+        rank = b.rank;
+        numEdges = b.numEdges;
+        edgeFrom = Arrays.copyOf(b.from, numEdges);
+        edgeTo = Arrays.copyOf(b.to, numEdges);
+        edgeWeight = Arrays.copyOf(b.weight, numEdges);
+        edgeOriginal = Arrays.copyOf(b.original, numEdges);
+        edgeFirst = Arrays.copyOf(b.first, numEdges);
+        edgeSecond = Arrays.copyOf(b.second, numEdges);
+
+        // split the edges into the upward and downward search graphs
+        upOffsets = new int[numNodes + 1];
+        downOffsets = new int[numNodes + 1];
+        for (int e = 0; e < numEdges; e++)	{
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]])	{
+                upOffsets[edgeFrom[e] + 1]++;
+            } else	{
+                downOffsets[edgeTo[e] + 1]++;
+            }
+        }
+        for (int n = 0; n < numNodes; n++)	{
+            upOffsets[n + 1] += upOffsets[n];
+            downOffsets[n + 1] += downOffsets[n];
+        }
+        upEdges = new int[upOffsets[numNodes]];
+        downEdges = new int[downOffsets[numNodes]];
+        int[] upFill = new int[numNodes], downFill = new int[numNodes];
+        for (int e = 0; e < numEdges; e++)	{
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]])	{
+                upEdges[upOffsets[edgeFrom[e]] + upFill[edgeFrom[e]]++] = e;
+            } else	{
+                downEdges[downOffsets[edgeTo[e]] + downFill[edgeTo[e]]++] = e;
+            }
+        }
+        queries = newQueries();
+    }
+
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException	{
+        in.defaultReadObject();
+        queries = newQueries();
+    }
+
+
+    /**
+     * @return the number of shortcut edges the preprocessing added
+     */
+    public int getShortcutCount()	{
+        int count = 0;
+        for (int e = 0; e < numEdges; e++)	{
+            if (edgeOriginal[e] < 0)	{
+                count++;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * @return whether the index was built from this road graph
+     */
+    public boolean matches(RoadGraph graph)	{
+        return graph.numNodes == numNodes && fingerprint(graph) == fingerprint;
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    /////////////////////////// QUERY //////////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * Find a shortest path. Safe to call from several threads at once.
+     * @param origin id of the node to start from
+     * @param goal id of the node to end at
+     * @return the road graph directed edge indices of a shortest path from
+     * origin to goal, or an empty array if there is none
+     */
+    public int[] path(int origin, int goal)	{
+        if (origin < 0 || goal < 0 || origin == goal)	{
+            return new int[0];
+        }
+        return queries.get().run(origin, goal);
+    }
+
+
+    private ThreadLocal<Query> newQueries()	{
+        return new ThreadLocal<Query>()	{
+            @Override
+            protected Query initialValue()	{
+                return new Query();
+            }
+        };
+    }
+
+
+    /**
+     * Working storage for the bidirectional search, reused between queries
+     * and stamped so that it never needs clearing
+     */
+    private final class Query	{
+        final double[] forwardDist = new double[numNodes];
+        final double[] backwardDist = new double[numNodes];
+        final int[] forwardEdge = new int[numNodes];
+        final int[] backwardEdge = new int[numNodes];
+        final int[] forwardSeen = new int[numNodes];
+        final int[] backwardSeen = new int[numNodes];
+        final IndexedMinHeap forward = new IndexedMinHeap(numNodes);
+        final IndexedMinHeap backward = new IndexedMinHeap(numNodes);
+        int stamp = 0;
+
+        int[] run(int origin, int goal)	{
+            if (++stamp == Integer.MAX_VALUE)	{
+                Arrays.fill(forwardSeen, 0);
+                Arrays.fill(backwardSeen, 0);
+                stamp = 1;
+            }
+            forward.clear();
+            backward.clear();
+            reach(forwardDist, forwardEdge, forwardSeen, forward, origin, 0, -1);
+            reach(backwardDist, backwardEdge, backwardSeen, backward, goal, 0, -1);
+
+            double best = Double.POSITIVE_INFINITY;
+            int meeting = -1;
+
+            // alternate between the two searches until neither can improve
+            while ((!forward.isEmpty() && forward.peekKey() < best)
+            		|| (!backward.isEmpty() && backward.peekKey() < best))	{
+
+                if (!forward.isEmpty() && forward.peekKey() < best)	{
+                    int u = forward.poll();
+                    if (backwardSeen[u] == stamp && forwardDist[u] + backwardDist[u] < best)	{
+                        best = forwardDist[u] + backwardDist[u];
+                        meeting = u;
+                    }
+                    if (stalled(forwardDist, forwardSeen, u, downOffsets, downEdges, edgeFrom))	{
+                        continue;
+                    }
+                    for (int i = upOffsets[u]; i < upOffsets[u + 1]; i++)	{
+                        int e = upEdges[i];
+                        reach(forwardDist, forwardEdge, forwardSeen, forward,
+                        		edgeTo[e], forwardDist[u] + edgeWeight[e], e);
+                    }
+                }
+
+                if (!backward.isEmpty() && backward.peekKey() < best)	{
+                    int u = backward.poll();
+                    if (forwardSeen[u] == stamp && forwardDist[u] + backwardDist[u] < best)	{
+                        best = forwardDist[u] + backwardDist[u];
+                        meeting = u;
+                    }
+                    if (stalled(backwardDist, backwardSeen, u, upOffsets, upEdges, edgeTo))	{
+                        continue;
+                    }
+                    for (int i = downOffsets[u]; i < downOffsets[u + 1]; i++)	{
+                        int e = downEdges[i];
+                        reach(backwardDist, backwardEdge, backwardSeen, backward,
+                        		edgeFrom[e], backwardDist[u] + edgeWeight[e], e);
+                    }
+                }
+            }
+
+            if (meeting < 0)	{
+                return new int[0];
+            }
+
+            // collect the hierarchy edges on both halves of the path
+            IntList edges = new IntList();
+            for (int n = meeting; forwardEdge[n] >= 0; n = edgeFrom[forwardEdge[n]])	{
+                edges.add(forwardEdge[n]);
+            }
+            edges.reverse();
+            for (int n = meeting; backwardEdge[n] >= 0; n = edgeTo[backwardEdge[n]])	{
+                edges.add(backwardEdge[n]);
+            }
+            return unpack(edges);
+        }
+
+        /**
+         * Stall-on-demand: a node reached more cheaply from above than its own
+         * distance cannot be on a shortest path, so its edges need not be
+         * followed
+         */
+        boolean stalled(double[] dist, int[] seen, int u, int[] offsets,
+        		int[] edges, int[] other)	{
+            for (int i = offsets[u]; i < offsets[u + 1]; i++)	{
+                int e = edges[i];
+                int w = other[e];
+                if (seen[w] == stamp && dist[w] + edgeWeight[e] < dist[u])	{
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void reach(double[] dist, int[] via, int[] seen, IndexedMinHeap queue,
+        		int n, double d, int edge)	{
+            if (seen[n] != stamp)	{
+                seen[n] = stamp;
+                dist[n] = d;
+                via[n] = edge;
+                queue.insert(n, d);
+            } else if (d < dist[n] && queue.contains(n))	{
+                dist[n] = d;
+                via[n] = edge;
+                queue.decreaseKey(n, d);
+            }
+        }
+    }
+
+
+    /**
+     * Expand shortcuts until only road graph edges are left
+     */
+    int[] unpack(IntList edges)	{
+        IntList result = new IntList();
+        IntList stack = new IntList();
+        for (int i = edges.size - 1; i >= 0; i--)	{
+            stack.add(edges.data[i]);
+        }
+        while (stack.size > 0)	{
+            int e = stack.data[--stack.size];
+            if (edgeOriginal[e] >= 0)	{
+                result.add(edgeOriginal[e]);
+            } else	{
+                stack.add(edgeSecond[e]);
+                stack.add(edgeFirst[e]);
+            }
+        }
+        return result.toArray();
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    ///////////////////////// PERSISTENCE //////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * Write the index to a file
+     */
+    public void save(File file) throws IOException	{
+        ObjectOutputStream out = new ObjectOutputStream(
+        		new BufferedOutputStream(new FileOutputStream(file)));
+        try	{
+            out.writeObject(this);
+        } finally	{
+            out.close();
+        }
+    }
+
+
+    /**
+     * Read an index back from a file
+     * @param file where it was saved
+     * @param graph the network it must belong to
+     * @return the index, or null if the file is missing, unreadable or was
+     * built from a different network
+     */
+    public static ContractionHierarchy load(File file, RoadGraph graph)	{
+        if (!file.isFile())	{
+            return null;
+        }
+        try	{
+            ObjectInputStream in = new ObjectInputStream(
+            		new BufferedInputStream(new FileInputStream(file)));
+            try	{
+                ContractionHierarchy ch = (ContractionHierarchy) in.readObject();
+                return ch.matches(graph) ? ch : null;
+            } finally	{
+                in.close();
+            }
+        } catch (Exception e)	{
+            System.out.println("Could not read contraction hierarchy " + file + ": " + e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Identifies a road graph by its topology and edge lengths
+     */
+    static long fingerprint(RoadGraph graph)	{
+        long h = 1125899906842597L;
+        h = 31 * h + graph.numNodes;
+        h = 31 * h + graph.numEdges;
+        for (int d = 0; d < graph.numEdges; d++)	{
+            h = 31 * h + graph.sources[d];
+            h = 31 * h + graph.targets[d];
+            h = 31 * h + Double.doubleToLongBits(graph.lengths[d]);
+        }
+        return h;
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    //////////////////////// PREPROCESSING /////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * The contraction itself. Keeps growable edge arrays and per-node edge
+     * lists of the graph that is left at each stage.
+     */
+    private static final class Builder	{
+        final int numNodes;
+        int numEdges = 0;
+        int[] from, to, original, first, second;
+        double[] weight;
+
+        final IntList[] out, in;	// edges of every node, contracted or not
+        final boolean[] contracted;
+        final int[] deletedNeighbours;
+        final int[] rank;
+
+        // witness search storage
+        final double[] dist;
+        final int[] seen;
+        final IndexedMinHeap queue;
+        int stamp = 0;
+
+        Builder(RoadGraph graph)	{
+            numNodes = graph.numNodes;
+            int capacity = Math.max(16, graph.numEdges * 2);
+            from = new int[capacity];
+            to = new int[capacity];
+            original = new int[capacity];
+            first = new int[capacity];
+            second = new int[capacity];
+            weight = new double[capacity];
+
+            out = new IntList[numNodes];
+            in = new IntList[numNodes];
+            for (int n = 0; n < numNodes; n++)	{
+                out[n] = new IntList();
+                in[n] = new IntList();
+            }
+            contracted = new boolean[numNodes];
+            deletedNeighbours = new int[numNodes];
+            rank = new int[numNodes];
+            dist = new double[numNodes];
+            seen = new int[numNodes];
+            queue = new IndexedMinHeap(numNodes);
+
+            for (int d = 0; d < graph.numEdges; d++)	{
+                if (graph.sources[d] != graph.targets[d])	{ // loops never help
+                    addEdge(graph.sources[d], graph.targets[d], graph.lengths[d], d, -1, -1);
+                }
+            }
+        }
+
+        void contractAll()	{
+            // order the nodes by how much contracting them would cost
+            IndexedMinHeap order = new IndexedMinHeap(numNodes);
+            for (int n = 0; n < numNodes; n++)	{
+                order.insert(n, priority(n));
+            }
+
+            int next = 0;
+            while (!order.isEmpty())	{
+                int v = order.poll();
+
+                // lazy update: if v has become more expensive than the next
+                // candidate, put it back and try again
+                double p = priority(v);
+                if (!order.isEmpty() && p > order.peekKey())	{
+                    order.insert(v, p);
+                    continue;
+                }
+
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = next++;
+
+                // neighbours have one fewer uncontracted neighbour each
+                for (int i = 0; i < out[v].size; i++)	{
+                    deletedNeighbours[to[out[v].data[i]]]++;
+                }
+                for (int i = 0; i < in[v].size; i++)	{
+                    deletedNeighbours[from[in[v].data[i]]]++;
+                }
+            }
+        }
+
+        /**
+         * Edge difference plus a term that spreads contraction evenly
+         */
+        double priority(int v)	{
+            int shortcuts = contract(v, true);
+            int degree = 0;
+            for (int i = 0; i < out[v].size; i++)	{
+                if (!contracted[to[out[v].data[i]]])	{
+                    degree++;
+                }
+            }
+            for (int i = 0; i < in[v].size; i++)	{
+                if (!contracted[from[in[v].data[i]]])	{
+                    degree++;
+                }
+            }
+            return shortcuts - degree + deletedNeighbours[v];
+        }
+
+        /**
+         * Find, and unless simulating add, the shortcuts needed to remove v
+         * @return the number of shortcuts
+         */
+        int contract(int v, boolean simulate)	{
+            int shortcuts = 0;
+            for (int i = 0; i < in[v].size; i++)	{
+                int inEdge = in[v].data[i];
+                int u = from[inEdge];
+                if (contracted[u])	{
+                    continue;
+                }
+
+                // the longest detour through v that a witness has to beat
+                double maxCost = 0;
+                for (int j = 0; j < out[v].size; j++)	{
+                    int outEdge = out[v].data[j];
+                    int w = to[outEdge];
+                    if (!contracted[w] && w != u)	{
+                        maxCost = Math.max(maxCost, weight[inEdge] + weight[outEdge]);
+                    }
+                }
+                if (maxCost == 0)	{
+                    continue;
+                }
+                witnessSearch(u, v, maxCost);
+
+                for (int j = 0; j < out[v].size; j++)	{
+                    int outEdge = out[v].data[j];
+                    int w = to[outEdge];
+                    if (contracted[w] || w == u)	{
+                        continue;
+                    }
+                    double viaV = weight[inEdge] + weight[outEdge];
+                    if (seen[w] == stamp && dist[w] <= viaV)	{
+                        continue; // there is a path as short that avoids v
+                    }
+                    shortcuts++;
+                    if (!simulate)	{
+                        addShortcut(u, w, viaV, inEdge, outEdge);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Dijkstra from u through uncontracted nodes other than v, up to
+         * maxCost or WITNESS_SETTLE_LIMIT settled nodes
+         */
+        void witnessSearch(int u, int v, double maxCost)	{
+            if (++stamp == Integer.MAX_VALUE)	{
+                Arrays.fill(seen, 0);
+                stamp = 1;
+            }
+            queue.clear();
+            seen[u] = stamp;
+            dist[u] = 0;
+            queue.insert(u, 0);
+            int settled = 0;
+            while (!queue.isEmpty() && settled++ < WITNESS_SETTLE_LIMIT)	{
+                int x = queue.poll();
+                if (dist[x] > maxCost)	{
+                    break;
+                }
+                for (int i = 0; i < out[x].size; i++)	{
+                    int e = out[x].data[i];
+                    int y = to[e];
+                    if (y == v || contracted[y])	{
+                        continue;
+                    }
+                    double d = dist[x] + weight[e];
+                    if (seen[y] != stamp)	{
+                        seen[y] = stamp;
+                        dist[y] = d;
+                        queue.insert(y, d);
+                    } else if (d < dist[y] && queue.contains(y))	{
+                        dist[y] = d;
+                        queue.decreaseKey(y, d);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add a shortcut, unless an edge between the same nodes is already as
+         * short. Existing edges are never changed, as earlier shortcuts may
+         * be made of them.
+         */
+        void addShortcut(int u, int w, double cost, int a, int b)	{
+            for (int i = 0; i < out[u].size; i++)	{
+                int e = out[u].data[i];
+                if (to[e] == w && weight[e] <= cost)	{
+                    return;
+                }
+            }
+            addEdge(u, w, cost, -1, a, b);
+        }
+
+        void addEdge(int u, int w, double cost, int orig, int a, int b)	{
+            if (numEdges == from.length)	{
+                int capacity = from.length * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                original = Arrays.copyOf(original, capacity);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+            }
+            int e = numEdges++;
+            from[e] = u;
+            to[e] = w;
+            weight[e] = cost;
+            original[e] = orig;
+            first[e] = a;
+            second[e] = b;
+            out[u].add(e);
+            in[w].add(e);
+        }
+    }
+
+
+    /**
+     * A growable list of ints
+     */
+    static final class IntList	{
+        int[] data = new int[4];
+        int size = 0;
+
+        void add(int x)	{
+            if (size == data.length)	{
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = x;
+        }
+
+        void reverse()	{
+            for (int i = 0, j = size - 1; i < j; i++, j--)	{
+                int t = data[i];
+                data[i] = data[j];
+                data[j] = t;
+            }
+        }
+
+        int[] toArray()	{
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
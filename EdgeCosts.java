@@ -0,0 +1,24 @@
+package sim.app.geo.MK_1;
+
+/**
+ * What it costs to travel each directed edge of a RoadGraph, for AStar to
+ * search on instead of the edges' lengths.
+ *
+ * A cost is never less than the straight-line length of the edge, so that
+ * the straight-line distance to the goal stays a lower bound and AStar's
+ * heuristic stays admissible. An edge that cannot be travelled costs
+ * Double.POSITIVE_INFINITY.
+ */
+public interface EdgeCosts	{
+
+    /**
+     * @return the cost of travelling directed edge d
+     */
+    double cost(int d);
+
+    /**
+     * @return whether every edge costs just its length at the moment, so
+     * that searches can read the lengths instead
+     */
+    boolean isLengths();
+}
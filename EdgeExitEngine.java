@@ -0,0 +1,225 @@
+package sim.app.geo.MK_1;
+
+import java.io.Serializable;
+
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ *
+ * Mesoscopic alternative to stepping every agent every tick. When an agent
+ * enters a road its speed is fixed, by the same rule as Agent.progress()
+ * and from the traffic on the road at that moment, and one event is put on
+ * the schedule for the time it will reach the far end. Nothing happens to
+ * the agent in between, so an agent alone on a long road costs one event
+ * rather than one step per tick.
+ *
+ * The agents' state is kept in an AgentStore. Their positions are only
+ * worked out, by interpolating along the road, when showPositions() is
+ * called for a display or an output writer.
+ *
+ * Agents set off at the start of the simulation and travel continuously:
+ * they cross onto their next road at the moment they leave the last one,
+ * which is the event-driven counterpart of carrying the residual move over
+ * in transitionToNextEdge(). A road of zero length is crossed at once.
+ */
+public final class EdgeExitEngine implements Serializable	{
+    private static final long serialVersionUID = 6129853377640410272L;
+
+    final MK_1 world;
+    final AgentStore agents;
+
+    double[] entryTime;		// when each agent entered its road
+    double[] entryIndex;	// where along the road it entered
+    double[] exitTime;		// when it will reach the far end, or infinity
+    Exit[] exits;			// the event of each agent, rescheduled on every road
+
+    private final Coordinate here = new Coordinate();
+
+
+    /**
+     * The event at which an agent reaches the end of its road
+     */
+    static final class Exit implements Steppable	{
+        private static final long serialVersionUID = 1L;
+
+        final EdgeExitEngine engine;
+        final int agent;
+
+        Exit(EdgeExitEngine engine, int agent)	{
+            this.engine = engine;
+            this.agent = agent;
+        }
+
+        public void step(SimState state)	{
+            ModelMetrics metrics = engine.world.metrics;
+            if (metrics == null)	{
+                engine.exit(agent, state.schedule.getTime());
+                return;
+            }
+            long started = System.nanoTime();
+            engine.exit(agent, state.schedule.getTime());
+            metrics.add(ModelMetrics.AGENTS, System.nanoTime() - started);
+        }
+    }
+
+
+    /**
+     * @param world the model
+     * @param agents the agents, which must all have been added
+     */
+    public EdgeExitEngine(MK_1 world, AgentStore agents)	{
+        this.world = world;
+        this.agents = agents;
+        int n = agents.size();
+        entryTime = new double[n];
+        entryIndex = new double[n];
+        exitTime = new double[n];
+        exits = new Exit[n];
+        for (int i = 0; i < n; i++)	{
+            exits[i] = new Exit(this, i);
+        }
+    }
+
+
+    /**
+     * Send every agent off along its first road at the start of the
+     * simulation
+     */
+    public void start()	{
+        for (int i = 0; i < agents.size(); i++)	{
+            enter(i, Schedule.EPOCH);
+        }
+    }
+
+
+    /**
+     * Agent i sets off along its current road from its current index: fix its
+     * speed and schedule the moment it will reach the end
+     */
+    void enter(int i, double now)	{
+        AgentStore a = agents;
+        entryTime[i] = now;
+        entryIndex[i] = a.currentIndex[i];
+
+        // distance per tick, signed with the direction of travel
+        a.setSpeed(i, a.progress(i, a.moveRate[i]));
+
+        EdgeGeometry segment = a.segments[a.road[i]];
+        double distance = (a.linkDirection[i] == 1)
+        		? segment.getEndIndex() - a.currentIndex[i]
+        		: a.currentIndex[i] - segment.getStartIndex();
+        double rate = Math.abs(a.speed[i]);
+        double time;
+        if (distance <= 0)	{
+            time = now;
+        } else if (rate > 0)	{
+            time = now + distance / rate;
+        } else	{ // it will never get anywhere, as in the per-tick model
+            exitTime[i] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        if (!(time > now))	{
+            time = Math.nextUp(now);	// the schedule only takes future times
+        }
+        exitTime[i] = time;
+        world.schedule.scheduleOnce(time, exits[i]);
+    }
+
+
+    /**
+     * Agent i has reached the end of its road: move it onto the next one on
+     * its path, or stop it at its destination
+     */
+    void exit(int i, double now)	{
+        if (now != exitTime[i])	{
+            return;	// an event left over from before the agent was turned around
+        }
+        AgentStore a = agents;
+        EdgeGeometry segment = a.segments[a.road[i]];
+        a.currentIndex[i] = (a.linkDirection[i] == 1)
+        		? segment.getEndIndex() : segment.getStartIndex();
+        a.moveTo(i, segment, a.currentIndex[i], here);
+
+        // update the counter for where the index on the path is
+        a.indexOnPath[i] += a.pathDirection[i];
+        if ((a.pathDirection[i] > 0 && a.indexOnPath[i] >= a.path[i].size())
+            || (a.pathDirection[i] < 0 && a.indexOnPath[i] < 0))	{
+            if (world.logLevel >= MK_1.LOG_DEBUG)	{
+                System.out.println("Agent " +i + " has reached its destination");
+            }
+            a.reachedDestination[i] = true;
+            world.speeds.remove(a.speed[i]);
+            a.indexOnPath[i] -= a.pathDirection[i]; // make sure index is correct
+            exitTime[i] = Double.POSITIVE_INFINITY;
+            world.agentArrived();
+            return;
+        }
+
+        // move to the next edge in the path
+        a.setupEdge(i, a.graph.roads[a.path[i].edge(a.indexOnPath[i])]);
+        enter(i, now);
+    }
+
+
+    /**
+     * Turn back every agent setting out on the new leg, and send it off
+     * again from where it stopped
+     */
+    public void flipPaths(double now)	{
+        for (int i = 0; i < agents.size(); i++)	{
+            agents.leg[i] = world.legsCompleted;
+            if (agents.profile[i].travelling)	{
+                agents.flipPath(i);
+                enter(i, now);
+            }
+        }
+    }
+
+
+    /**
+     * Work out where every agent is at the given time and move its point
+     * there
+     */
+    public void showPositions(double now)	{
+        updatePositions(now);
+        agents.showPositions();
+    }
+
+
+    /**
+     * Work out where every agent is at the given time, leaving its point
+     * where it was
+     */
+    public void updatePositions(double now)	{
+        AgentStore a = agents;
+        for (int i = 0; i < a.size(); i++)	{
+            if (a.reachedDestination[i] || exitTime[i] == Double.POSITIVE_INFINITY)	{
+                continue;	// still where it stopped
+            }
+            EdgeGeometry segment = a.segments[a.road[i]];
+            double index = entryIndex[i] + a.speed[i] * (now - entryTime[i]);
+            index = Math.max(segment.getStartIndex(), Math.min(segment.getEndIndex(), index));
+            a.currentIndex[i] = index;
+            a.moveTo(i, segment, index, here);
+        }
+    }
+
+
+    /**
+     * @return a Steppable that shows the agents' positions each time it is
+     * stepped, for displays
+     */
+    public Steppable positionUpdater()	{
+        return new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                showPositions(state.schedule.getTime());
+            }
+        };
+    }
+}
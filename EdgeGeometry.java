@@ -0,0 +1,129 @@
+package sim.app.geo.MK_1;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * The shape of one road, measured once so that agents moving along it need
+ * no JTS objects and allocate nothing.
+ *
+ * extractPoint() gives exactly the coordinate LengthIndexedLine.extractPoint()
+ * would: the segment lengths are summed in the same order, so the cumulative
+ * lengths are the very totals LengthLocationMap reaches while walking the
+ * line, and the point is interpolated the same way. The walk is replaced by
+ * a binary search over the cumulative lengths.
+ */
+public final class EdgeGeometry	{
+
+    final double length;		// as LineString.getLength()
+    final double[] x, y;		// vertices of the line
+    final double[] cumulative;	// length of the line up to each vertex
+    final double[] segment;		// length of the segment from each vertex
+
+
+    /**
+     * @param line the road's line
+     */
+    public EdgeGeometry(LineString line)	{
+        int n = line.getNumPoints();
+        x = new double[n];
+        y = new double[n];
+        cumulative = new double[n];
+        segment = new double[n];
+        for (int k = 0; k < n; k++)	{
+            Coordinate c = line.getCoordinateN(k);
+            x[k] = c.x;
+            y[k] = c.y;
+            if (k > 0)	{
+                double dx = x[k] - x[k - 1];
+                double dy = y[k] - y[k - 1];
+                segment[k - 1] = Math.sqrt(dx * dx + dy * dy);
+                cumulative[k] = cumulative[k - 1] + segment[k - 1];
+            }
+        }
+        length = line.getLength();
+    }
+
+
+    public double getLength()	{
+        return length;
+    }
+
+    public double getStartIndex()	{
+        return 0.0;
+    }
+
+    public double getEndIndex()	{
+        return length;
+    }
+
+
+    /**
+     * Find the point a given distance along the line
+     * @param index the distance from the start of the line
+     * @param result set to the point; its z is left alone
+     */
+    public void extractPoint(double index, Coordinate result)	{
+        int last = x.length - 1;
+        if (index <= 0.0 || last <= 0)	{
+            result.x = x[0];
+            result.y = y[0];
+            return;
+        }
+
+        // the segment the index falls in is the first, k, whose far end
+        // lies beyond it
+        int lo = 0, hi = last;
+        while (lo < hi)	{
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid + 1] > index)	{
+                hi = mid;
+            } else	{
+                lo = mid + 1;
+            }
+        }
+        if (lo >= last)	{ // beyond the end of the line
+            result.x = x[last];
+            result.y = y[last];
+            return;
+        }
+
+        int k = lo;
+        double frac = (index - cumulative[k]) / segment[k];
+        if (frac <= 0.0)	{
+            result.x = x[k];
+            result.y = y[k];
+        } else if (frac >= 1.0)	{
+            result.x = x[k + 1];
+            result.y = y[k + 1];
+        } else	{
+            result.x = (x[k + 1] - x[k]) * frac + x[k];
+            result.y = (y[k + 1] - y[k]) * frac + y[k];
+        }
+    }
+
+
+    /**
+     * @return the distance from a point to the start of the line
+     */
+    public double distanceToStart(double px, double py)	{
+        return distance(x[0], y[0], px, py);
+    }
+
+    /**
+     * @return the distance from a point to the end of the line
+     */
+    public double distanceToEnd(double px, double py)	{
+        int last = x.length - 1;
+        return distance(x[last], y[last], px, py);
+    }
+
+    /**
+     * Point to point distance, computed as JTS does
+     */
+    static double distance(double x0, double y0, double x1, double y1)	{
+        double dx = x0 - x1;
+        double dy = y0 - y1;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,96 @@
+package sim.app.geo.MK_1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The number of agents on each road, indexed by RoadGraph road id.
+ *
+ * Agents call enter() and leave() as they move from road to road, and
+ * progress() reads the count, so both are a single array access. The agents
+ * themselves are only listed per road when the model asks for it with
+ * trackOccupants, as keeping those lists costs a search on every leave().
+ */
+public final class EdgeTraffic	{
+
+    private final int[] count;
+    private final ArrayList<ArrayList<Agent>> occupants;	// null unless tracked
+    private long entries = 0;	// times any agent has moved onto a road
+
+
+    /**
+     * @param roads the number of roads in the network
+     * @param trackOccupants whether to keep a list of the agents on each road
+     */
+    public EdgeTraffic(int roads, boolean trackOccupants)	{
+        count = new int[roads];
+        if (trackOccupants)	{
+            occupants = new ArrayList<ArrayList<Agent>>(roads);
+            for (int r = 0; r < roads; r++)	{
+                occupants.add(new ArrayList<Agent>());
+            }
+        } else	{
+            occupants = null;
+        }
+    }
+
+
+    /**
+     * @return the number of agents on road r
+     */
+    public int count(int r)	{
+        return count[r];
+    }
+
+
+    /**
+     * An agent has moved onto road r
+     * @param a the agent, or null if it is not an Agent object
+     */
+    public void enter(int r, Agent a)	{
+        count[r]++;
+        entries++;
+        if (occupants != null && a != null)	{
+            occupants.get(r).add(a);
+        }
+    }
+
+
+    /**
+     * An agent has moved off road r
+     * @param a the agent, or null if it is not an Agent object
+     */
+    public void leave(int r, Agent a)	{
+        count[r]--;
+        if (occupants != null && a != null)	{
+            occupants.get(r).remove(a);
+        }
+    }
+
+
+    /**
+     * @return the number of times an agent has moved onto a road
+     */
+    public long getEntries()	{
+        return entries;
+    }
+
+
+    /**
+     * @return whether the agents on each road are being listed
+     */
+    public boolean tracksOccupants()	{
+        return occupants != null;
+    }
+
+
+    /**
+     * @return the Agent objects on road r, read-only, or null if they are
+     * not being tracked
+     */
+    public List<Agent> occupants(int r)	{
+        return (occupants == null) ? null
+        		: Collections.unmodifiableList(occupants.get(r));
+    }
+}
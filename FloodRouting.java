@@ -0,0 +1,537 @@
+package sim.app.geo.MK_1;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.util.IntBag;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+/**
+ * Closes and slows roads as a flood comes and goes, and sends the agents
+ * whose way ahead is cut off along another.
+ *
+ * The state of the roads is kept in RoadConditions, which AStar and the goal
+ * trees route on. Every change invalidates the route cache and repairs the
+ * goal trees in place (ShortestPathTree.update()). When roads close, only the
+ * agents on routes over them are looked at: each route keeps a list of the
+ * agents travelling it, and each road a list of the routes over it. An agent
+ * whose remaining path crosses a closed road keeps the part it has already
+ * travelled and gets a new path from the junction ahead of it to where it is
+ * going, or from where it came from when it is on its way back. Agents on the
+ * same route at the same place share one search and one new Route.
+ *
+ * An agent that has reached its destination is looked at again when it turns
+ * back, as its way back may have closed in the meantime. One that cannot get
+ * around a closure keeps its route and is counted as stranded.
+ */
+public final class FloodRouting	{
+
+    final MK_1 world;
+    final RoadConditions conditions;
+
+    // the agents travelling each route
+    private final HashMap<Route, Riders> riders = new HashMap<Route, Riders>();
+    // the routes over each road, by road id; null for none
+    private final ArrayList<ArrayList<Route>> routesOnRoad;
+
+    // new routes by route, place on it and direction of travel, for the
+    // roads as they are now
+    private final HashMap<Route, HashMap<Integer, Route>> spliced =
+        new HashMap<Route, HashMap<Integer, Route>>();
+
+    // the agents that have been left with no way around a closure, each
+    // counted once however often it is looked at again
+    private final HashSet<Agent> strandedObjects = new HashSet<Agent>();
+    private final BitSet strandedStored = new BitSet();
+
+    int reroutedAgents = 0;
+    int strandedAgents = 0;
+
+
+    /**
+     * The agents travelling one route: Agent objects and AgentStore indices
+     */
+    static final class Riders	{
+        LinkedHashSet<Agent> agents = new LinkedHashSet<Agent>();
+        LinkedHashSet<Integer> stored = new LinkedHashSet<Integer>();
+
+        boolean isEmpty()	{
+            return agents.isEmpty() && stored.isEmpty();
+        }
+    }
+
+
+    /**
+     * @param world the model, whose graph the conditions are on
+     * @param conditions the state of the roads the model routes on
+     */
+    public FloodRouting(MK_1 world, RoadConditions conditions)	{
+        this.world = world;
+        this.conditions = conditions;
+        routesOnRoad = new ArrayList<ArrayList<Route>>(world.graph.numRoads);
+        for (int r = 0; r < world.graph.numRoads; r++)	{
+            routesOnRoad.add(null);
+        }
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    ////////////////////////// SCENARIOS ///////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * Put the model's flood on the schedule: the Flood Zone 3 roads close
+     * and the other Flood Zone 2 roads slow down at floodTime, and all of
+     * them clear again at floodRecedeTime. Negative times are left out.
+     */
+    public void scheduleFloodZones(double floodTime, double recedeTime, double slowdown)	{
+        FloodZones zones = world.floodZones;
+        IntBag fz3 = new IntBag(), fz2 = new IntBag(), all = new IntBag();
+        for (int r = 0; r < world.graph.numRoads; r++)	{
+            if (zones.inZone3(r))	{
+                fz3.add(r);
+            } else if (zones.inZone2(r))	{
+                fz2.add(r);
+            }
+            if (zones.inZone2(r) || zones.inZone3(r))	{
+                all.add(r);
+            }
+        }
+        if (floodTime >= 0)	{
+            scheduleChange(floodTime, toArray(fz3), RoadConditions.CLOSED);
+            if (slowdown > 1)	{
+                scheduleChange(floodTime, toArray(fz2), slowdown);
+            }
+        }
+        if (recedeTime >= 0)	{
+            scheduleChange(recedeTime, toArray(all), 1);
+        }
+    }
+
+
+    /**
+     * Read a flood script and put its changes on the schedule. Each line is
+     * tick,ROAD_ID,factor where factor is "closed", a slowdown of more than
+     * 1, or 1 to clear the road. A header line is skipped, and so is any
+     * line that does not parse or has a factor below 1, with a message.
+     * @param file the script
+     */
+    public void scheduleScript(String file) throws IOException	{
+        TreeMap<Double, LinkedHashMap<Double, IntBag>> changes =
+            new TreeMap<Double, LinkedHashMap<Double, IntBag>>();
+        BufferedReader d = new BufferedReader(new FileReader(file));
+        try	{
+            String s;
+            int line = 0;
+            while ((s = d.readLine()) != null)	{
+                line++;
+                String[] bits = s.trim().split(",");
+                if (bits.length < 3 || bits[0].trim().length() == 0
+                    || !Character.isDigit(bits[0].trim().charAt(0)))	{
+                    continue; // header or blank line
+                }
+                double time = Double.NaN, factor = Double.NaN;
+                int id = 0;
+                try	{
+                    time = Double.parseDouble(bits[0].trim());
+                    id = Integer.parseInt(bits[1].trim());
+                    String f = bits[2].trim();
+                    factor = f.equalsIgnoreCase("closed")
+                    		? RoadConditions.CLOSED : Double.parseDouble(f);
+                } catch (NumberFormatException e)	{
+                    // skipped below
+                }
+                // RoadConditions only takes closed, 1 or a slowdown above it
+                if (!(factor >= 1) || !(time < Double.POSITIVE_INFINITY))	{
+                    System.out.println("Flood script: skipped line " +line + ": " +s);
+                    continue;
+                }
+                GeomPlanarGraphEdge edge = world.idsToEdges.get(Integer.valueOf(id));
+                int road = world.graph.roadId(edge);
+                if (road < 0)	{
+                    System.out.println("Flood script: no road with ROAD_ID " +bits[1]);
+                    continue;
+                }
+
+                LinkedHashMap<Double, IntBag> at = changes.get(time);
+                if (at == null)	{
+                    at = new LinkedHashMap<Double, IntBag>();
+                    changes.put(time, at);
+                }
+                IntBag roads = at.get(factor);
+                if (roads == null)	{
+                    roads = new IntBag();
+                    at.put(factor, roads);
+                }
+                roads.add(road);
+            }
+        } finally	{
+            d.close();
+        }
+
+        for (Map.Entry<Double, LinkedHashMap<Double, IntBag>> at : changes.entrySet())	{
+            for (Map.Entry<Double, IntBag> change : at.getValue().entrySet())	{
+                scheduleChange(at.getKey(), toArray(change.getValue()), change.getKey());
+            }
+        }
+    }
+
+
+    /**
+     * Set the factor of some roads at a given time, before the agents move
+     */
+    public void scheduleChange(double time, final int[] roads, final double factor)	{
+        world.schedule.scheduleOnce(time, -1, world.timed(ModelMetrics.FLOODING, new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                setFactor(roads, factor);
+            }
+        }));
+    }
+
+
+    private static int[] toArray(IntBag bag)	{
+        return Arrays.copyOf(bag.objs, bag.numObjs);
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    ////////////////////////// CHANGES /////////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * Set how passable some roads are now, update the routing to match, and
+     * re-route the agents whose way ahead has closed
+     * @param roads the road ids
+     * @param factor 1 to clear them, more to slow them, RoadConditions.CLOSED
+     * to close them
+     */
+    public void setFactor(int[] roads, double factor)	{
+        int[] changed = new int[roads.length];
+        int n = 0;
+        for (int r : roads)	{
+            if (conditions.set(r, factor))	{
+                changed[n++] = r;
+            }
+        }
+        if (n == 0)	{
+            return;
+        }
+        changed = Arrays.copyOf(changed, n);
+        world.edgeCostsChanged(changed);
+        spliced.clear();
+        if (world.logLevel >= MK_1.LOG_INFO)	{
+            System.out.println("Flooding: " +n + " roads "
+            		+ ((factor == RoadConditions.CLOSED) ? "closed"
+            		: (factor == 1) ? "cleared" : "slowed by " +factor));
+        }
+        if (factor == RoadConditions.CLOSED)	{
+            reroute(changed);
+        }
+    }
+
+
+    /**
+     * Give a new route to every agent whose remaining path crosses one of
+     * the roads just closed. Agents that have reached their destinations are
+     * left until they turn back.
+     */
+    void reroute(int[] closed)	{
+        LinkedHashSet<Route> affected = new LinkedHashSet<Route>();
+        for (int r : closed)	{
+            ArrayList<Route> over = routesOnRoad.get(r);
+            if (over != null)	{
+                affected.addAll(over);
+            }
+        }
+
+        int before = reroutedAgents, stuck = strandedAgents;
+        for (Route route : affected)	{
+            Riders on = riders.get(route);
+            if (on == null)	{
+                continue;
+            }
+            for (Agent a : new ArrayList<Agent>(on.agents))	{
+                if (!a.reachedDestination)	{
+                    reroute(a);
+                }
+            }
+            for (Integer i : new ArrayList<Integer>(on.stored))	{
+                if (!world.agentStore.reachedDestination[i])	{
+                    reroute(i.intValue());
+                }
+            }
+        }
+        if (world.logLevel >= MK_1.LOG_INFO)	{
+            System.out.println("Flooding: " +(reroutedAgents - before) + " agents re-routed over "
+            		+affected.size() + " routes, " +(strandedAgents - stuck) + " stranded");
+        }
+    }
+
+
+    /**
+     * An Agent has just turned back: re-route it if its way back is closed.
+     * May be called from several threads at once.
+     */
+    synchronized void turnedBack(Agent a)	{
+        if (!conditions.isClear())	{
+            reroute(a);
+        }
+    }
+
+    /**
+     * An agent in the AgentStore has just turned back: re-route it if its
+     * way back is closed. May be called from several threads at once.
+     */
+    synchronized void turnedBack(int i)	{
+        if (!conditions.isClear())	{
+            reroute(i);
+        }
+    }
+
+
+    private void reroute(Agent a)	{
+        Route route = a.route;
+        Route next = spliced(route, a.indexOnPath, a.pathDirection);
+        if (next == null)	{ // no way around
+            if (strandedObjects.add(a))	{
+                strandedAgents++;
+            }
+        } else if (next != route)	{
+            a.indexOnPath = newIndex(route, next, a.indexOnPath, a.pathDirection);
+            a.route = next;
+            a.pathFromHomeToWork = next.getPath();
+            remove(route, a);
+            add(next, a);
+            reroutedAgents++;
+        }
+    }
+
+    private void reroute(int i)	{
+        AgentStore store = world.agentStore;
+        Route route = store.path[i];
+        Route next = spliced(route, store.indexOnPath[i], store.pathDirection[i]);
+        if (next == null)	{ // no way around
+            if (!strandedStored.get(i))	{
+                strandedStored.set(i);
+                strandedAgents++;
+            }
+        } else if (next != route)	{
+            store.indexOnPath[i] = newIndex(route, next, store.indexOnPath[i],
+            		store.pathDirection[i]);
+            store.path[i] = next;
+            remove(route, i);
+            add(next, i);
+            reroutedAgents++;
+        }
+    }
+
+
+    /**
+     * @return the route an agent at index k of route, heading in direction,
+     * should take instead; route itself if its way ahead is open, or null if
+     * it cannot get around the closure. Agents at the same place on the same
+     * route share the answer until the roads change again.
+     */
+    Route spliced(Route route, int k, int direction)	{
+        HashMap<Integer, Route> done = spliced.get(route);
+        if (done == null)	{
+            done = new HashMap<Integer, Route>();
+            spliced.put(route, done);
+        }
+        Integer key = Integer.valueOf(2 * k + ((direction > 0) ? 1 : 0));
+        Route next;
+        if (done.containsKey(key))	{
+            next = done.get(key);
+        } else	{
+            next = splice(route, k, direction);
+            done.put(key, next);
+        }
+        return next;
+    }
+
+
+    /**
+     * @return whether any road after index k of the route, going in
+     * direction, is closed
+     */
+    boolean blocked(Route route, int k, int direction)	{
+        int from = (direction > 0) ? k + 1 : 0;
+        int to = (direction > 0) ? route.size() : k;
+        for (int j = from; j < to; j++)	{
+            if (conditions.isClosed(world.graph.roads[route.edge(j)]))	{
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Keep route up to and including the edge at index k, and find a new
+     * path on from there
+     * @return the new route, route itself if the way ahead is open, or null
+     * if there is no way around the closure
+     */
+    Route splice(Route route, int k, int direction)	{
+        if (!blocked(route, k, direction))	{
+            return route;
+        }
+        RoadGraph graph = world.graph;
+        int size = route.size();
+        int[] edges;
+        if (direction > 0)	{
+            // from the junction ahead on to the goal
+            int ahead = graph.targets[route.edge(k)];
+            int[] tail = world.findPath(ahead, route.goal);
+            if (tail.length == 0 && ahead != route.goal)	{
+                return null;
+            }
+            edges = new int[k + 1 + tail.length];
+            for (int j = 0; j <= k; j++)	{
+                edges[j] = route.edge(j);
+            }
+            System.arraycopy(tail, 0, edges, k + 1, tail.length);
+        } else	{
+            // from the origin to the junction ahead, travelled backwards
+            int ahead = graph.sources[route.edge(k)];
+            int[] head = pathFromOrigin(route.origin, ahead);
+            if (head.length == 0 && ahead != route.origin)	{
+                return null;
+            }
+            edges = new int[head.length + size - k];
+            System.arraycopy(head, 0, edges, 0, head.length);
+            for (int j = k; j < size; j++)	{
+                edges[head.length + j - k] = route.edge(j);
+            }
+        }
+        return new Route(graph, route.origin, route.goal, edges);
+    }
+
+
+    /**
+     * @return the path from a route's origin to a node. If the origin has a
+     * goal tree already, as a goal agents come back from does, the path is
+     * read backwards off it. Otherwise it is one A* search, shared by the
+     * agents at the same place through spliced(), rather than a new tree
+     * for every origin that would then have to be kept and repaired. The
+     * trees are built on lengths, so they are not read while routing on
+     * travel times.
+     */
+    int[] pathFromOrigin(int origin, int to)	{
+        ShortestPathTree tree = (world.useGoalTrees && world.travelTimes == null)
+        		? world.builtGoalTree(origin) : null;
+        if (tree == null)	{
+            return world.searchPath(origin, to);
+        }
+        RoadGraph graph = world.graph;
+        int[] back = tree.pathFrom(to);
+        int[] path = new int[back.length];
+        for (int j = 0; j < back.length; j++)	{
+            int d = graph.reverse[back[j]];
+            if (d < 0)	{ // a one-way road
+                return world.searchPath(origin, to);
+            }
+            path[back.length - 1 - j] = d;
+        }
+        return path;
+    }
+
+
+    /**
+     * @return the index on next of the edge that was at index k of route
+     */
+    static int newIndex(Route route, Route next, int k, int direction)	{
+        return (direction > 0) ? k : next.size() - (route.size() - k);
+    }
+
+
+    ////////////////////////////////////////////////////////////////
+    ////////////////////////// RIDERS //////////////////////////////
+    ////////////////////////////////////////////////////////////////
+
+    /**
+     * An Agent has been given a route
+     */
+    void add(Route route, Agent a)	{
+        riders(route).agents.add(a);
+    }
+
+    /**
+     * An agent in the AgentStore has been given a route
+     */
+    void add(Route route, int i)	{
+        riders(route).stored.add(Integer.valueOf(i));
+    }
+
+    private void remove(Route route, Agent a)	{
+        Riders on = riders.get(route);
+        if (on != null && on.agents.remove(a) && on.isEmpty())	{
+            forget(route);
+        }
+    }
+
+    private void remove(Route route, int i)	{
+        Riders on = riders.get(route);
+        if (on != null && on.stored.remove(Integer.valueOf(i)) && on.isEmpty())	{
+            forget(route);
+        }
+    }
+
+    private Riders riders(Route route)	{
+        Riders on = riders.get(route);
+        if (on == null)	{
+            on = new Riders();
+            riders.put(route, on);
+            for (int j = 0; j < route.size(); j++)	{
+                int r = world.graph.roads[route.edge(j)];
+                ArrayList<Route> over = routesOnRoad.get(r);
+                if (over == null)	{
+                    over = new ArrayList<Route>(2);
+                    routesOnRoad.set(r, over);
+                }
+                if (over.isEmpty() || over.get(over.size() - 1) != route)	{
+                    over.add(route);
+                }
+            }
+        }
+        return on;
+    }
+
+    private void forget(Route route)	{
+        riders.remove(route);
+        spliced.remove(route);
+        for (int j = 0; j < route.size(); j++)	{
+            ArrayList<Route> over = routesOnRoad.get(world.graph.roads[route.edge(j)]);
+            if (over != null)	{
+                over.remove(route);
+            }
+        }
+    }
+
+
+    public int getReroutedAgents()	{
+        return reroutedAgents;
+    }
+
+    /**
+     * @return the number of agents that have been left with no way around a
+     * closure
+     */
+    public int getStrandedAgents()	{
+        return strandedAgents;
+    }
+}
@@ -0,0 +1,161 @@
+package sim.app.geo.MK_1;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Which roads cross Flood Zone 2 and Flood Zone 3, worked out once when the
+ * network is created and kept as a bit per RoadGraph road id.
+ *
+ * Each road's line is tested against the flood polygons whose envelopes it
+ * overlaps, found in an STRtree, using prepared geometries so the polygons
+ * are only indexed once. Routing and agents then only look up a bit and
+ * never run a geometric predicate while the simulation runs. Like the
+ * RoadGraph it is never changed once built.
+ */
+public final class FloodZones	{
+
+    private final BitSet zone2;	// roads that cross FZ2
+    private final BitSet zone3;	// roads that cross FZ3
+    final int numRoads;
+
+
+    /**
+     * Classify every road of the graph
+     * @param graph the road network
+     * @param flood2 the Flood Zone 2 polygons
+     * @param flood3 the Flood Zone 3 polygons
+     * @param threads how many threads to test the roads on
+     */
+    public FloodZones(RoadGraph graph, GeomVectorField flood2, GeomVectorField flood3,
+    		int threads)	{
+        numRoads = graph.numRoads;
+        threads = Math.max(1, threads);
+        ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try	{
+            zone2 = classify(graph, index(flood2), threads, pool);
+            zone3 = classify(graph, index(flood3), threads, pool);
+        } finally	{
+            if (pool != null)	{
+                pool.shutdown();
+            }
+        }
+    }
+
+
+    /**
+     * @return an STRtree of the prepared polygons of a layer, ready to query
+     * from several threads
+     */
+    static STRtree index(GeomVectorField layer)	{
+        STRtree tree = new STRtree();
+        for (Object o : layer.getGeometries())	{
+            Geometry g = ((MasonGeometry) o).geometry;
+            if (!g.isEmpty())	{
+                tree.insert(g.getEnvelopeInternal(), PreparedGeometryFactory.prepare(g));
+            }
+        }
+        tree.build();
+        return tree;
+    }
+
+
+    /**
+     * @return the roads whose lines intersect a polygon in the tree
+     */
+    static BitSet classify(final RoadGraph graph, final STRtree polygons, int threads,
+    		ExecutorService pool)	{
+        int n = graph.numRoads;
+        if (pool == null || n < 2 * threads)	{
+            return classify(graph, polygons, 0, n);
+        }
+
+        // each thread fills its own BitSet for a run of roads
+        int chunk = (n + threads - 1) / threads;
+        ArrayList<Callable<BitSet>> tasks = new ArrayList<Callable<BitSet>>();
+        for (int first = 0; first < n; first += chunk)	{
+            final int from = first;
+            final int to = Math.min(n, first + chunk);
+            tasks.add(new Callable<BitSet>()	{
+                public BitSet call()	{
+                    return classify(graph, polygons, from, to);
+                }
+            });
+        }
+        BitSet result = new BitSet(n);
+        try	{
+            for (Future<BitSet> f : pool.invokeAll(tasks))	{
+                result.or(f.get());
+            }
+        } catch (Exception e)	{
+            throw new RuntimeException("Flood zone classification failed", e);
+        }
+        return result;
+    }
+
+    private static BitSet classify(RoadGraph graph, STRtree polygons, int from, int to)	{
+        BitSet result = new BitSet(to);
+        for (int r = from; r < to; r++)	{
+            LineString line = graph.roadEdges[r].getLine();
+            List<?> candidates = polygons.query(line.getEnvelopeInternal());
+            for (Object o : candidates)	{
+                if (((PreparedGeometry) o).intersects(line))	{
+                    result.set(r);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return whether road r crosses Flood Zone 2
+     */
+    public boolean inZone2(int r)	{
+        return zone2.get(r);
+    }
+
+    /**
+     * @return whether road r crosses Flood Zone 3
+     */
+    public boolean inZone3(int r)	{
+        return zone3.get(r);
+    }
+
+    /**
+     * @return 3 if road r crosses Flood Zone 3, otherwise 2 if it crosses
+     * Flood Zone 2, otherwise 0
+     */
+    public int zone(int r)	{
+        return zone3.get(r) ? 3 : (zone2.get(r) ? 2 : 0);
+    }
+
+    /**
+     * @return the number of roads that cross Flood Zone 2
+     */
+    public int getZone2Count()	{
+        return zone2.cardinality();
+    }
+
+    /**
+     * @return the number of roads that cross Flood Zone 3
+     */
+    public int getZone3Count()	{
+        return zone3.cardinality();
+    }
+}
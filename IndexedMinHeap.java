@@ -0,0 +1,206 @@
+package sim.app.geo.MK_1;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over integer handles with decrease-key, used as the open
+ * set of the shortest path searches.
+ *
+ * Handles are small non-negative integers (a node id, or the order in which a
+ * node was discovered) and the heap keeps the position of every handle so
+ * that contains() and decreaseKey() are O(1) and O(log n) respectively.
+ *
+ * Ties between equal keys are broken by insertion order, which is exactly
+ * what the old linear findMin() over an ArrayList did: the first node added
+ * to the open set wins. Keeping that rule is what lets the heap return the
+ * same paths as the list-based search did.
+ */
+public final class IndexedMinHeap	{
+
+    private int[] heap;		// handles, in heap order
+    private int[] pos;		// position of each handle in heap + 1, 0 when absent
+    private double[] key;	// priority of each handle
+    private long[] stamp;	// insertion order of each handle, for tie-breaking
+    private int size = 0;
+    private long counter = 0;
+
+    /**
+     * @param capacity initial number of handles; grows on demand
+     */
+    public IndexedMinHeap(int capacity)	{
+        capacity = Math.max(capacity, 16);
+        heap = new int[capacity];
+        pos = new int[capacity];
+        key = new double[capacity];
+        stamp = new long[capacity];
+    }
+
+    public int size()	{
+        return size;
+    }
+
+    public boolean isEmpty()	{
+        return size == 0;
+    }
+
+    /**
+     * @return whether the handle is currently in the heap
+     */
+    public boolean contains(int h)	{
+        return h < pos.length && pos[h] != 0;
+    }
+
+    /**
+     * @return the key of a handle in the heap
+     */
+    public double getKey(int h)	{
+        return key[h];
+    }
+
+    /**
+     * Empty the heap. Only touches the handles still in it, so it is cheap to
+     * reuse one heap across many searches.
+     */
+    public void clear()	{
+        for (int i = 0; i < size; i++)	{
+            pos[heap[i]] = 0;
+        }
+        size = 0;
+        counter = 0;
+    }
+
+    /**
+     * Add a handle that is not yet in the heap
+     */
+    public void insert(int h, double k)	{
+        ensureCapacity(h + 1);
+        key[h] = k;
+        stamp[h] = counter++;
+        heap[size] = h;
+        pos[h] = size + 1;
+        siftUp(size++);
+    }
+
+    /**
+     * Lower the key of a handle already in the heap. Its insertion order is
+     * kept, as it would be for an element that stays where it is in a list.
+     */
+    public void decreaseKey(int h, double k)	{
+        key[h] = k;
+        siftUp(pos[h] - 1);
+    }
+
+    /**
+     * Add the handle, or lower its key if it is already in the heap and the
+     * new key is smaller. Its insertion order is kept in the latter case.
+     */
+    public void insertOrDecrease(int h, double k)	{
+        if (!contains(h))	{
+            insert(h, k);
+        } else if (k < key[h])	{
+            decreaseKey(h, k);
+        }
+    }
+
+    /**
+     * Remove a handle from anywhere in the heap
+     */
+    public void remove(int h)	{
+        int i = pos[h] - 1;
+        pos[h] = 0;
+        size--;
+        if (i == size)	{
+            return;
+        }
+        int last = heap[size];
+        heap[i] = last;
+        pos[last] = i + 1;
+        siftDown(i);
+        siftUp(pos[last] - 1);
+    }
+
+    /**
+     * @return the handle with the smallest key, without removing it
+     */
+    public int peek()	{
+        return heap[0];
+    }
+
+    /**
+     * @return the smallest key in the heap
+     */
+    public double peekKey()	{
+        return key[heap[0]];
+    }
+
+    /**
+     * Remove and return the handle with the smallest key
+     */
+    public int poll()	{
+        int min = heap[0];
+        pos[min] = 0;
+        size--;
+        if (size > 0)	{
+            int last = heap[size];
+            heap[0] = last;
+            pos[last] = 1;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    ////////////////// HELPER FUNCTIONS ////////////////////////
+
+    private boolean less(int a, int b)	{
+        return key[a] < key[b] || (key[a] == key[b] && stamp[a] < stamp[b]);
+    }
+
+    private void siftUp(int i)	{
+        int h = heap[i];
+        while (i > 0)	{
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (!less(h, p))	{
+                break;
+            }
+            heap[i] = p;
+            pos[p] = i + 1;
+            i = parent;
+        }
+        heap[i] = h;
+        pos[h] = i + 1;
+    }
+
+    private void siftDown(int i)	{
+        int h = heap[i];
+        int half = size >>> 1;
+        while (i < half)	{
+            int child = 2 * i + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < size && less(heap[right], c))	{
+                child = right;
+                c = heap[child];
+            }
+            if (!less(c, h))	{
+                break;
+            }
+            heap[i] = c;
+            pos[c] = i + 1;
+            i = child;
+        }
+        heap[i] = h;
+        pos[h] = i + 1;
+    }
+
+    private void ensureCapacity(int n)	{
+        if (n <= pos.length)	{
+            return;
+        }
+        int capacity = Math.max(n, pos.length * 2);
+        heap = Arrays.copyOf(heap, capacity);
+        pos = Arrays.copyOf(pos, capacity);
+        key = Arrays.copyOf(key, capacity);
+        stamp = Arrays.copyOf(stamp, capacity);
+    }
+}
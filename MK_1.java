@@ -1,24 +1,29 @@
 package sim.app.geo.MK_1;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.field.geo.GeomVectorField;
 import sim.io.geo.ShapeFileImporter;
+import sim.util.Bag;
 import sim.util.geo.GeomPlanarGraph;
 import sim.util.geo.GeomPlanarGraphEdge;
 import sim.util.geo.MasonGeometry;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.planargraph.Node;
@@ -55,63 +60,321 @@ public class MK_1 extends SimState	{
     ////////////////////// Network ///////////////////////////////
     public GeomPlanarGraph network = new GeomPlanarGraph();	// Stores road network connections
     public GeomVectorField junctions = new GeomVectorField();	// nodes for intersections
+    RoadGraph graph = null;	// array form of the network, used for routing
+    FloodZones floodZones = null;	// which roads cross FZ2 and FZ3
+    // A* search over graph, one per thread as each holds working storage
+    transient ThreadLocal<AStar> pathfinders = null;
+    RouteCache routes = null;	// routes shared by all agents, by (origin, goal)
+
+    // Largest number of distinct routes to keep in the route cache
+    int routeCacheSize = 10000;
+    public int getRouteCacheSize()	{
+        return routeCacheSize;
+    }
+    public void setRouteCacheSize(int size)	{
+        routeCacheSize = size;
+    }
+
+    // Binary copy of the GIS layers, read instead of the shapefiles when it
+    // is up to date
+    String snapshotFile = null;
+    public String getSnapshotFile()	{
+        return snapshotFile;
+    }
+    public void setSnapshotFile(String file)	{
+        snapshotFile = file;
+    }
+
+    // Route agents with a Contraction Hierarchies index instead of A*. The
+    // index is saved to hierarchyFile, when set, and read back from it on
+    // later runs with the same network.
+    boolean useContractionHierarchy = false;
+    String hierarchyFile = null;
+    ContractionHierarchy hierarchy = null;
+    public boolean getUseContractionHierarchy()	{
+        return useContractionHierarchy;
+    }
+    public void setUseContractionHierarchy(boolean use)	{
+        useContractionHierarchy = use;
+    }
+    public String getHierarchyFile()	{
+        return hierarchyFile;
+    }
+    public void setHierarchyFile(String file)	{
+        hierarchyFile = file;
+    }
+
+    // Read the population files and find routes on several threads
+    boolean parallelSetup = false;
+    int setupThreads = Runtime.getRuntime().availableProcessors();
+    public boolean getParallelSetup()	{
+        return parallelSetup;
+    }
+    public void setParallelSetup(boolean parallel)	{
+        parallelSetup = parallel;
+    }
+    public int getSetupThreads()	{
+        return setupThreads;
+    }
+    public void setSetupThreads(int threads)	{
+        setupThreads = threads;
+    }
+
+    // How much to print while setting up: LOG_QUIET only errors, LOG_INFO a
+    // summary of each population file, LOG_DEBUG every row of them as well
+    public static final int LOG_QUIET = 0, LOG_INFO = 1, LOG_DEBUG = 2;
+    int logLevel = LOG_INFO;
+    public int getLogLevel()	{
+        return logLevel;
+    }
+    public void setLogLevel(int level)	{
+        logLevel = Math.max(LOG_QUIET, Math.min(LOG_DEBUG, level));
+    }
+
+    // Network loaded once and shared by several runs, or null if this model
+    // reads its own
+    final NetworkData sharedNetwork;
+
+    // Made-up network to run on instead of the shapefiles, or null
+    SyntheticNetwork syntheticNetwork = null;
+
+    // Number of times everyone has reached their destination and turned back.
+    // Agents compare it with the leg they are on to know when to turn back.
+    int legsCompleted = 0;
+    public int getLegsCompleted()	{
+        return legsCompleted;
+    }
 
-    ///////////////////// MainAgent //////////////////////////////
+    // Agents that have reached their destination on this leg, and the number
+    // setting out on it: the leg ends as soon as the two are equal
+    int arrivals = 0;
+    int travellers = 0;
+
+    // Route agents through one shortest path tree per goal, rather than
+    // searching for each route separately
+    boolean useGoalTrees = false;
+    HashMap<Integer, ShortestPathTree> goalTrees =
+        new HashMap<Integer, ShortestPathTree>();
+    public boolean getUseGoalTrees()	{
+        return useGoalTrees;
+    }
+    public void setUseGoalTrees(boolean use)	{
+        useGoalTrees = use;
+    }
+
+    ///////////////////// Agents //////////////////////////////
     // maps between unique edge IDs and edge structures themselves
     HashMap<Integer, GeomPlanarGraphEdge> idsToEdges =
         new HashMap<Integer, GeomPlanarGraphEdge>();
-    HashMap<GeomPlanarGraphEdge, ArrayList<MainAgent>> edgeTraffic =
-        new HashMap<GeomPlanarGraphEdge, ArrayList<MainAgent>>();
+    // the number of agents on each road, of every kind
+    EdgeTraffic edgeTraffic = null;
     
-    public GeomVectorField mainagents = new GeomVectorField();
-    ArrayList<MainAgent> agentList = new ArrayList<MainAgent>();
-    
-    // Here we force the agents to go to or from work at any time
-    boolean goToWork = true;
-    public boolean getGoToWork()	{
-        return goToWork;
+    // Also list which agents are on each road, for anything that needs to
+    // know who they are rather than how many
+    boolean trackOccupants = false;
+    public boolean getTrackOccupants()	{
+        return trackOccupants;
     }
-    
-    ///////////////////// NGOAgent //////////////////////////////
-    HashMap<Integer, GeomPlanarGraphEdge> idsToEdges1 =
-            new HashMap<Integer, GeomPlanarGraphEdge>();
-    HashMap<GeomPlanarGraphEdge, ArrayList<NGOAgent>> edgeTraffic1 =
-            new HashMap<GeomPlanarGraphEdge, ArrayList<NGOAgent>>();
-    
-    public GeomVectorField ngogents = new GeomVectorField();
-    ArrayList<NGOAgent> ngoAgentList = new ArrayList<NGOAgent>();
-
-    boolean goToWork1 = true;    
-    public boolean getGoToWork1()	{
-        return goToWork1;
+    public void setTrackOccupants(boolean track)	{
+        trackOccupants = track;
     }
     
-    //////////////////// ElderlyAgent ///////////////////////////
-    HashMap<Integer, GeomPlanarGraphEdge> idsToEdges2 =
-            new HashMap<Integer, GeomPlanarGraphEdge>();
-    HashMap<GeomPlanarGraphEdge, ArrayList<ElderlyAgent>> edgeTraffic2 =
-            new HashMap<GeomPlanarGraphEdge, ArrayList<ElderlyAgent>>();
+    ArrayList<Agent> agentList = new ArrayList<Agent>();
     
-    public GeomVectorField elderlyagent = new GeomVectorField();
-    ArrayList<ElderlyAgent> elderlyAgentList = new ArrayList<ElderlyAgent>();
+    // Keep the agents in one structure-of-arrays AgentStore, stepped as a
+    // batch, instead of as one Agent object and Steppable each
+    boolean useAgentStore = false;
+    AgentStore agentStore = null;
+    public boolean getUseAgentStore()	{
+        return useAgentStore;
+    }
+    public void setUseAgentStore(boolean use)	{
+        useAgentStore = use;
+    }
     
-    boolean goToWork2 = true;    
-    public boolean getGoToWork2()	{
-        return goToWork2;
+    // Step the agents in two phases on this many threads, each agent moving
+    // against the traffic as it was at the start of the step, so that runs
+    // do not depend on the number of threads. 0 moves them one at a time.
+    // Two-phase stepping always uses the AgentStore.
+    int stepThreads = 0;
+    public int getStepThreads()	{
+        return stepThreads;
+    }
+    public void setStepThreads(int threads)	{
+        stepThreads = threads;
     }
     
-    //////////////////// LimitedActionsAgent //////////////////////
-    HashMap<Integer, GeomPlanarGraphEdge> idsToEdges3 =
-            new HashMap<Integer, GeomPlanarGraphEdge>();
-    HashMap<GeomPlanarGraphEdge, ArrayList<LimitedActionsAgent>> edgeTraffic3 =
-            new HashMap<GeomPlanarGraphEdge, ArrayList<LimitedActionsAgent>>();
+    // Move the agents with one scheduled event per road they travel, rather
+    // than stepping them every tick. Also uses the AgentStore.
+    boolean useEdgeExitEvents = false;
+    EdgeExitEngine edgeExitEngine = null;
+    public boolean getUseEdgeExitEvents()	{
+        return useEdgeExitEvents;
+    }
+    public void setUseEdgeExitEvents(boolean use)	{
+        useEdgeExitEvents = use;
+    }
     
-    public GeomVectorField limitedactionsagent = new GeomVectorField();
-    ArrayList<LimitedActionsAgent> limitedActionsAgentList = new ArrayList<LimitedActionsAgent>();
+    // Flooding: at floodTime the roads in Flood Zone 3 close and the other
+    // roads in Flood Zone 2 are slowed by fz2Slowdown, until floodRecedeTime.
+    // Closures can also be read from floodScript, as lines of
+    // tick,ROAD_ID,factor. Negative times for no flood.
+    double floodTime = -1;
+    double floodRecedeTime = -1;
+    double fz2Slowdown = 2;
+    String floodScript = null;
+    RoadConditions roadConditions = null;	// null unless there is a flood
+    FloodRouting flooding = null;
+    public double getFloodTime()	{
+        return floodTime;
+    }
+    public void setFloodTime(double time)	{
+        floodTime = time;
+    }
+    public double getFloodRecedeTime()	{
+        return floodRecedeTime;
+    }
+    public void setFloodRecedeTime(double time)	{
+        floodRecedeTime = time;
+    }
+    public double getFz2Slowdown()	{
+        return fz2Slowdown;
+    }
+    public void setFz2Slowdown(double slowdown)	{
+        fz2Slowdown = Math.max(1, slowdown);
+    }
+    public String getFloodScript()	{
+        return floodScript;
+    }
+    public void setFloodScript(String file)	{
+        floodScript = file;
+    }
+    public int getReroutedAgents()	{
+        return (flooding == null) ? 0 : flooding.getReroutedAgents();
+    }
+
+    // Route on travel times, from each road's class and the traffic on it
+    // with the BPR curve, brought up to date every tick, instead of on the
+    // roads' lengths. roadClassAttribute names the road attribute giving
+    // its class.
+    boolean routeOnTravelTime = false;
+    String roadClassAttribute = "DESCTERM";
+    double bprAlpha = 0.15;
+    double bprBeta = 4;
+    TravelTimes travelTimes = null;	// null unless routing on travel times
+    public boolean getRouteOnTravelTime()	{
+        return routeOnTravelTime;
+    }
+    public void setRouteOnTravelTime(boolean route)	{
+        routeOnTravelTime = route;
+    }
+    public String getRoadClassAttribute()	{
+        return roadClassAttribute;
+    }
+    public void setRoadClassAttribute(String attribute)	{
+        roadClassAttribute = attribute;
+    }
+    public double getBprAlpha()	{
+        return bprAlpha;
+    }
+    public void setBprAlpha(double alpha)	{
+        bprAlpha = Math.max(0, alpha);
+    }
+    public double getBprBeta()	{
+        return bprBeta;
+    }
+    public void setBprBeta(double beta)	{
+        bprBeta = Math.max(0, beta);
+    }
+    public int getJammedRoads()	{
+        return (travelTimes == null) ? 0 : travelTimes.getJammedRoads();
+    }
 
-    boolean goToWork3 = true;    
-    public boolean getGoToWork3()	{
-        return goToWork3;
+    // Keep a grid of where the agents are, rebuilt once per tick, for finding
+    // the agents near a point
+    boolean useAgentGrid = false;
+    double agentGridCellSize = 500;	// metres
+    AgentGrid agentGrid = null;
+    public boolean getUseAgentGrid()	{
+        return useAgentGrid;
+    }
+    public void setUseAgentGrid(boolean use)	{
+        useAgentGrid = use;
+    }
+    public double getAgentGridCellSize()	{
+        return agentGridCellSize;
+    }
+    public void setAgentGridCellSize(double size)	{
+        agentGridCellSize = size;
+    }
+
+    /**
+     * Find the agents within a distance of a geometry: from the agent grid
+     * if there is one, or else from the agents' layers, whose quadtrees are
+     * only kept up to date while the agents are drawn
+     * @return the points showing the agents, as MasonGeometry
+     */
+    public Bag getAgentsWithinDistance(Geometry g, double distance)	{
+        if (agentGrid != null)	{
+            return agentGrid.getObjectsWithinDistance(g, distance);
+        }
+        Bag result = new Bag();
+        for (AgentProfile profile : profiles)	{
+            result.addAll(profile.layer.getObjectsWithinDistance(g, distance));
+        }
+        return result;
+    }
+
+    // Time every tick by phase, count edge transitions and route searches,
+    // and save it all to metricsFile (.json or .csv) when the run finishes
+    boolean collectMetrics = false;
+    String metricsFile = null;
+    ModelMetrics metrics = null;	// null unless collectMetrics is set
+    public boolean getCollectMetrics()	{
+        return collectMetrics;
+    }
+    public void setCollectMetrics(boolean collect)	{
+        collectMetrics = collect;
+    }
+    public String getMetricsFile()	{
+        return metricsFile;
+    }
+    public void setMetricsFile(String file)	{
+        metricsFile = file;
+    }
+    public ModelMetrics getMetrics()	{
+        return metrics;
+    }
+
+    // Routes to give the agents instead of searching for them, in the order
+    // the agents are placed, as found by TrafficAssignment. Agents with no
+    // route here, or one between other junctions, search as usual. The
+    // routes the agents are given are listed in agentRoutes.
+    Route[] assignedRoutes = null;
+    ArrayList<Route> agentRoutes = new ArrayList<Route>();
+
+    // The speeds of the agents still travelling, kept by the agents as they
+    // change, and how many ticks apart the chart plots them
+    SpeedStats speeds = null;
+    int chartInterval = 1;
+    public int getChartInterval()	{
+        return chartInterval;
+    }
+    public void setChartInterval(int ticks)	{
+        chartInterval = Math.max(1, ticks);
+    }
+    public double getMeanSpeed()	{
+        return (speeds == null) ? 0 : speeds.getMean();
+    }
+
+    // Whether the agents' points in their layers, and the layers' spatial
+    // indexes, are kept up to date: set by MK_1WithUI for drawing them
+    boolean displayAgents = false;
+
+    // Here we force the agents to go to or from work at any time
+    boolean goToWork = true;
+    public boolean getGoToWork()	{
+        return goToWork;
     }
     
     /**
@@ -124,23 +387,49 @@ public class MK_1 extends SimState	{
      * 
      */
     
-    Integer[] goals =	{	// MainAgent
+    Integer[] goals =	{	// mainAgents
     		// 78277, 82124 // doesn't work
     		30250
     };
 
-    Integer[] goals1 =	{	// NGOAgent
+    Integer[] goals1 =	{	// ngoAgents
     		30250
     };
     
-    Integer[] goals2 =	{	// ElderlyAgent
+    Integer[] goals2 =	{	// elderlyAgents
     		30250
     };
     
-    Integer[] goals3 =	{	// LimitedActionsAgent
+    Integer[] goals3 =	{	// limitedActionsAgents
     		30250
     };
     
+    //////////////////// Agent profiles ///////////////////////////
+    AgentProfile mainAgents = new AgentProfile("Main Agent", 750, goals,
+    		"/data/NorfolkITNAGENT.csv", agents);
+    AgentProfile ngoAgents = new AgentProfile("NGO Agent", 1000, goals1,
+    		"/data/NorfolkITNNGO.csv", ngoagents);
+    AgentProfile elderlyAgents = new AgentProfile("Elderly Agent", 500, goals2,
+    		"/data/NorfolkITNELDERLY.csv", elderlyagents);
+    AgentProfile limitedActionsAgents = new AgentProfile("LimitedActions Agent", 500, goals3,
+    		"/data/NorfolkITNLIMITED.csv", limitedactionsagents);
+    // every kind of agent, in the order they are populated
+    AgentProfile[] profiles =	{
+    		mainAgents, ngoAgents, elderlyAgents, limitedActionsAgents
+    };
+    public AgentProfile getMainAgents()	{
+        return mainAgents;
+    }
+    public AgentProfile getNGOAgents()	{
+        return ngoAgents;
+    }
+    public AgentProfile getElderlyAgents()	{
+        return elderlyAgents;
+    }
+    public AgentProfile getLimitedActionsAgents()	{
+        return limitedActionsAgents;
+    }
+    
     ///////////////////////////////////////////////////////////////////////////
 	/////////////////////////// BEGIN FUNCTIONS ///////////////////////////////
 	///////////////////////////////////////////////////////////////////////////	
@@ -150,7 +439,17 @@ public class MK_1 extends SimState	{
      * Model Constructor
      */
     public MK_1(long seed)	{
+        this(seed, null);
+    }
+
+    /**
+     * Model Constructor for a run on a network that has already been loaded,
+     * and may be shared with other runs going on at the same time
+     * @param network see NetworkData.load()
+     */
+    public MK_1(long seed, NetworkData network)	{
         super(seed);
+        sharedNetwork = network;
     }
 
     
@@ -160,6 +459,17 @@ public class MK_1 extends SimState	{
     @Override
     public void start() {
         super.start();
+        legsCompleted = 0;
+        agentRoutes.clear();
+        arrivals = 0;
+        travellers = 0;
+        double topSpeed = 0;
+        for (AgentProfile profile : profiles)	{
+            profile.population = 0;
+            profile.travelling = true;
+            topSpeed = Math.max(topSpeed, profile.moveRate);
+        }
+        speeds = new SpeedStats(topSpeed);
         System.out.println("Reading shapefiles...");
 
 		//////////////////////////////////////////////
@@ -178,40 +488,13 @@ public class MK_1 extends SimState	{
          */
         
         try {
-            // read in the roads shapefile to create the transit network
-        	URL roadsFile = MK_1.class.getResource
-        			("/data/NorfolkITN.shp");
-            ShapeFileImporter.read(roadsFile, roads);
-            System.out.println("	Roads shapefile: " +roadsFile);
-            
-            Envelope MBR = roads.getMBR();
-
-            // read in the LSOA shapefile to create the background        
-            URL areasFile = MK_1.class.getResource
-            		("/data/NorfolkLSOA.shp");
-            ShapeFileImporter.read(areasFile, lsoa);
-            System.out.println("	LSOA shapefile: " +areasFile);
-
-            MBR.expandToInclude(lsoa.getMBR());
-
-            // read in the FZ3 file     
-            URL flood3File = MK_1.class.getResource
-            		("/data/NorfolkFZ3.shp");
-            ShapeFileImporter.read(flood3File, flood3);
-            System.out.println("	FZ3 shapefile: " +flood3File);
-            
-            MBR.expandToInclude(flood3.getMBR());
-            
-            // read in the FZ2 file     
-            URL flood2File = MK_1.class.getResource
-            		("/data/NorfolkFZ2.shp");
-            ShapeFileImporter.read(flood2File, flood2);
-            System.out.println("	FZ2 shapefile: " +flood2File);
-            System.out.println();
-            
-            MBR.expandToInclude(flood2.getMBR());
-            
-            createNetwork();
+            Envelope MBR;
+            if (sharedNetwork != null)	{
+                useNetwork(sharedNetwork);
+                MBR = sharedNetwork.MBR;
+            } else	{
+                MBR = readNetwork();
+            }
 
             //////////////////////////////////////////////
             ////////////////// CLEANUP ///////////////////
@@ -227,106 +510,73 @@ public class MK_1 extends SimState	{
             ////////////////// AGENTS ////////////////////
             //////////////////////////////////////////////
             
+            // searches made while populating are counted too
+            metrics = collectMetrics ? new ModelMetrics(this) : null;
+
+            // the flood, if there is one, has to know every agent's route
+            flooding = null;
+            if (roadConditions != null)	{
+                flooding = new FloodRouting(this, roadConditions);
+                flooding.scheduleFloodZones(floodTime, floodRecedeTime, fz2Slowdown);
+                if (floodScript != null)	{
+                    try	{
+                        flooding.scheduleScript(floodScript);
+                    } catch (IOException e)	{
+                        System.out.println("Error: could not read flood script " +floodScript);
+                    }
+                }
+            }
+
             // initialize agents
-            populateAgent("/data/NorfolkITNAGENT.csv");
-            populateNGO("/data/NorfolkITNNGO.csv");
-            populateElderly("/data/NorfolkITNELDERLY.csv");
-            populateLimitedActions("/data/NorfolkITNLIMITED.csv");
+            agentStore = (useAgentStore || stepThreads > 0 || useEdgeExitEvents)
+            		? new AgentStore(this) : null;
+            edgeExitEngine = null;
+            if (agentStore != null)	{
+                agentStore.setStepThreads(stepThreads);
+            }
+            if (parallelSetup)	{
+                populateInParallel(profiles);
+            } else	{
+                for (AgentProfile profile : profiles)	{
+                    populate(profile);
+                }
+            }
+            if (useEdgeExitEvents)	{
+                edgeExitEngine = new EdgeExitEngine(this, agentStore);
+                edgeExitEngine.start();
+            } else if (agentStore != null)	{
+                schedule.scheduleRepeating(agentStore);
+            }
             System.out.println();
+            System.out.println(routes);
             System.out.println("Starting simulation...");
             
             // standardize the MBRs so that the visualization lines up
             // and everyone knows what the standard MBR is
-            roads.setMBR(MBR);
-            lsoa.setMBR(MBR);
-            flood3.setMBR(MBR);
-            flood2.setMBR(MBR);
             agents.setMBR(MBR);
             ngoagents.setMBR(MBR);
             elderlyagents.setMBR(MBR);
             limitedactionsagents.setMBR(MBR);
 
-            // Ensure that the spatial index is updated after all the agents move
-            schedule.scheduleRepeating( agents.scheduleSpatialIndexUpdater(),
-            		Integer.MAX_VALUE, 1.0);
-            schedule.scheduleRepeating( ngoagents.scheduleSpatialIndexUpdater(),
-            		Integer.MAX_VALUE, 1.0);
-            schedule.scheduleRepeating( elderlyagents.scheduleSpatialIndexUpdater(),
-            		Integer.MAX_VALUE, 1.0);
-            schedule.scheduleRepeating( limitedactionsagents.scheduleSpatialIndexUpdater(),
-            		Integer.MAX_VALUE, 1.0);
-
-            /**
-             * Steppable that flips Agent paths once everyone reaches their destinations
-             */
-            Steppable flipper = new Steppable()	{
-				private static final long serialVersionUID = 1L;
-
-				@Override
-                public void step(SimState state)	{
-
-					MK_1 gstate = (MK_1) state;
-
-					// checks to see if anyone has not yet reached destination
-                    for (MainAgent a : gstate.agentList)	{
-                        if (!a.reachedDestination)	{
-                            return; // someone is still moving: let them do so
-                        }
-                    }
-                    
-                    for (NGOAgent b : gstate.ngoAgentList)	{
-                        if (!b.reachedDestination)	{
-                            return;
-                        }
-                    }
-                    
-                    for (ElderlyAgent c : gstate.elderlyAgentList)	{
-                        if (!c.reachedDestination)	{
-                            return;
-                        }
-                    }
-                    
-                    for (LimitedActionsAgent d : gstate.limitedActionsAgentList)	{
-                        if (!d.reachedDestination)	{
-                            return;
-                        }
-                    }
-                    
-                    // Now send everyone back in the opposite direction
-                    boolean toWork = gstate.goToWork; 
-                    gstate.goToWork = !toWork;
-
-                    boolean toWork1 = gstate.goToWork1;
-                    gstate.goToWork1 = !toWork1;
-                    
-                    boolean toWork2 = gstate.goToWork2;
-                    gstate.goToWork2 = !toWork2;
-                    
-                    boolean toWork3 = gstate.goToWork3;
-                    gstate.goToWork3 = !toWork3;
-                    
-                    // otherwise everyone has reached their latest destination:
-                    // turn them back
-                    // turning off means agents reach first destination and stay there.
-                    for (MainAgent a : gstate.agentList) 	{
-                        a.flipPath();
-                    }                    
-
-                    for (NGOAgent b : gstate.ngoAgentList)	{
-                        b.flipPath();
-                    }                   
-
-                    for (ElderlyAgent c : gstate.elderlyAgentList)	{
-                        c.flipPath();
-                    }
-                    
-                    for (LimitedActionsAgent d : gstate.limitedActionsAgentList)	{
-                        d.flipPath();
-                    }
-                }
-            };
-            schedule.scheduleRepeating(flipper, 10);
-            // 10? Does it repeat x10? Appears to go on forever...
+            // Ensure that the agent grid is rebuilt after all the agents move
+            if (agentGrid != null)	{
+                agentGrid.shutdown();
+            }
+            agentGrid = useAgentGrid
+            		? new AgentGrid(this, MBR, agentGridCellSize, stepThreads) : null;
+            if (agentGrid != null)	{
+                schedule.scheduleRepeating(timed(ModelMetrics.SPATIAL_INDEX, agentGrid),
+                		Integer.MAX_VALUE - 1, 1.0);
+            }
+
+            // and that routes are found on the traffic the agents have left
+            if (travelTimes != null)	{
+                schedule.scheduleRepeating(timed(ModelMetrics.TRAVEL_TIMES, travelTimes),
+                		Integer.MAX_VALUE - 1, 1.0);
+            }
+            if (metrics != null)	{
+                metrics.start();
+            }
 
         } catch (FileNotFoundException e)	{
             System.out.println("Error: missing required data file");
@@ -334,11 +584,215 @@ public class MK_1 extends SimState	{
     }
 
     
+    /**
+     * Steppable that flips Agent paths once everyone reaches their
+     * destinations. agentArrived() schedules it when the last traveller
+     * arrives, so no one has to check every agent.
+     */
+    final Steppable endOfLeg = new Steppable()	{
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void step(SimState state)	{
+
+            MK_1 gstate = (MK_1) state;
+
+            gstate.legsCompleted++;
+
+            // Now send everyone back in the opposite direction
+            boolean toWork = gstate.goToWork; 
+            gstate.goToWork = !toWork;
+
+            // everyone has reached their latest destination: those that
+            // make return trips set out on the next leg
+            // turning off means agents reach first destination and stay there.
+            gstate.arrivals = 0;
+            gstate.travellers = 0;
+            for (AgentProfile profile : gstate.profiles)	{
+                profile.travelling = profile.returnTrips;
+                if (profile.travelling)	{
+                    gstate.travellers += profile.population;
+                }
+            }
+
+            // Agents and the AgentStore turn themselves back when they see
+            // the new leg; agents moved by events have to be sent off
+            if (gstate.edgeExitEngine != null)	{
+                gstate.edgeExitEngine.flipPaths(state.schedule.getTime());
+            }
+        }
+    };
+
+
+    /**
+     * Called by an agent when it reaches its destination. Once every agent
+     * travelling on this leg has arrived, the end of the leg is scheduled to
+     * follow straight after the agents' current step.
+     */
+    void agentArrived()	{
+        arrivals++;
+        if (arrivals == travellers)	{
+            schedule.scheduleOnce(schedule.getTime(), 1, timed(ModelMetrics.END_OF_LEG, endOfLeg));
+        }
+    }
+
+
+    /**
+     * @return s, timed as part of a phase of the tick if metrics are being
+     * collected. Steppables that run after the agents have moved should be
+     * scheduled at an ordering below Integer.MAX_VALUE, where the tick is
+     * taken to end.
+     */
+    Steppable timed(int phase, Steppable s)	{
+        return (metrics == null) ? s : metrics.timed(phase, s);
+    }
+
+
+    /**
+     * Read the GIS layers and create the road network
+     * @return the MBR of all the layers, which they have been set to
+     */
+    Envelope readNetwork() throws FileNotFoundException	{
+        if (syntheticNetwork != null)	{
+            syntheticNetwork.fill(roads, lsoa, flood3, flood2);
+        } else	{
+            readLayers();
+        }
+
+        Envelope MBR = roads.getMBR();
+        MBR.expandToInclude(lsoa.getMBR());
+        MBR.expandToInclude(flood3.getMBR());
+        MBR.expandToInclude(flood2.getMBR());
+
+        createNetwork();
+
+        roads.setMBR(MBR);
+        lsoa.setMBR(MBR);
+        flood3.setMBR(MBR);
+        flood2.setMBR(MBR);
+        return MBR;
+    }
+
+
+    /**
+     * Read the GIS layers and create the road network for other models to
+     * share. This model must not be started afterwards.
+     * @return the network, or null if a data file is missing
+     */
+    NetworkData loadNetwork()	{
+        try	{
+            return new NetworkData(this, readNetwork());
+        } catch (FileNotFoundException e)	{
+            System.out.println("Error: missing required data file");
+            return null;
+        }
+    }
+
+
+    /**
+     * Run on a network loaded once and shared with other models, instead of
+     * reading our own. Only the per-run routing state is created here.
+     */
+    void useNetwork(NetworkData data)	{
+        roads = data.roads;
+        lsoa = data.lsoa;
+        flood3 = data.flood3;
+        flood2 = data.flood2;
+        network = data.network;
+        junctions = data.junctions;
+        idsToEdges = data.idsToEdges;
+        graph = data.graph;
+        floodZones = data.floodZones;
+        hierarchy = data.hierarchy;
+        createRouting();
+    }
+
+
+    /**
+     * Read the roads, LSOA and flood zone layers, from the snapshot file when
+     * one is set and up to date, or else from the shapefiles (writing the
+     * snapshot for next time)
+     */
+    void readLayers() throws FileNotFoundException	{
+    	// read in the roads shapefile to create the transit network
+    	URL roadsFile = MK_1.class.getResource
+    			("/data/NorfolkITN.shp");
+        // read in the LSOA shapefile to create the background        
+        URL areasFile = MK_1.class.getResource
+        		("/data/NorfolkLSOA.shp");
+        // read in the FZ3 file     
+        URL flood3File = MK_1.class.getResource
+        		("/data/NorfolkFZ3.shp");
+        // read in the FZ2 file     
+        URL flood2File = MK_1.class.getResource
+        		("/data/NorfolkFZ2.shp");
+
+        // as ShapeFileImporter would, before the snapshot's checksum needs them
+        if (roadsFile == null || areasFile == null || flood3File == null
+        		|| flood2File == null)	{
+            throw new FileNotFoundException("missing shapefile");
+        }
+
+        File snapshot = (snapshotFile == null) ? null : new File(snapshotFile);
+        long checksum = 0;
+        if (snapshot != null)	{
+            try	{
+                checksum = NetworkSnapshot.checksum(roadsFile, areasFile,
+                		flood3File, flood2File);
+                if (NetworkSnapshot.read(snapshot, checksum, roads, lsoa, flood3, flood2))	{
+                    System.out.println("	Network snapshot: " +snapshot);
+                    System.out.println();
+                    return;
+                }
+            } catch (IOException e)	{
+                System.out.println("Could not read network snapshot: " +e.getMessage());
+            }
+            // start again from the shapefiles
+            roads.clear();
+            lsoa.clear();
+            flood3.clear();
+            flood2.clear();
+        }
+
+        ShapeFileImporter.read(roadsFile, roads);
+        System.out.println("	Roads shapefile: " +roadsFile);
+        ShapeFileImporter.read(areasFile, lsoa);
+        System.out.println("	LSOA shapefile: " +areasFile);
+        ShapeFileImporter.read(flood3File, flood3);
+        System.out.println("	FZ3 shapefile: " +flood3File);
+        ShapeFileImporter.read(flood2File, flood2);
+        System.out.println("	FZ2 shapefile: " +flood2File);
+        System.out.println();
+
+        if (snapshot != null)	{
+            try	{
+                NetworkSnapshot.write(snapshot, checksum, roads, lsoa, flood3, flood2);
+                System.out.println("	Network snapshot written to " +snapshot);
+            } catch (IOException e)	{
+                System.out.println("Could not write network snapshot: " +e.getMessage());
+            }
+        }
+    }
+
+
     /**
 	 * Finish the simulation and clean up
 	 */
     public void finish()	{
     	super.finish();
+    	if (agentStore != null)	{
+    	    agentStore.shutdown();
+    	}
+    	if (agentGrid != null)	{
+    	    agentGrid.shutdown();
+    	}
+    	if (metrics != null && metricsFile != null)	{
+    	    try	{
+    	        metrics.write(new File(metricsFile));
+    	    } catch (IOException e)	{
+    	        System.out.println("Could not write metrics to " +metricsFile);
+    	    }
+    	}
     	System.out.println();
     	System.out.println("Simulation ended by user.");
         /*
@@ -366,297 +820,401 @@ public class MK_1 extends SimState	{
 
             idsToEdges.put(e.getIntegerAttribute("ROAD_ID").intValue(), e);
                       
-            e.setData(new ArrayList<MainAgent>());
+            e.setData(new ArrayList<Agent>());
         }
     
         addIntersectionNodes(network.nodeIterator(), junctions);
+
+        // compact copy of the network for the routers to work on
+        graph = new RoadGraph(network);
+        floodZones = new FloodZones(graph, flood2, flood3, parallelSetup ? setupThreads : 1);
+        hierarchy = useContractionHierarchy ? loadHierarchy() : null;
+        createRouting();
+        System.out.println("Road graph: " +graph.numNodes + " nodes, "
+        		+graph.numEdges + " directed edges");
+        System.out.println("Roads in flood zones: " +floodZones.getZone3Count()
+        		+ " in FZ3, " +floodZones.getZone2Count() + " in FZ2");
     }
 
 
     /**
-     * Read in the population files and create appropriate populations
-     * @param filename
+     * Set up this run's searches, route cache and traffic counts over graph
      */
-    ////////////////////// MainAgent /////////////////////////////
-    public void populateAgent(String filename)	{
-    	//System.out.println("Populating model: ");
-        try	{
-            String filePath = MK_1.class.getResource(filename).getPath();
-            FileInputStream fstream = new FileInputStream(filePath);
-            System.out.println("Populating model with Main Agents: " +filePath);
-            System.out.println();
-            
-            BufferedReader d = new BufferedReader(new InputStreamReader(fstream));
-            String s;
-
-            // get rid of the header
-            d.readLine();
-            // read in all data
-            while ((s = d.readLine()) != null)	{ 
-                String[] bits = s.split(",");
-                
-                int pop = Integer.parseInt(bits[2]);
-                //System.out.println();
-                System.out.println("Main Agent road segment population (C:Count): " +pop);
-
-                String homeTract = bits[3];
-                System.out.println("Main Agent homeTract (D:ROAD_ID): " +homeTract);
-
-                String workTract = bits[4];
-                System.out.println("Main Agent workTract (E:Work): " +workTract);
-
-                String id_id = bits[3];
-                System.out.println("Main Agent ID_ID (D:ROAD_ID): " +id_id);
-
-                String ROAD_ID = bits[3];
-                System.out.println("Main Agent road segment (D:ROAD_ID): " +ROAD_ID);
-                //System.out.println();
-                
-                GeomPlanarGraphEdge startingEdge = idsToEdges.get(
-                		(int) Double.parseDouble(ROAD_ID));
-                GeomPlanarGraphEdge goalEdge = idsToEdges.get(
-                    goals[ random.nextInt(goals.length)]);
-                //System.out.println("startingEdge: " +startingEdge);
-                //System.out.println("idsToEdges: " +idsToEdges);
-                //System.out.println("goalEdge: " +goalEdge);
-                //System.out.println("goals: " +goals);
-                //System.out.println("homeNode: " +goals);
-                
-                for (int i = 0; i < pop; i++)	{
-                	//pop; i++)	{ 	// NO IDEA IF THIS MAKES A DIFFERENCE!?!
-                    MainAgent a = new MainAgent(this, homeTract, workTract, startingEdge, goalEdge);                    
-                    //System.out.println("Agent " + i + ":" + " Home: " +homeTract + ";"
-                    		//+ "	Work: " +workTract + ",	Starting Edge: " +startingEdge);
-                    boolean successfulStart = a.start(this);
-                    //System.out.println("Starting...");
+    private void createRouting()	{
+        roadConditions = (floodTime >= 0 || floodScript != null)
+        		? new RoadConditions(graph) : null;
+        edgeTraffic = new EdgeTraffic(graph.numRoads, trackOccupants);
+        travelTimes = routeOnTravelTime
+        		? new TravelTimes(this, roadClassAttribute, bprAlpha, bprBeta) : null;
+        final EdgeCosts costs = (travelTimes != null) ? travelTimes : roadConditions;
+        pathfinders = new ThreadLocal<AStar>()	{
+            @Override
+            protected AStar initialValue()	{
+                return new AStar(graph, costs);
+            }
+        };
+        routes = new RouteCache(routeCacheSize);
+        goalTrees.clear();
+    }
 
-                    if (!successfulStart)	{
-                    	System.out.println("Successful!");
-                    	continue; // DON'T ADD IT if it's bad
-                    }
 
-                    // MasonGeometry newGeometry = new MasonGeometry(a.getGeometry());
-                    MasonGeometry newGeometry = a.getGeometry();
-                    newGeometry.isMovable = true;
-                    agents.addGeometry(newGeometry);
-                    agentList.add(a);
-                    schedule.scheduleRepeating(a);
-                }
+    /**
+     * Read the Contraction Hierarchies index for this network from
+     * hierarchyFile, or build it (and save it there) if there is none yet
+     */
+    ContractionHierarchy loadHierarchy()	{
+        File file = (hierarchyFile == null) ? null : new File(hierarchyFile);
+        ContractionHierarchy ch = (file == null) ? null
+        		: ContractionHierarchy.load(file, graph);
+        if (ch != null)	{
+            System.out.println("Contraction hierarchy read from " +file);
+            return ch;
+        }
+
+        System.out.println("Building contraction hierarchy...");
+        ch = new ContractionHierarchy(graph);
+        System.out.println("Contraction hierarchy: " +ch.getShortcutCount() + " shortcuts");
+        if (file != null)	{
+            try	{
+                ch.save(file);
+            } catch (IOException e)	{
+                System.out.println("Could not save contraction hierarchy to " +file);
             }
+        }
+        return ch;
+    }
 
-            d.close();
-            
-        } catch (Exception e) {
-		    	System.out.println("ERROR: issue with population file: ");
-				e.printStackTrace();
-		}    
+
+    /**
+     * Find the route between two junctions. Routes are cached, so every agent
+     * making the same trip shares one search and one immutable Route. With
+     * useContractionHierarchy set, routes are queried from the hierarchy
+     * while no road is flooded and routes are not found on travel times.
+     * With useGoalTrees set, they are read off a shortest path tree grown
+     * once from each goal instead of being searched for one by one.
+     * @param from the junction to start at
+     * @param to the junction to end at
+     * @return the route, which is empty if to cannot be reached from from
+     */
+    Route findRoute(Node from, Node to)	{
+        int origin = graph.nodeId(from);
+        int goal = graph.nodeId(to);
+        Route route = routes.get(origin, goal);
+        if (route == null)	{
+            long version = routes.version();
+            long started = (metrics == null) ? 0 : System.nanoTime();
+            int[] path;
+            if (hierarchy != null && travelTimes == null
+            		&& (roadConditions == null || roadConditions.isClear()))	{
+                path = hierarchy.path(origin, goal);
+            } else	{
+                path = findPath(origin, goal);
+            }
+            if (metrics != null)	{
+                metrics.routeSearches.add(System.nanoTime() - started);
+            }
+            route = new Route(graph, origin, goal, path);
+            routes.put(route, version);
+        }
+        return route;
     }
-    
-    //////////////////////// NGOAgent /////////////////////////////
-    public void populateNGO(String filename)	{
+
+
+    /**
+     * @return the route of the next agent to be placed: its assigned route,
+     * if it has one between these junctions, or else the route found by
+     * findRoute()
+     */
+    Route routeFor(Node from, Node to)	{
+        int k = agentRoutes.size();
+        Route route = (assignedRoutes != null && k < assignedRoutes.length)
+        		? assignedRoutes[k] : null;
+        if (route == null || route.origin != graph.nodeId(from) || route.goal != graph.nodeId(to))	{
+            route = findRoute(from, to);
+        }
+        agentRoutes.add(route);
+        return route;
+    }
+
+
+    /**
+     * Search for a path between two junctions, off the goal's tree with
+     * useGoalTrees set and with A* otherwise (or on travel times), around
+     * any closed roads
+     * @return the directed edge indices of the path, or an empty array if
+     * there is none
+     */
+    int[] findPath(int origin, int goal)	{
+        if (useGoalTrees && goal >= 0 && travelTimes == null)	{
+            return goalTree(goal).pathFrom(origin);
+        }
+        return searchPath(origin, goal);
+    }
+
+    /**
+     * Search for a path between two junctions with A*, whatever the routing
+     * mode, so that one-off searches do not grow a goal tree
+     * @return the directed edge indices of the path, or an empty array if
+     * there is none
+     */
+    int[] searchPath(int origin, int goal)	{
+        if (metrics == null)	{
+            return pathfinders.get().astarPath(origin, goal);
+        }
+        long started = System.nanoTime();
+        int[] path = pathfinders.get().astarPath(origin, goal);
+        metrics.astarSearches.add(System.nanoTime() - started);
+        return path;
+    }
+
+
+    /**
+     * @return the shortest path tree into a goal node, built on first use
+     */
+    synchronized ShortestPathTree goalTree(int goal)	{
+        ShortestPathTree tree = goalTrees.get(goal);
+        if (tree == null)	{
+            tree = new ShortestPathTree(graph, goal, roadConditions);
+            goalTrees.put(goal, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * @return the shortest path tree into a node if one has already been
+     * built, or null
+     */
+    synchronized ShortestPathTree builtGoalTree(int goal)	{
+        return goalTrees.get(goal);
+    }
+
+
+    /**
+     * Must be called whenever the cost of travelling an edge changes, since
+     * cached routes were found under the old costs
+     */
+    void edgeCostsChanged()	{
+        routes.invalidate();
+        goalTrees.clear();
+    }
+
+    /**
+     * Must be called whenever the conditions of some roads change: cached
+     * routes are dropped and the goal trees are repaired to match
+     * @param roads the ids of the roads that have changed
+     */
+    void edgeCostsChanged(int[] roads)	{
+        routes.invalidate();
+        for (ShortestPathTree tree : goalTrees.values())	{
+            tree.update(roads);
+        }
+    }
+
+
+    /**
+     * Read in a population file. Only parses it, so it is safe to call for
+     * several files at once.
+     * @param filename resource name of the CSV file, or its path
+     * @return the rows of the file, header excluded
+     */
+    PopulationFile readPopulation(String filename) throws IOException	{
+        return PopulationFile.read(populationPath(filename));
+    }
+
+    /**
+     * @return the path of a population file given as a resource name, or
+     * the name itself if it is not a resource
+     */
+    static String populationPath(String filename)	{
+        URL url = MK_1.class.getResource(filename);
+        return (url == null) ? filename : url.getPath();
+    }
+
+
+    /**
+     * Pick the goal of every row. This is the only part of populating the
+     * model that draws random numbers, so it must always run on the model
+     * thread and in file order.
+     * @param rows the rows of a population file
+     * @param goalIds the ROAD_IDs to choose goals from
+     */
+    void assignGoals(PopulationFile rows, Integer[] goalIds)	{
+        rows.goal = new int[rows.size];
+        for (int k = 0; k < rows.size; k++)	{
+            rows.goal[k] = goalIds[ random.nextInt(goalIds.length)];
+        }
+    }
+
+
+    /**
+     * Read the population files of all the profiles concurrently and find the
+     * routes of all their agents on a pool of threads, then create the agents
+     * on this thread in the same order as populating them one file after
+     * another would. Random numbers are drawn in the same order as well, so a
+     * given seed gives the same run either way.
+     */
+    void populateInParallel(AgentProfile... kinds)	{
+        int threads = Math.max(1, setupThreads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
         try	{
-            String filePath = MK_1.class.getResource(filename).getPath();
-            FileInputStream fstream = new FileInputStream(filePath);
-            System.out.println();
-            System.out.println("Populating model with NGO Agents: " +filePath);
-            System.out.println();
-            
-            BufferedReader d = new BufferedReader(new InputStreamReader(fstream));
-            String s;
-
-            // get rid of the header
-            d.readLine();
-            // read in all data
-            while ((s = d.readLine()) != null)	{ 
-                String[] bits = s.split(",");
-                
-                int pop = Integer.parseInt(bits[2]);
-                //System.out.println();
-                System.out.println("NGO Agent road segment population (C:Count): " +pop);
-
-                String homeTract = bits[3];
-                System.out.println("NGO Agent homeTract (D:ROAD_ID): " +homeTract);
-
-                String workTract = bits[4];
-                System.out.println("NGO Agent workTract (E:Work): " +workTract);
-
-                String id_id = bits[3];
-                System.out.println("NGO Agent ID_ID (D:ROAD_ID): " +id_id);
-
-                String ROAD_ID = bits[3];
-                System.out.println("NGO Agent road segment (D:ROAD_ID): " +ROAD_ID);
-                //System.out.println();
-                
-                GeomPlanarGraphEdge startingEdge = idsToEdges.get(
-                		(int) Double.parseDouble(ROAD_ID));
-                GeomPlanarGraphEdge goalEdge = idsToEdges.get(
-                    goals1[ random.nextInt(goals1.length)]);
-                
-                for (int i = 0; i < pop; i++)	{
-                	//pop; i++)	{ 	// NO IDEA IF THIS MAKES A DIFFERENCE!?!
-                    NGOAgent a = new NGOAgent(this, homeTract, workTract, startingEdge, goalEdge);                    
-                    //System.out.println("NGO Agent " + i + ":" + " Home: " +homeTract + ";"
-                    	//	+ "	Work: " +workTract + ",	Starting Edge: " +startingEdge);
-                    boolean successfulStart = a.start(this);
+            // parse the files at the same time
+            ArrayList<Future<PopulationFile>> reads = new ArrayList<Future<PopulationFile>>();
+            for (AgentProfile profile : kinds)	{
+                reads.add(pool.submit(readTask(profile.populationFile)));
+            }
+            final ArrayList<PopulationFile> rows = new ArrayList<PopulationFile>();
+            for (Future<PopulationFile> f : reads)	{
+                rows.add(f.get());
+            }
 
-                    if (!successfulStart)	{
-                    	System.out.println("Successful!");
-                    	continue; // DON'T ADD IT if it's bad
+            // choose goals in file order, exactly as the serial load does
+            for (int k = 0; k < kinds.length; k++)	{
+                assignGoals(rows.get(k), kinds[k].goals);
+            }
+
+            // find every distinct route once, spread over the pool. The agents
+            // then pick their routes up from the route cache.
+            ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < threads; t++)	{
+                final int first = t;
+                final int stride = threads;
+                tasks.add(new Callable<Object>()	{
+                    public Object call()	{
+                        for (PopulationFile file : rows)	{
+                            for (int k = first; k < file.size; k += stride)	{
+                                GeomPlanarGraphEdge startingEdge = idsToEdges.get(file.roadId[k]);
+                                GeomPlanarGraphEdge goalEdge = idsToEdges.get(file.goal[k]);
+                                if (file.count[k] > 0 && startingEdge != null && goalEdge != null)	{
+                                    findRoute(startingEdge.getDirEdge(0).getFromNode(),
+                                    		goalEdge.getDirEdge(0).getToNode());
+                                }
+                            }
+                        }
+                        return null;
                     }
+                });
+            }
+            for (Future<Object> f : pool.invokeAll(tasks))	{
+                f.get();
+            }
 
-                    MasonGeometry newGeometry = a.getGeometry();
-                    newGeometry.isMovable = true;
-                    ngoagents.addGeometry(newGeometry);
-                    ngoAgentList.add(a);
-                    schedule.scheduleRepeating(a);
-                }
+            // and register the agents, in order
+            for (int k = 0; k < kinds.length; k++)	{
+                populate(kinds[k], populationPath(kinds[k].populationFile), rows.get(k));
             }
 
-            d.close();
-            
         } catch (Exception e) {
 		    	System.out.println("ERROR: issue with population file: ");
 				e.printStackTrace();
-		}    
+		} finally	{
+            pool.shutdown();
+        }
     }
-    
-    //////////////////////// ElderlyAgent ///////////////////////////
-    public void populateElderly(String filename)	{
-        try	{
-            String filePath = MK_1.class.getResource(filename).getPath();
-            FileInputStream fstream = new FileInputStream(filePath);
-            System.out.println();
-            System.out.println("Populating model with Elderly Agents: " +filePath);
-            System.out.println();
-            
-            BufferedReader d = new BufferedReader(new InputStreamReader(fstream));
-            String s;
-
-            // get rid of the header
-            d.readLine();
-            // read in all data
-            while ((s = d.readLine()) != null)	{ 
-                String[] bits = s.split(",");
-                
-                int pop = Integer.parseInt(bits[2]);
-                //System.out.println();
-                System.out.println("Elderly Agent road segment population (C:Count): " +pop);
-
-                String homeTract = bits[3];
-                System.out.println("Elderly Agent homeTract (D:ROAD_ID): " +homeTract);
-
-                String workTract = bits[4];
-                System.out.println("Elderly Agent workTract (E:Work): " +workTract);
-
-                String id_id = bits[3];
-                System.out.println("Elderly Agent ID_ID (D:ROAD_ID): " +id_id);
-
-                String ROAD_ID = bits[3];
-                System.out.println("Elderly Agent road segment (D:ROAD_ID): " +ROAD_ID);
-                //System.out.println();
-                
-                GeomPlanarGraphEdge startingEdge = idsToEdges.get(
-                		(int) Double.parseDouble(ROAD_ID));
-                GeomPlanarGraphEdge goalEdge = idsToEdges.get(
-                    goals2[ random.nextInt(goals2.length)]);
-                
-                for (int i = 0; i < pop; i++)	{
-                	//pop; i++)	{ 	// NO IDEA IF THIS MAKES A DIFFERENCE!?!
-                    ElderlyAgent a = new ElderlyAgent(this, homeTract, workTract, startingEdge, goalEdge);                    
-                    //System.out.println("Elderly Agent " + i + ":" + " Home: " +homeTract + ";"
-                    	//	+ "	Work: " +workTract + ",	Starting Edge: " +startingEdge);
-                    boolean successfulStart = a.start(this);
-
-                    if (!successfulStart)	{
-                    	System.out.println("Successful!");
-                    	continue; // DON'T ADD IT if it's bad
-                    }
 
-                    MasonGeometry newGeometry = a.getGeometry();
-                    newGeometry.isMovable = true;
-                    elderlyagents.addGeometry(newGeometry);
-                    elderlyAgentList.add(a);
-                    schedule.scheduleRepeating(a);
-                }
+    private Callable<PopulationFile> readTask(final String filename)	{
+        return new Callable<PopulationFile>()	{
+            public PopulationFile call() throws IOException	{
+                return readPopulation(filename);
             }
+        };
+    }
 
-            d.close();
-            
+
+    /**
+     * Read in the population file of a kind of agent and create its population
+     * @param profile the kind of agent
+     */
+    public void populate(AgentProfile profile)	{
+        try	{
+            PopulationFile rows = readPopulation(profile.populationFile);
+            assignGoals(rows, profile.goals);
+            populate(profile, populationPath(profile.populationFile), rows);
         } catch (Exception e) {
 		    	System.out.println("ERROR: issue with population file: ");
 				e.printStackTrace();
 		}    
     }
-    
-    //////////////////// LimitedActions Agent ////////////////////////////
-    public void populateLimitedActions(String filename)	{
+
+    /**
+     * Create the agents of a population file whose goals have been assigned
+     * @param profile the kind of agent
+     * @param filePath the file the rows came from
+     * @param rows the rows of the file
+     */
+    void populate(AgentProfile profile, String filePath, PopulationFile rows)	{
         try	{
-            String filePath = MK_1.class.getResource(filename).getPath();
-            FileInputStream fstream = new FileInputStream(filePath);
-            System.out.println();
-            System.out.println("Populating model with Limited Actions Agents: " +filePath);
-            System.out.println();
-            
-            BufferedReader d = new BufferedReader(new InputStreamReader(fstream));
-            String s;
-
-            // get rid of the header
-            d.readLine();
-            // read in all data
-            while ((s = d.readLine()) != null)	{ 
-                String[] bits = s.split(",");
-                
-                int pop = Integer.parseInt(bits[2]);
-                //System.out.println();
-                System.out.println("LimitedActions Agent road segment population (C:Count): " +pop);
-
-                String homeTract = bits[3];
-                System.out.println("LimitedActions Agent homeTract (D:ROAD_ID): " +homeTract);
-
-                String workTract = bits[4];
-                System.out.println("LimitedActions Agent workTract (E:Work): " +workTract);
-
-                String id_id = bits[3];
-                System.out.println("LimitedActions Agent ID_ID (D:ROAD_ID): " +id_id);
-
-                String ROAD_ID = bits[3];
-                System.out.println("LimitedActions Agent road segment (D:ROAD_ID): " +ROAD_ID);
-                //System.out.println();
-                
-                GeomPlanarGraphEdge startingEdge = idsToEdges.get(
-                		(int) Double.parseDouble(ROAD_ID));
-                GeomPlanarGraphEdge goalEdge = idsToEdges.get(
-                    goals3[ random.nextInt(goals3.length)]);
-                
+            String name = profile.name;
+            if (logLevel >= LOG_INFO)	{
+                System.out.println();
+                System.out.println("Populating model with " +name + "s: " +filePath);
+                System.out.println();
+            }
+            int added = 0, failed = 0;
+
+            for (int k = 0; k < rows.size; k++)	{
+                int pop = rows.count[k];
+                String homeTract = Integer.toString(rows.roadId[k]);
+                String workTract = rows.workName(k);
+                if (logLevel >= LOG_DEBUG)	{
+                    System.out.println(name + " road segment population (C:Count): " +pop);
+                    System.out.println(name + " homeTract (D:ROAD_ID): " +homeTract);
+                    System.out.println(name + " workTract (E:Work): " +workTract);
+                }
+
+                GeomPlanarGraphEdge startingEdge = idsToEdges.get(rows.roadId[k]);
+                GeomPlanarGraphEdge goalEdge = idsToEdges.get(rows.goal[k]);
+                if (pop > 0 && (startingEdge == null || goalEdge == null))	{
+                    if (logLevel >= LOG_DEBUG)	{
+                        System.out.println(name + " road segment (D:ROAD_ID) not in network: "
+                        		+ ((startingEdge == null) ? homeTract : "" +rows.goal[k]));
+                    }
+                    failed += pop;
+                    continue;
+                }
+
                 for (int i = 0; i < pop; i++)	{
-                	//pop; i++)	{ 	// NO IDEA IF THIS MAKES A DIFFERENCE!?!
-                    LimitedActionsAgent a = new LimitedActionsAgent(this, homeTract, workTract, startingEdge, goalEdge);                    
-                    //System.out.println("Limited Actions Agent " + i + ":" + " Home: " +homeTract + ";"
-                    	//	+ "	Work: " +workTract + ",	Starting Edge: " +startingEdge);
+                    if (agentStore != null)	{
+                        if (agentStore.add(profile, startingEdge, goalEdge) < 0)	{
+                            failed++;
+                        } else	{
+                            profile.population++;
+                            travellers++;
+                            added++;
+                        }
+                        continue;
+                    }
+
+                    Agent a = new Agent(this, profile, homeTract, workTract, startingEdge, goalEdge);
                     boolean successfulStart = a.start(this);
 
                     if (!successfulStart)	{
-                    	System.out.println("Successful!");
+                    	failed++;
                     	continue; // DON'T ADD IT if it's bad
                     }
 
                     MasonGeometry newGeometry = a.getGeometry();
                     newGeometry.isMovable = true;
-                    limitedactionsagents.addGeometry(newGeometry);
-                    limitedActionsAgentList.add(a);
+                    profile.layer.addGeometry(newGeometry);
+                    agentList.add(a);
+                    speeds.add(a.speed);
+                    profile.population++;
+                    travellers++;
+                    added++;
                     schedule.scheduleRepeating(a);
                 }
             }
+            if (logLevel >= LOG_INFO)	{
+                System.out.println(name + "s: " +added + " placed from " +rows.size + " rows, "
+                		+failed + " could not reach their goals");
+            }
 
-            d.close();
-            
         } catch (Exception e) {
 		    	System.out.println("ERROR: issue with population file: ");
 				e.printStackTrace();
 		}    
     }
     
-    
+
     /** adds nodes corresponding to road intersections to GeomVectorField
      *
      * @param nodeIterator Points to first node
@@ -96,10 +96,22 @@ public class MK_1WithUI extends GUIState	{
          * and chart data.
          */
         public void start()	{
+            ((MK_1) state).displayAgents = true;
             super.start();
 
             MK_1 world = (MK_1) state;
 
+            // Ensure that the spatial index is updated after all the agents
+            // move; only needed for drawing them
+            state.schedule.scheduleRepeating(world.timed(ModelMetrics.SPATIAL_INDEX,
+            		world.agents.scheduleSpatialIndexUpdater()), Integer.MAX_VALUE - 1, 1.0);
+            state.schedule.scheduleRepeating(world.timed(ModelMetrics.SPATIAL_INDEX,
+            		world.ngoagents.scheduleSpatialIndexUpdater()), Integer.MAX_VALUE - 1, 1.0);
+            state.schedule.scheduleRepeating(world.timed(ModelMetrics.SPATIAL_INDEX,
+            		world.elderlyagents.scheduleSpatialIndexUpdater()), Integer.MAX_VALUE - 1, 1.0);
+            state.schedule.scheduleRepeating(world.timed(ModelMetrics.SPATIAL_INDEX,
+            		world.limitedactionsagents.scheduleSpatialIndexUpdater()), Integer.MAX_VALUE - 1, 1.0);
+
             maxSpeed = new XYSeries("Max Speed");
             avgSpeed = new XYSeries("Average Speed");
             minSpeed = new XYSeries("Min Speed");
@@ -108,78 +120,27 @@ public class MK_1WithUI extends GUIState	{
             trafficChart.addSeries(avgSpeed, null);
             trafficChart.addSeries(minSpeed, null);
 
-            state.schedule.scheduleRepeating(new Steppable()	{
+            // agents moved by events only know where they are when asked
+            if (world.edgeExitEngine != null)	{
+                state.schedule.scheduleRepeating(world.timed(ModelMetrics.SPATIAL_INDEX,
+                		world.edgeExitEngine.positionUpdater()));
+            }
+
+            // the model keeps the speeds up to date, so the chart only has
+            // to read them, every chartInterval ticks
+            state.schedule.scheduleRepeating(world.timed(ModelMetrics.CHART, new Steppable()	{
 
                 public void step(SimState state)	{
-                	MK_1 world = (MK_1) state;
-                    double maxS = 0, minS = 10000, avgS = 0, count = 0;
-                    /////////////// Main Agent ///////////////////////
-                    for (MainAgent a : world.agentList)	{
-                        if (a.reachedDestination)	{
-                            continue;
-                        }
-                        count++;
-                        double speed = Math.abs(a.speed);
-                        avgS += speed;
-                        if (speed > maxS)	{
-                            maxS = speed;
-                        }
-                        if (speed < minS)	{
-                            minS = speed;
-                        }
-                    }
-                    /////////////// NGO Agent /////////////////////
-                    for (NGOAgent b : world.ngoAgentList)	{
-                        if (b.reachedDestination)	{
-                            continue;
-                        }
-                        count++;
-                        double speed = Math.abs(b.speed);
-                        avgS += speed;
-                        if (speed > maxS)	{
-                            maxS = speed;
-                        }
-                        if (speed < minS)	{
-                            minS = speed;
-                        }
-                    }
-                    /////////////// Elderly Agent ////////////////////
-                    for (ElderlyAgent c : world.elderlyAgentList)	{
-                        if (c.reachedDestination)	{
-                            continue;
-                        }
-                        count++;
-                        double speed = Math.abs(c.speed);
-                        avgS += speed;
-                        if (speed > maxS)	{
-                            maxS = speed;
-                        }
-                        if (speed < minS)	{
-                            minS = speed;
-                        }
-                    }
-                    /////////////// Limited Actions Agent ////////////////////
-                    for (LimitedActionsAgent d : world.limitedActionsAgentList)	{
-                        if (d.reachedDestination)	{
-                            continue;
-                        }
-                        count++;
-                        double speed = Math.abs(d.speed);
-                        avgS += speed;
-                        if (speed > maxS)	{
-                            maxS = speed;
-                        }
-                        if (speed < minS)	{
-                            minS = speed;
-                        }
+                	SpeedStats speeds = ((MK_1) state).speeds;
+                    if (speeds.getCount() == 0)	{
+                        return;	// no one is travelling
                     }
                     double time = state.schedule.time();
-                    avgS /= count;
-                    maxSpeed.add(time, maxS, true);
-                    minSpeed.add(time, minS, true);
-                    avgSpeed.add(time, avgS, true);
+                    maxSpeed.add(time, speeds.getMax(), true);
+                    minSpeed.add(time, speeds.getMin(), true);
+                    avgSpeed.add(time, speeds.getMean(), true);
                 }
-            });
+            }), world.chartInterval);
 
         	/**
         	 * Sets up the portrayals within the map visualization.
@@ -0,0 +1,389 @@
+package sim.app.geo.MK_1;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Where the time of each tick goes, collected while the model runs when
+ * MK_1's collectMetrics is set. The model holds null otherwise, and every
+ * hook is behind a null check, so the metrics cost nothing when off.
+ *
+ * A tick is timed from a Steppable at the first ordering of every whole
+ * time to one at the last, so time spent drawing the displays between
+ * ticks is left out. Each phase other than moving the agents is timed by
+ * wrapping its Steppables with timed(); moving the agents is what is left
+ * of the tick, plus the time of any agent events between ticks. From the
+ * end of one tick to the end of the next the metrics also keep:
+ *   the number of times an agent moved onto a road (EdgeTraffic)
+ *   the bytes allocated by the model thread, where the JVM can say
+ *   the number of A* searches and of routes found on a cache miss
+ * and, at the end of the tick, the number of agents travelling and their
+ * mean, lowest and highest speeds from the model's SpeedStats, rounded to
+ * whole map units per tick.
+ * A* searches and route searches also go into latency histograms with a
+ * bucket per power of two nanoseconds, which may be added to from several
+ * threads at once.
+ *
+ * write() saves it all as JSON, or as CSV with the histograms in a second
+ * file.
+ */
+public final class ModelMetrics	{
+
+    // the phases of a tick
+    public static final int AGENTS = 0, SPATIAL_INDEX = 1, END_OF_LEG = 2, CHART = 3,
+    		FLOODING = 4, TRAVEL_TIMES = 5;
+    static final String[] PHASES =	{
+    		"agents", "spatialIndex", "endOfLeg", "chart", "flooding", "travelTimes"
+    };
+
+    // the columns kept for each tick, after the phases
+    static final int WALL = PHASES.length, TRANSITIONS = WALL + 1, ALLOCATED = WALL + 2,
+    		ASTAR = WALL + 3, ROUTES = WALL + 4, TRAVELLING = WALL + 5, MEAN_SPEED = WALL + 6,
+    		MIN_SPEED = WALL + 7, MAX_SPEED = WALL + 8, COLUMNS = WALL + 9;
+
+    final MK_1 world;
+    final Histogram astarSearches = new Histogram();
+    final Histogram routeSearches = new Histogram();
+
+    private long[] ticks = new long[64 * COLUMNS];	// COLUMNS numbers per tick
+    private double[] times = new double[64];		// the model time of each tick
+    private int numTicks = 0;
+
+    // the tick being timed
+    private boolean inTick = false;
+    private long tickStarted;
+    private long timedInTick;	// by timed() since the tick started
+    private final long[] phases = new long[PHASES.length];
+    private long entriesAtStart, allocatedAtStart, astarAtStart, routesAtStart;	// at the last tick's end
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean allocation;
+
+
+    /**
+     * Counts and latencies of one kind of search
+     */
+    public static final class Histogram	{
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(64);	// by floor(log2(nanos))
+
+        /**
+         * Count a search that took the given time
+         */
+        public void add(long nanos)	{
+            nanos = Math.max(1, nanos);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))	{
+            }
+        }
+
+        public long getCount()	{
+            return count.get();
+        }
+
+        public double getMeanMicros()	{
+            long n = count.get();
+            return (n == 0) ? 0 : totalNanos.get() / 1000.0 / n;
+        }
+
+        /**
+         * @return an upper bound, to a power of two nanoseconds, of the
+         * latency that a fraction q of the searches took no longer than
+         */
+        public double getQuantileMicros(double q)	{
+            long n = count.get(), seen = 0;
+            for (int b = 0; b < 64; b++)	{
+                seen += buckets.get(b);
+                if (seen > 0 && seen >= q * n)	{
+                    return Math.pow(2, b + 1) / 1000.0;
+                }
+            }
+            return 0;
+        }
+    }
+
+
+    /**
+     * @param world the model, whose schedule will be timed once start() is
+     * called
+     */
+    public ModelMetrics(MK_1 world)	{
+        this.world = world;
+        boolean supported = false;
+        try	{
+            supported = threads instanceof com.sun.management.ThreadMXBean
+            		&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        } catch (LinkageError e)	{	// not a JVM that can say
+        }
+        allocation = supported;
+    }
+
+
+    /**
+     * Put the Steppables that mark the start and end of every tick on the
+     * schedule
+     */
+    public void start()	{
+        startCounting();
+        world.schedule.scheduleRepeating(new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                startTick();
+            }
+        }, Integer.MIN_VALUE, 1.0);
+        world.schedule.scheduleRepeating(new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                endTick();
+            }
+        }, Integer.MAX_VALUE, 1.0);
+    }
+
+
+    void startTick()	{
+        inTick = true;
+        timedInTick = 0;
+        tickStarted = System.nanoTime();
+    }
+
+    void endTick()	{
+        long wall = System.nanoTime() - tickStarted;
+        inTick = false;
+        phases[AGENTS] += wall - timedInTick;
+
+        if (numTicks == times.length)	{
+            times = Arrays.copyOf(times, 2 * numTicks);
+            ticks = Arrays.copyOf(ticks, 2 * numTicks * COLUMNS);
+        }
+        int row = numTicks * COLUMNS;
+        System.arraycopy(phases, 0, ticks, row, phases.length);
+        Arrays.fill(phases, 0);
+        ticks[row + WALL] = wall;
+        ticks[row + TRANSITIONS] = world.edgeTraffic.getEntries() - entriesAtStart;
+        ticks[row + ALLOCATED] = allocation ? allocatedBytes() - allocatedAtStart : -1;
+        ticks[row + ASTAR] = astarSearches.getCount() - astarAtStart;
+        ticks[row + ROUTES] = routeSearches.getCount() - routesAtStart;
+        SpeedStats speeds = world.speeds;
+        ticks[row + TRAVELLING] = speeds.getCount();
+        ticks[row + MEAN_SPEED] = Math.round(speeds.getMean());
+        ticks[row + MIN_SPEED] = Math.round(speeds.getMin());
+        ticks[row + MAX_SPEED] = Math.round(speeds.getMax());
+        times[numTicks] = world.schedule.getTime();
+        numTicks++;
+        startCounting();
+    }
+
+    /**
+     * Counts are taken from the end of one tick to the end of the next, so
+     * that the work of agent events between ticks is not missed
+     */
+    private void startCounting()	{
+        entriesAtStart = world.edgeTraffic.getEntries();
+        allocatedAtStart = allocatedBytes();
+        astarAtStart = astarSearches.getCount();
+        routesAtStart = routeSearches.getCount();
+    }
+
+    private long allocatedBytes()	{
+        return allocation ? ((com.sun.management.ThreadMXBean) threads)
+        		.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+
+    /**
+     * Add time spent on a phase. Time spent on the agents outside a tick, by
+     * events between whole times, is counted towards the next tick.
+     */
+    void add(int phase, long nanos)	{
+        phases[phase] += nanos;
+        if (inTick)	{
+            timedInTick += nanos;
+        }
+    }
+
+
+    /**
+     * @return a Steppable that steps s and adds the time it took to phase
+     */
+    public Steppable timed(final int phase, final Steppable s)	{
+        return new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                long started = System.nanoTime();
+                s.step(state);
+                add(phase, System.nanoTime() - started);
+            }
+        };
+    }
+
+
+    /**
+     * @return the number of ticks timed so far
+     */
+    public int getTicks()	{
+        return numTicks;
+    }
+
+    /**
+     * @return the mean wall time of a tick so far, in milliseconds
+     */
+    public double getMeanTickMillis()	{
+        return meanMillis(WALL);
+    }
+
+    /**
+     * @return the mean time per tick spent on a phase, in milliseconds
+     */
+    public double getMeanPhaseMillis(int phase)	{
+        return meanMillis(phase);
+    }
+
+    private double meanMillis(int column)	{
+        if (numTicks == 0)	{
+            return 0;
+        }
+        long total = 0;
+        for (int t = 0; t < numTicks; t++)	{
+            total += ticks[t * COLUMNS + column];
+        }
+        return total / 1e6 / numTicks;
+    }
+
+
+    /**
+     * Save the metrics: as JSON if the file name ends in .json, otherwise as
+     * CSV, one line per tick, with the histograms in a file of the same name
+     * ending in -searches.csv
+     */
+    public void write(File file) throws IOException	{
+        if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json"))	{
+            writeJson(file);
+        } else	{
+            writeTicks(file);
+            String name = file.getPath().replaceAll("\\.csv$", "");
+            writeHistograms(new File(name + "-searches.csv"));
+        }
+    }
+
+    private static PrintWriter open(File file) throws IOException	{
+        return new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    }
+
+    private static void close(PrintWriter out, File file) throws IOException	{
+        out.close();
+        if (out.checkError())	{
+            throw new IOException("Could not write " +file);
+        }
+    }
+
+    private String[] tickColumns()	{
+        String[] names = Arrays.copyOf(PHASES, COLUMNS);
+        names[WALL] = "wall";
+        names[TRANSITIONS] = "transitions";
+        names[ALLOCATED] = "allocatedBytes";
+        names[ASTAR] = "astarSearches";
+        names[ROUTES] = "routeSearches";
+        names[TRAVELLING] = "travelling";
+        names[MEAN_SPEED] = "meanSpeed";
+        names[MIN_SPEED] = "minSpeed";
+        names[MAX_SPEED] = "maxSpeed";
+        return names;
+    }
+
+    void writeTicks(File file) throws IOException	{
+        PrintWriter out = open(file);
+        out.print("time");
+        for (String column : tickColumns())	{
+            out.print(',');
+            out.print(column);
+        }
+        out.println();
+        for (int t = 0; t < numTicks; t++)	{
+            out.print(times[t]);
+            for (int c = 0; c < COLUMNS; c++)	{
+                out.print(',');
+                out.print(ticks[t * COLUMNS + c]);
+            }
+            out.println();
+        }
+        close(out, file);
+    }
+
+    void writeHistograms(File file) throws IOException	{
+        PrintWriter out = open(file);
+        out.println("search,bucketNanos,count");
+        for (int k = 0; k < 2; k++)	{
+            String name = (k == 0) ? "astar" : "route";
+            Histogram h = (k == 0) ? astarSearches : routeSearches;
+            for (int b = 0; b < 64; b++)	{
+                if (h.buckets.get(b) > 0)	{
+                    out.println(name + "," +(1L << b) + "," +h.buckets.get(b));
+                }
+            }
+        }
+        close(out, file);
+    }
+
+    void writeJson(File file) throws IOException	{
+        PrintWriter out = open(file);
+        out.println("{");
+        out.println("  \"units\": {\"phases\": \"ns\", \"allocatedBytes\": \"bytes\", "
+        		+ "\"speeds\": \"map units per tick\"},");
+        out.print("  \"columns\": [\"time\"");
+        for (String column : tickColumns())	{
+            out.print(", \"" +column + "\"");
+        }
+        out.println("],");
+        out.println("  \"ticks\": [");
+        for (int t = 0; t < numTicks; t++)	{
+            out.print("    [" +times[t]);
+            for (int c = 0; c < COLUMNS; c++)	{
+                out.print(", " +ticks[t * COLUMNS + c]);
+            }
+            out.println((t + 1 < numTicks) ? "]," : "]");
+        }
+        out.println("  ],");
+        out.println("  \"searches\": {");
+        writeJson(out, "astar", astarSearches);
+        out.println(",");
+        writeJson(out, "route", routeSearches);
+        out.println();
+        out.println("  }");
+        out.println("}");
+        close(out, file);
+    }
+
+    private static void writeJson(PrintWriter out, String name, Histogram h)	{
+        out.print(String.format(Locale.ROOT, "    \"%s\": {\"count\": %d, \"meanMicros\": %.3f, "
+        		+ "\"maxNanos\": %d, \"buckets\": {", name, h.getCount(), h.getMeanMicros(),
+        		h.maxNanos.get()));
+        boolean first = true;
+        for (int b = 0; b < 64; b++)	{
+            if (h.buckets.get(b) > 0)	{
+                out.print((first ? "" : ", ") + "\"" +(1L << b) + "\": " +h.buckets.get(b));
+                first = false;
+            }
+        }
+        out.print("}}");
+    }
+}
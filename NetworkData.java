@@ -0,0 +1,98 @@
+package sim.app.geo.MK_1;
+
+import java.util.HashMap;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * The GIS layers and road network of one MK_1 model, loaded once so that
+ * many simulations can run on them at the same time.
+ *
+ * Nothing here is changed once it has been built. The simulations only read
+ * the layers, look up junctions and ROAD_IDs, and route over the graph (each
+ * on its own AStar), so one NetworkData can be handed to any number of MK_1
+ * instances on any number of threads. Everything a run does change, such as
+ * the agents, edge traffic and route cache, stays in its own MK_1.
+ */
+public final class NetworkData	{
+
+    final GeomVectorField roads;
+    final GeomVectorField lsoa;
+    final GeomVectorField flood3;
+    final GeomVectorField flood2;
+    final GeomPlanarGraph network;
+    final GeomVectorField junctions;
+    final HashMap<Integer, GeomPlanarGraphEdge> idsToEdges;
+    final RoadGraph graph;
+    final FloodZones floodZones;
+    final ContractionHierarchy hierarchy;	// null unless the model used one
+    final Envelope MBR;	// covers all four layers
+
+
+    /**
+     * Take over the network of a model that has read its layers and created
+     * its network. The model should not be started afterwards.
+     */
+    NetworkData(MK_1 model, Envelope MBR)	{
+        roads = model.roads;
+        lsoa = model.lsoa;
+        flood3 = model.flood3;
+        flood2 = model.flood2;
+        network = model.network;
+        junctions = model.junctions;
+        idsToEdges = model.idsToEdges;
+        graph = model.graph;
+        floodZones = model.floodZones;
+        hierarchy = model.hierarchy;
+        this.MBR = MBR;
+    }
+
+
+    /**
+     * Read the GIS layers and create the road network, as MK_1.start() does
+     * @param snapshotFile binary copy of the layers to read or write, or null
+     * @param useContractionHierarchy whether to build a Contraction
+     * Hierarchies index for routing
+     * @param hierarchyFile where that index is saved, or null
+     * @return the network, or null if a data file is missing
+     */
+    public static NetworkData load(String snapshotFile, boolean useContractionHierarchy,
+    		String hierarchyFile)	{
+        MK_1 model = new MK_1(0);
+        model.setSnapshotFile(snapshotFile);
+        model.setUseContractionHierarchy(useContractionHierarchy);
+        model.setHierarchyFile(hierarchyFile);
+        return model.loadNetwork();
+    }
+
+
+    /**
+     * Create the road network of a SyntheticNetwork, as load() does for the
+     * shapefiles
+     * @param synthetic the made-up network
+     * @param useContractionHierarchy whether to build a Contraction
+     * Hierarchies index for routing
+     * @param hierarchyFile where that index is saved, or null
+     * @return the network
+     */
+    public static NetworkData generate(SyntheticNetwork synthetic,
+    		boolean useContractionHierarchy, String hierarchyFile)	{
+        MK_1 model = new MK_1(0);
+        model.syntheticNetwork = synthetic;
+        model.setUseContractionHierarchy(useContractionHierarchy);
+        model.setHierarchyFile(hierarchyFile);
+        return model.loadNetwork();
+    }
+
+
+    /**
+     * @return the number of roads in the network
+     */
+    public int getRoadCount()	{
+        return graph.numRoads;
+    }
+}
@@ -0,0 +1,269 @@
+package sim.app.geo.MK_1;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+
+/**
+ * A compact binary copy of the GIS layers the model reads on start up, so
+ * that batch runs parse the shapefiles once rather than once per run.
+ *
+ * The snapshot stores, for each layer, every geometry as WKB together with
+ * its attributes, ROAD_ID included. It is read back through a memory-mapped
+ * FileChannel. The road network, ROAD_ID index and junctions are rebuilt
+ * from the roads layer by MK_1.createNetwork() as usual, since the planar
+ * graph is a web of JTS objects that has to be created in memory either way.
+ *
+ * The header holds a checksum of the source files the snapshot was made
+ * from. read() refuses a snapshot whose checksum does not match, so changing
+ * a shapefile forces the snapshot to be rebuilt.
+ *
+ * Layout, big-endian:
+ *   int MAGIC, int VERSION, long checksum, int layer count, then per layer:
+ *   int geometry count, then per geometry:
+ *   int WKB length, WKB bytes, int attribute count, then per attribute:
+ *   string name, byte type, value
+ * where a string is an int byte length followed by UTF-8 bytes.
+ */
+public final class NetworkSnapshot	{
+
+    static final int MAGIC = 0x4d4b3153;	// "MK1S"
+    static final int VERSION = 1;
+
+    // attribute value types
+    static final byte INTEGER = 'I';
+    static final byte DOUBLE = 'D';
+    static final byte STRING = 'S';
+    static final byte BOOLEAN = 'B';
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private NetworkSnapshot()	{
+    }
+
+
+    /**
+     * Checksum of a set of shapefiles, covering each .shp and the .dbf that
+     * holds its attributes
+     * @param shapefiles the .shp files
+     * @throws FileNotFoundException if one of them is null, as getResource
+     * gives for a missing file
+     */
+    public static long checksum(URL... shapefiles) throws IOException	{
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        for (URL shp : shapefiles)	{
+            if (shp == null)	{
+                throw new FileNotFoundException("missing shapefile");
+            }
+            update(crc, shp, buffer);
+            String dbf = shp.toString().replaceAll("\\.shp$", ".dbf");
+            update(crc, new URL(dbf), buffer);
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, URL url, byte[] buffer) throws IOException	{
+        InputStream in = url.openStream();
+        try	{
+            int n;
+            while ((n = in.read(buffer)) > 0)	{
+                crc.update(buffer, 0, n);
+            }
+        } finally	{
+            in.close();
+        }
+    }
+
+
+    /**
+     * Write layers to a snapshot file. They are written to a temporary file
+     * beside it, which then replaces it in one step, so that a run stopped
+     * part way through, or another run reading the snapshot, never sees half
+     * a file.
+     * @param file where to write
+     * @param checksum checksum of the source files the layers came from
+     * @param layers the layers, in the order read() will fill them
+     */
+    public static void write(File file, long checksum, GeomVectorField... layers)
+    		throws IOException	{
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        boolean written = false;
+        try	{
+            writeLayers(temp, checksum, layers);
+            try	{
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e)	{
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        } finally	{
+            if (!written)	{
+                temp.delete();
+            }
+        }
+    }
+
+    private static void writeLayers(File file, long checksum, GeomVectorField... layers)
+    		throws IOException	{
+        DataOutputStream out = new DataOutputStream(
+        		new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try	{
+            WKBWriter wkb = new WKBWriter();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(checksum);
+            out.writeInt(layers.length);
+            for (GeomVectorField layer : layers)	{
+                out.writeInt(layer.getGeometries().size());
+                for (Object o : layer.getGeometries())	{
+                    MasonGeometry mg = (MasonGeometry) o;
+                    byte[] geometry = wkb.write(mg.getGeometry());
+                    out.writeInt(geometry.length);
+                    out.write(geometry);
+                    writeAttributes(out, mg.getAttributes());
+                }
+            }
+        } finally	{
+            out.close();
+        }
+    }
+
+    private static void writeAttributes(DataOutputStream out,
+    		Map<String, AttributeValue> attributes) throws IOException	{
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, AttributeValue> a : attributes.entrySet())	{
+            writeString(out, a.getKey());
+            Object value = a.getValue().getValue();
+            if (value instanceof Integer)	{
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Double)	{
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Boolean)	{
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else	{
+                out.writeByte(STRING);
+                writeString(out, (value == null) ? "" : value.toString());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException	{
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Fill layers from a snapshot file, if it matches the given checksum
+     * @param file the snapshot
+     * @param checksum checksum of the current source files
+     * @param layers empty layers, in the order they were written
+     * @return whether the layers were read; false if the file is missing,
+     * out of date, cut short or does not hold the same number of layers, in
+     * which case the layers may have been partly filled
+     */
+    public static boolean read(File file, long checksum, GeomVectorField... layers)
+    		throws IOException	{
+        if (!file.isFile())	{
+            return false;
+        }
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try	{
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 20 || in.getInt() != MAGIC || in.getInt() != VERSION
+            		|| in.getLong() != checksum || in.getInt() != layers.length)	{
+                return false;
+            }
+
+            WKBReader wkb = new WKBReader();
+            byte[] geometry = new byte[1024];
+            for (GeomVectorField layer : layers)	{
+                int count = in.getInt();
+                for (int i = 0; i < count; i++)	{
+                    int length = length(in);
+                    if (length > geometry.length)	{
+                        geometry = new byte[Math.max(length, 2 * geometry.length)];
+                    }
+                    // WKB is self-delimiting, so the buffer may be longer
+                    in.get(geometry, 0, length);
+                    MasonGeometry mg = new MasonGeometry(wkb.read(geometry));
+                    readAttributes(in, mg);
+                    layer.addGeometry(mg);
+                }
+            }
+            return true;
+        } catch (BufferUnderflowException e)	{ // cut short, or a garbled length
+            return false;
+        } catch (IllegalArgumentException e)	{ // a garbled value
+            return false;
+        } catch (ParseException e)	{
+            throw new IOException("Corrupt geometry in snapshot " + file + ": " + e.getMessage());
+        } finally	{
+            channel.close();
+        }
+    }
+
+    private static void readAttributes(ByteBuffer in, MasonGeometry mg)	{
+        int count = in.getInt();
+        for (int i = 0; i < count; i++)	{
+            String name = readString(in);
+            byte type = in.get();
+            if (type == INTEGER)	{
+                mg.addIntegerAttribute(name, in.getInt());
+            } else if (type == DOUBLE)	{
+                mg.addDoubleAttribute(name, in.getDouble());
+            } else if (type == BOOLEAN)	{
+                mg.addAttribute(name, Boolean.valueOf(in.get() != 0));
+            } else	{
+                mg.addStringAttribute(name, readString(in));
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer in)	{
+        byte[] bytes = new byte[length(in)];
+        in.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * @return the length of the bytes that follow, checked against what is
+     * left of the file so that a garbled one is not allocated
+     */
+    private static int length(ByteBuffer in)	{
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining())	{
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,274 @@
+package sim.app.geo.MK_1;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The rows of a population file, parsed straight into arrays. Row k puts
+ * count[k] agents on the road with ROAD_ID roadId[k], from work area
+ * workNames[work[k]].
+ *
+ * The file is read a block of bytes at a time and each line is split and
+ * parsed in place, without making Strings or arrays for it. Only a work
+ * area that has not been seen before is turned into a String. Columns are
+ * as in the ITN population files: C (index 2) is the count, D (3) the
+ * ROAD_ID and E (4) the work area; the first line is a header. A ROAD_ID
+ * written with a fraction is cut to its whole part, as the old loader did.
+ */
+public final class PopulationFile	{
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    int size = 0;			// number of rows
+    int[] count;			// C:Count
+    int[] roadId;			// D:ROAD_ID
+    int[] work;				// E:Work, as an index into workNames
+    int[] goal = null;		// ROAD_ID each row heads for, once assigned
+    String[] workNames = new String[16];
+    int numWorkNames = 0;
+    long agents = 0;		// the sum of the counts
+
+    private byte[][] workBytes = new byte[16][];
+    private int[] workTable = new int[64];	// open addressing, by hash of bytes
+    private final int[] fields = new int[10];	// where the columns of a line start and end
+
+
+    /**
+     * Read a population file
+     * @param file its path
+     */
+    public static PopulationFile read(String file) throws IOException	{
+        InputStream in = new FileInputStream(file);
+        try	{
+            return new PopulationFile(in);
+        } finally	{
+            in.close();
+        }
+    }
+
+
+    /**
+     * Read a population file from a stream, which is left open
+     */
+    public PopulationFile(InputStream in) throws IOException	{
+        count = new int[1024];
+        roadId = new int[1024];
+        work = new int[1024];
+        Arrays.fill(workTable, -1);
+
+        byte[] buffer = new byte[1 << 16];
+        int start = 0;	// beginning of the line being read
+        int scan = 0;	// where to look for its end from
+        int end = 0;	// end of the bytes read so far
+        int line = 0;
+        while (true)	{
+            while (scan < end && buffer[scan] != '\n')	{
+                scan++;
+            }
+            if (scan < end)	{
+                parseLine(buffer, start, scan, line++);
+                start = ++scan;
+                continue;
+            }
+
+            // no whole line left: keep the part line and read some more
+            if (start > 0)	{
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                scan -= start;
+                start = 0;
+            }
+            if (end == buffer.length)	{
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            }
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0)	{
+                if (end > start)	{
+                    parseLine(buffer, start, end, line);
+                }
+                break;
+            }
+            end += n;
+        }
+    }
+
+
+    /**
+     * Parse the bytes from to to - 1 as line number line, counting from 0
+     */
+    private void parseLine(byte[] b, int from, int to, int line) throws IOException	{
+        if (to > from && b[to - 1] == '\r')	{
+            to--;
+        }
+        if (line == 0 || to == from)	{
+            return; // the header, or a blank line
+        }
+
+        // find columns 2 to 4
+        int[] field = fields;
+        int column = 0;
+        field[0] = from;
+        for (int i = from; i < to && column < 4; i++)	{
+            if (b[i] == ',')	{
+                column++;
+                field[2 * column - 1] = i;
+                field[2 * column] = i + 1;
+            }
+        }
+        if (column < 4)	{
+            throw new IOException("Population file line " +(line + 1)
+            		+ ": expected at least 5 columns");
+        }
+        int workEnd = to;
+        for (int i = field[8]; i < to; i++)	{
+            if (b[i] == ',')	{
+                workEnd = i;
+                break;
+            }
+        }
+
+        if (size == count.length)	{
+            int capacity = 2 * size;
+            count = Arrays.copyOf(count, capacity);
+            roadId = Arrays.copyOf(roadId, capacity);
+            work = Arrays.copyOf(work, capacity);
+        }
+        count[size] = parseInt(b, field[4], field[5], line);
+        roadId[size] = parseInt(b, field[6], field[7], line);
+        work[size] = workName(b, field[8], workEnd);
+        agents += count[size];
+        size++;
+    }
+
+
+    /**
+     * @return the whole part of the number in bytes from to to - 1
+     */
+    private static int parseInt(byte[] b, int from, int to, int line) throws IOException	{
+        while (from < to && b[from] == ' ')	{
+            from++;
+        }
+        while (to > from && b[to - 1] == ' ')	{
+            to--;
+        }
+        boolean negative = from < to && b[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to)	{
+            throw new IOException("Population file line " +(line + 1) + ": missing number");
+        }
+        long value = 0;
+        for (; i < to && b[i] != '.'; i++)	{
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE)	{
+                throw new IOException("Population file line " +(line + 1)
+                		+ ": not a number: " +new String(b, from, to - from, UTF8));
+            }
+            value = 10 * value + digit;
+        }
+        if (value > Integer.MAX_VALUE)	{
+            throw new IOException("Population file line " +(line + 1)
+            		+ ": number too large: " +new String(b, from, to - from, UTF8));
+        }
+        for (i++; i < to; i++)	{ // the fraction is dropped, but must be digits
+            if (b[i] < '0' || b[i] > '9')	{
+                throw new IOException("Population file line " +(line + 1)
+                		+ ": not a number: " +new String(b, from, to - from, UTF8));
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+
+    /**
+     * @return the index in workNames of the text in bytes from to to - 1,
+     * added if it is new
+     */
+    private int workName(byte[] b, int from, int to)	{
+        int hash = 0;
+        for (int i = from; i < to; i++)	{
+            hash = 31 * hash + b[i];
+        }
+        int mask = workTable.length - 1;
+        for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask)	{
+            int k = workTable[slot];
+            if (k < 0)	{
+                break;
+            }
+            if (equal(workBytes[k], b, from, to))	{
+                return k;
+            }
+        }
+
+        if (numWorkNames == workNames.length)	{
+            workNames = Arrays.copyOf(workNames, 2 * numWorkNames);
+            workBytes = Arrays.copyOf(workBytes, 2 * numWorkNames);
+        }
+        int k = numWorkNames++;
+        workBytes[k] = Arrays.copyOfRange(b, from, to);
+        workNames[k] = new String(workBytes[k], UTF8);
+        if (2 * numWorkNames > workTable.length)	{
+            rehash();
+        } else	{
+            insert(k, hash);
+        }
+        return k;
+    }
+
+    private static boolean equal(byte[] name, byte[] b, int from, int to)	{
+        if (name.length != to - from)	{
+            return false;
+        }
+        for (int i = 0; i < name.length; i++)	{
+            if (name[i] != b[from + i])	{
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int k, int hash)	{
+        int mask = workTable.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (workTable[slot] >= 0)	{
+            slot = (slot + 1) & mask;
+        }
+        workTable[slot] = k;
+    }
+
+    private void rehash()	{
+        workTable = new int[2 * workTable.length];
+        Arrays.fill(workTable, -1);
+        for (int k = 0; k < numWorkNames; k++)	{
+            int hash = 0;
+            for (byte c : workBytes[k])	{
+                hash = 31 * hash + c;
+            }
+            insert(k, hash);
+        }
+    }
+
+
+    /**
+     * @return the number of rows
+     */
+    public int size()	{
+        return size;
+    }
+
+    /**
+     * @return the total number of agents the file asks for
+     */
+    public long getAgents()	{
+        return agents;
+    }
+
+    /**
+     * @return the work area of row k
+     */
+    public String workName(int k)	{
+        return workNames[work[k]];
+    }
+}
@@ -0,0 +1,104 @@
+package sim.app.geo.MK_1;
+
+import java.util.Arrays;
+
+/**
+ * How passable each road is at the moment, as a factor on its length indexed
+ * by RoadGraph road id: 1 for a clear road, more for one that is slowed down
+ * (by flood water, say) and infinity for a closed one.
+ *
+ * Routers cost a directed edge at its length times the factor of its road,
+ * and never use a closed road. As no factor is below 1, the straight-line
+ * distance is still a lower bound on any route, and AStar's heuristic stays
+ * admissible. Agents move along a slowed road at their speed divided by its
+ * factor. A closed road is never routed onto, but an agent that is already
+ * on one, or that has no other way, crosses it at its normal speed rather
+ * than being stuck for good.
+ */
+public final class RoadConditions implements EdgeCosts	{
+
+    public static final double CLOSED = Double.POSITIVE_INFINITY;
+
+    final RoadGraph graph;
+    private final double[] factor;
+    private int changed = 0;	// number of roads that are not clear
+
+
+    /**
+     * @param graph the road network, every road of which starts clear
+     */
+    public RoadConditions(RoadGraph graph)	{
+        this.graph = graph;
+        factor = new double[graph.numRoads];
+        Arrays.fill(factor, 1.0);
+    }
+
+
+    /**
+     * @return the cost of travelling directed edge d
+     */
+    public double cost(int d)	{
+        return graph.lengths[d] * factor[graph.roads[d]];
+    }
+
+
+    /**
+     * @return the factor on the length of road r
+     */
+    public double getFactor(int r)	{
+        return factor[r];
+    }
+
+
+    /**
+     * @return whether road r is closed
+     */
+    public boolean isClosed(int r)	{
+        return factor[r] == CLOSED;
+    }
+
+
+    /**
+     * @return what an agent's speed on road r is multiplied by
+     */
+    public double speedFactor(int r)	{
+        return (factor[r] == CLOSED) ? 1 : 1 / factor[r];
+    }
+
+
+    /**
+     * @return whether every road is clear, so that routes can be found on
+     * the lengths alone
+     */
+    public boolean isClear()	{
+        return changed == 0;
+    }
+
+    public boolean isLengths()	{
+        return isClear();
+    }
+
+
+    /**
+     * Set how passable a road is
+     * @param r the road id
+     * @param f 1 to clear the road, more to slow it, CLOSED to close it
+     * @return whether the factor changed
+     */
+    public boolean set(int r, double f)	{
+        if (!(f >= 1))	{
+            throw new IllegalArgumentException("road factor must be at least 1: " + f);
+        }
+        double old = factor[r];
+        if (old == f)	{
+            return false;
+        }
+        if (old == 1)	{
+            changed++;
+        } else if (f == 1)	{
+            changed--;
+        }
+        factor[r] = f;
+        return true;
+    }
+}
@@ -0,0 +1,243 @@
+package sim.app.geo.MK_1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+import sim.util.geo.GeomPlanarGraphEdge;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.planargraph.Node;
+
+/**
+ * Immutable compressed-sparse-row copy of the road network, built once from
+ * the GeomPlanarGraph in MK_1.createNetwork().
+ *
+ * Nodes get dense int ids in the order the planar graph iterates them. The
+ * out-edges of node n are the directed edges offsets[n] .. offsets[n+1]-1,
+ * stored in the same order as Node.getOutEdges().getEdges(), so searches over
+ * the arrays visit neighbours exactly as the JTS-based searches did. Every
+ * road (undirected GeomPlanarGraphEdge) also gets a dense int id, shared by
+ * both of its directed edges.
+ *
+ * The in-edges of node n are listed in the same way through inOffsets and
+ * inEdges, for searches that run backwards from a goal. The directed edges
+ * of each road are listed through roadOffsets and roadDirectedEdges, and reverse
+ * gives the one running the other way along the same road.
+ *
+ * The line of every road is measured once as well, into an EdgeGeometry that
+ * all the agents moving along the road share.
+ *
+ * Routers run on the primitive arrays and only go back to the JTS objects,
+ * through directedEdge() and node(), when they build their output.
+ */
+public final class RoadGraph	{
+
+    ///////////////////// Nodes ////////////////////////////////
+    final int numNodes;
+    final Node[] nodes;
+    final double[] coords;	// x, y of node n at 2n, 2n+1
+    private final HashMap<Node, Integer> nodeIds;
+
+    ///////////////////// Directed edges ///////////////////////
+    final int numEdges;
+    final int[] offsets;	// out-edges of node n: offsets[n] .. offsets[n+1]-1
+    final int[] sources;	// node each directed edge leaves
+    final int[] targets;	// node each directed edge enters
+    final double[] lengths;	// straight-line length between the end nodes
+    final int[] roads;		// road id of each directed edge
+    final GeomPlanarGraphDirectedEdge[] directedEdges;
+    final int[] inOffsets;	// in-edges of node n: inEdges[inOffsets[n] .. inOffsets[n+1]-1]
+    final int[] inEdges;	// directed edge indices, grouped by target node
+    final int[] reverse;	// directed edge along the same road the other way, or -1
+
+    ///////////////////// Roads ////////////////////////////////
+    final int numRoads;
+    final GeomPlanarGraphEdge[] roadEdges;
+    final EdgeGeometry[] roadGeometries;	// shape of each road, for moving along it
+    final int[] roadOffsets;	// directed edges of road r: roadDirectedEdges[roadOffsets[r] .. roadOffsets[r+1]-1]
+    final int[] roadDirectedEdges;
+    private final HashMap<GeomPlanarGraphEdge, Integer> roadIds;
+
+
+    /**
+     * Build the arrays from a fully created planar graph
+     * @param network the road network
+     */
+    public RoadGraph(GeomPlanarGraph network)	{
+
+        // number the nodes
+        ArrayList<Node> nodeList = new ArrayList<Node>();
+        for (Iterator<?> it = network.nodeIterator(); it.hasNext();)	{
+            nodeList.add((Node) it.next());
+        }
+        numNodes = nodeList.size();
+        nodes = nodeList.toArray(new Node[numNodes]);
+        nodeIds = new HashMap<Node, Integer>(numNodes * 2);
+        coords = new double[2 * numNodes];
+        for (int n = 0; n < numNodes; n++)	{
+            nodeIds.put(nodes[n], n);
+            Coordinate c = nodes[n].getCoordinate();
+            coords[2 * n] = c.x;
+            coords[2 * n + 1] = c.y;
+        }
+
+        // number the roads
+        numRoads = network.getEdges().size();
+        roadEdges = new GeomPlanarGraphEdge[numRoads];
+        roadGeometries = new EdgeGeometry[numRoads];
+        roadIds = new HashMap<GeomPlanarGraphEdge, Integer>(numRoads * 2);
+        int r = 0;
+        for (Object o : network.getEdges())	{
+            GeomPlanarGraphEdge e = (GeomPlanarGraphEdge) o;
+            roadEdges[r] = e;
+            roadGeometries[r] = new EdgeGeometry(e.getLine());
+            roadIds.put(e, r);
+            r++;
+        }
+
+        // lay out the out-edges of every node
+        offsets = new int[numNodes + 1];
+        for (int n = 0; n < numNodes; n++)	{
+            offsets[n + 1] = offsets[n] + nodes[n].getOutEdges().getDegree();
+        }
+        numEdges = offsets[numNodes];
+        sources = new int[numEdges];
+        targets = new int[numEdges];
+        lengths = new double[numEdges];
+        roads = new int[numEdges];
+        directedEdges = new GeomPlanarGraphDirectedEdge[numEdges];
+
+        int d = 0;
+        for (int n = 0; n < numNodes; n++)	{
+            for (Object o : nodes[n].getOutEdges().getEdges())	{
+                GeomPlanarGraphDirectedEdge de = (GeomPlanarGraphDirectedEdge) o;
+                int to = nodeIds.get(de.getToNode());
+                sources[d] = n;
+                targets[d] = to;
+                lengths[d] = distance(n, to);
+                roads[d] = roadIds.get((GeomPlanarGraphEdge) de.getEdge());
+                directedEdges[d] = de;
+                d++;
+            }
+        }
+
+        // and the in-edges, grouped by the node they enter
+        inOffsets = new int[numNodes + 1];
+        for (d = 0; d < numEdges; d++)	{
+            inOffsets[targets[d] + 1]++;
+        }
+        for (int n = 0; n < numNodes; n++)	{
+            inOffsets[n + 1] += inOffsets[n];
+        }
+        inEdges = new int[numEdges];
+        int[] fill = new int[numNodes];
+        for (d = 0; d < numEdges; d++)	{
+            int to = targets[d];
+            inEdges[inOffsets[to] + fill[to]++] = d;
+        }
+
+        // the directed edges of every road, and which runs the other way
+        roadOffsets = new int[numRoads + 1];
+        for (d = 0; d < numEdges; d++)	{
+            roadOffsets[roads[d] + 1]++;
+        }
+        for (int k = 0; k < numRoads; k++)	{
+            roadOffsets[k + 1] += roadOffsets[k];
+        }
+        roadDirectedEdges = new int[numEdges];
+        fill = new int[numRoads];
+        for (d = 0; d < numEdges; d++)	{
+            int road = roads[d];
+            roadDirectedEdges[roadOffsets[road] + fill[road]++] = d;
+        }
+        reverse = new int[numEdges];
+        Arrays.fill(reverse, -1);
+        for (d = 0; d < numEdges; d++)	{
+            int road = roads[d];
+            for (int k = roadOffsets[road]; k < roadOffsets[road + 1]; k++)	{
+                int e = roadDirectedEdges[k];
+                if (e != d && sources[e] == targets[d] && targets[e] == sources[d])	{
+                    reverse[d] = e;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return the id of a node of the planar graph, or -1 if it is not in it
+     */
+    public int nodeId(Node n)	{
+        Integer id = (n == null) ? null : nodeIds.get(n);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+
+    /**
+     * @return the planar graph node with the given id
+     */
+    public Node node(int n)	{
+        return nodes[n];
+    }
+
+
+    /**
+     * @return the id of a road, or -1 if it is not in the network
+     */
+    public int roadId(GeomPlanarGraphEdge e)	{
+        Integer id = (e == null) ? null : roadIds.get(e);
+        return (id == null) ? -1 : id.intValue();
+    }
+
+
+    /**
+     * @return the road with the given id
+     */
+    public GeomPlanarGraphEdge road(int r)	{
+        return roadEdges[r];
+    }
+
+
+    /**
+     * @return the measured shape of the road with the given id
+     */
+    public EdgeGeometry geometry(int r)	{
+        return roadGeometries[r];
+    }
+
+
+    /**
+     * @return the planar graph directed edge with the given index
+     */
+    public GeomPlanarGraphDirectedEdge directedEdge(int d)	{
+        return directedEdges[d];
+    }
+
+
+    /**
+     * Straight-line distance between two nodes, computed the same way as the
+     * original AStar heuristic so that costs are bit-for-bit unchanged.
+     */
+    double distance(int a, int b)	{
+        double dx = coords[2 * a] - coords[2 * b];
+        double dy = coords[2 * a + 1] - coords[2 * b + 1];
+        return Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2));
+    }
+
+
+    /**
+     * Turn a list of directed edge indices into planar graph directed edges
+     */
+    ArrayList<GeomPlanarGraphDirectedEdge> toDirectedEdges(int[] path)	{
+        ArrayList<GeomPlanarGraphDirectedEdge> result =
+            new ArrayList<GeomPlanarGraphDirectedEdge>(path.length);
+        for (int d : path)	{
+            result.add(directedEdges[d]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package sim.app.geo.MK_1;
+
+import java.util.Collections;
+import java.util.List;
+
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * An immutable path through the road network between two nodes. Routes are
+ * shared by every agent travelling between the same pair of nodes, so
+ * nothing about them may change once they are built.
+ */
+public final class Route	{
+
+    final int origin;		// node id the route starts at
+    final int goal;		// node id the route ends at
+    private final int[] edges;	// directed edge indices, origin to goal
+    private final List<GeomPlanarGraphDirectedEdge> path;
+
+
+    /**
+     * @param graph the network the edge indices refer to
+     * @param origin id of the first node
+     * @param goal id of the last node
+     * @param edges directed edge indices from origin to goal; not copied, so
+     * the caller must not keep it
+     */
+    Route(RoadGraph graph, int origin, int goal, int[] edges)	{
+        this.origin = origin;
+        this.goal = goal;
+        this.edges = edges;
+        this.path = Collections.unmodifiableList(graph.toDirectedEdges(edges));
+    }
+
+
+    /**
+     * @return the path as planar graph directed edges; read-only
+     */
+    public List<GeomPlanarGraphDirectedEdge> getPath()	{
+        return path;
+    }
+
+
+    /**
+     * @return the number of edges in the route
+     */
+    public int size()	{
+        return edges.length;
+    }
+
+
+    /**
+     * @return whether goal cannot be reached from origin
+     */
+    public boolean isEmpty()	{
+        return edges.length == 0;
+    }
+
+
+    /**
+     * @return the index of the i-th directed edge of the route
+     */
+    public int edge(int i)	{
+        return edges[i];
+    }
+}
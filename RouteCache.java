@@ -0,0 +1,121 @@
+package sim.app.geo.MK_1;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of Routes keyed by (origin node, goal node), shared by all
+ * agent types. Every agent on a CSV row starts on the same edge and heads for
+ * the same goal, so only the first of them needs an A* search.
+ *
+ * When full, the least recently used route is dropped. Any change to the
+ * edge costs must call invalidate(), since cached routes were found under the
+ * old costs. Routes that were being computed while the cache was invalidated
+ * are not stored, which is what the version passed to put() is for.
+ */
+public final class RouteCache	{
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Route> routes;
+    private long version = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+
+    /**
+     * @param capacity the largest number of routes to keep
+     */
+    public RouteCache(final int capacity)	{
+        this.capacity = Math.max(1, capacity);
+        routes = new LinkedHashMap<Long, Route>(16, 0.75f, true)	{
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest)	{
+                return size() > RouteCache.this.capacity;
+            }
+        };
+    }
+
+
+    /**
+     * @return the cached route between the nodes, or null on a miss
+     */
+    public synchronized Route get(int origin, int goal)	{
+        Route route = routes.get(key(origin, goal));
+        if (route == null)	{
+            misses++;
+        } else	{
+            hits++;
+        }
+        return route;
+    }
+
+
+    /**
+     * Store a route, unless the cache has been invalidated since the version
+     * at which the route was computed
+     * @param route the route to store
+     * @param computedAt value of version() before the route was computed
+     */
+    public synchronized void put(Route route, long computedAt)	{
+        if (computedAt == version)	{
+            routes.put(key(route.origin, route.goal), route);
+        }
+    }
+
+
+    /**
+     * @return the current version, to be passed to put()
+     */
+    public synchronized long version()	{
+        return version;
+    }
+
+
+    /**
+     * Forget every route. To be called whenever edge costs change.
+     */
+    public synchronized void invalidate()	{
+        routes.clear();
+        version++;
+    }
+
+
+    public synchronized int size()	{
+        return routes.size();
+    }
+
+    public int getCapacity()	{
+        return capacity;
+    }
+
+    public synchronized long getHits()	{
+        return hits;
+    }
+
+    public synchronized long getMisses()	{
+        return misses;
+    }
+
+
+    /**
+     * @return the fraction of lookups that were hits
+     */
+    public synchronized double getHitRate()	{
+        long total = hits + misses;
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+
+    @Override
+    public synchronized String toString()	{
+        return "Route cache: " + routes.size() + "/" + capacity + " routes, "
+            + hits + " hits, " + misses + " misses";
+    }
+
+
+    private static Long key(int origin, int goal)	{
+        return Long.valueOf(((long) origin << 32) | (goal & 0xffffffffL));
+    }
+}
@@ -0,0 +1,234 @@
+package sim.app.geo.MK_1;
+
+import java.util.Arrays;
+
+/**
+ * All shortest paths into one goal node, found with a single Dijkstra search
+ * run backwards over the in-edges of the road graph.
+ *
+ * Every node keeps the directed edge that starts its shortest path to the
+ * goal, so the route of any agent heading for the goal is read off by
+ * following those edges, without a search of its own. Built once per goal,
+ * the tree makes setting up a population that shares a goal cost one search
+ * instead of one search per agent.
+ *
+ * When the tree is built on RoadConditions, update() repairs it after the
+ * conditions of some roads have changed, in the manner of LPA*: only the
+ * nodes whose paths ran over a road that got dearer, and those that can now
+ * do better through a road that got cheaper, are searched again, so the work
+ * grows with the size of the change rather than the size of the network.
+ */
+public final class ShortestPathTree	{
+
+    final RoadGraph graph;
+    final RoadConditions conditions;	// null if costed on the lengths alone
+    final int goal;
+    final double[] distance;	// length of the shortest path to the goal
+    final int[] next;		// first directed edge of that path, -1 if none
+
+    private final IndexedMinHeap queue;
+    private final boolean[] invalid;	// scratch for update()
+    private int[] stack;				// scratch for update()
+
+
+    /**
+     * @param graph the road network
+     * @param goal id of the node every path leads to
+     */
+    public ShortestPathTree(RoadGraph graph, int goal)	{
+        this(graph, goal, null);
+    }
+
+
+    /**
+     * @param graph the road network
+     * @param goal id of the node every path leads to
+     * @param conditions the state of the roads to cost edges by, or null to
+     * cost them by their lengths
+     */
+    public ShortestPathTree(RoadGraph graph, int goal, RoadConditions conditions)	{
+        this.graph = graph;
+        this.conditions = conditions;
+        this.goal = goal;
+        distance = new double[graph.numNodes];
+        next = new int[graph.numNodes];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        Arrays.fill(next, -1);
+        queue = new IndexedMinHeap(graph.numNodes);
+        invalid = new boolean[graph.numNodes];
+        stack = new int[16];
+
+        boolean[] settled = new boolean[graph.numNodes];
+        distance[goal] = 0;
+        queue.insert(goal, 0);
+
+        final int[] inOffsets = graph.inOffsets, inEdges = graph.inEdges;
+        final int[] sources = graph.sources;
+
+        while (!queue.isEmpty())	{
+            int u = queue.poll();
+            settled[u] = true;
+
+            // relax every edge that leads into u
+            for (int i = inOffsets[u]; i < inOffsets[u + 1]; i++)	{
+                int d = inEdges[i];
+                int v = sources[d];
+                if (settled[v])	{
+                    continue;
+                }
+                double alt = distance[u] + cost(d);
+                if (alt < distance[v])	{
+                    distance[v] = alt;
+                    next[v] = d;
+                    queue.insertOrDecrease(v, alt);
+                }
+            }
+        }
+    }
+
+
+    double cost(int d)	{
+        return (conditions == null) ? graph.lengths[d] : conditions.cost(d);
+    }
+
+
+    /**
+     * Repair the tree after the conditions of some roads have changed. Not
+     * to be called while paths are being read from the tree.
+     * @param roads the ids of the roads whose factors have changed
+     * @return the number of nodes whose paths were searched for again
+     */
+    public int update(int[] roads)	{
+        final int[] roadOffsets = graph.roadOffsets, roadDirectedEdges = graph.roadDirectedEdges;
+        final int[] inOffsets = graph.inOffsets, inEdges = graph.inEdges;
+        final int[] offsets = graph.offsets, targets = graph.targets;
+        final int[] sources = graph.sources;
+        queue.clear();
+
+        // the paths through an edge that got dearer no longer hold: take
+        // the node it leaves from, and every node whose path runs through
+        // that node, out of the tree
+        int top = 0;
+        int count = 0;
+        for (int r : roads)	{
+            for (int k = roadOffsets[r]; k < roadOffsets[r + 1]; k++)	{
+                int d = roadDirectedEdges[k];
+                int v = sources[d];
+                if (next[v] == d && !invalid[v]
+                    && !(cost(d) + distance[targets[d]] <= distance[v]))	{
+                    invalid[v] = true;
+                    stack = push(stack, top++, v);
+                }
+            }
+        }
+        int[] found = new int[Math.max(16, top)];
+        while (top > 0)	{
+            int v = stack[--top];
+            found = push(found, count++, v);
+            for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++)	{
+                int d = inEdges[i];
+                int u = sources[d];
+                if (next[u] == d && !invalid[u])	{
+                    invalid[u] = true;
+                    stack = push(stack, top++, u);
+                }
+            }
+        }
+
+        // each of them starts from the best way into what is left of the tree
+        for (int k = 0; k < count; k++)	{
+            int v = found[k];
+            distance[v] = Double.POSITIVE_INFINITY;
+            next[v] = -1;
+        }
+        for (int k = 0; k < count; k++)	{
+            int v = found[k];
+            for (int d = offsets[v]; d < offsets[v + 1]; d++)	{
+                int w = targets[d];
+                if (!invalid[w])	{
+                    double alt = cost(d) + distance[w];
+                    if (alt < distance[v])	{
+                        distance[v] = alt;
+                        next[v] = d;
+                    }
+                }
+            }
+            if (distance[v] < Double.POSITIVE_INFINITY)	{
+                queue.insertOrDecrease(v, distance[v]);
+            }
+        }
+        for (int k = 0; k < count; k++)	{
+            invalid[found[k]] = false;
+        }
+
+        // an edge that got cheaper may give the node it leaves a better path
+        for (int r : roads)	{
+            for (int k = roadOffsets[r]; k < roadOffsets[r + 1]; k++)	{
+                int d = roadDirectedEdges[k];
+                int v = sources[d];
+                double alt = cost(d) + distance[targets[d]];
+                if (alt < distance[v])	{
+                    distance[v] = alt;
+                    next[v] = d;
+                    queue.insertOrDecrease(v, alt);
+                }
+            }
+        }
+
+        // and carry the improvements back through the graph
+        int searched = 0;
+        while (!queue.isEmpty())	{
+            int u = queue.poll();
+            searched++;
+            for (int i = inOffsets[u]; i < inOffsets[u + 1]; i++)	{
+                int d = inEdges[i];
+                int v = sources[d];
+                double alt = distance[u] + cost(d);
+                if (alt < distance[v])	{
+                    distance[v] = alt;
+                    next[v] = d;
+                    queue.insertOrDecrease(v, alt);
+                }
+            }
+        }
+        return Math.max(searched, count);
+    }
+
+    private static int[] push(int[] array, int i, int value)	{
+        if (i == array.length)	{
+            array = Arrays.copyOf(array, 2 * array.length);
+        }
+        array[i] = value;
+        return array;
+    }
+
+
+    /**
+     * @return whether the goal can be reached from the node
+     */
+    public boolean reaches(int origin)	{
+        return origin == goal || (origin >= 0 && next[origin] >= 0);
+    }
+
+
+    /**
+     * @param origin id of the node to start from
+     * @return the directed edge indices of the shortest path from origin to
+     * the goal, or an empty array if there is none
+     */
+    public int[] pathFrom(int origin)	{
+        if (!reaches(origin))	{
+            return new int[0];
+        }
+        int count = 0;
+        for (int n = origin; n != goal; n = graph.targets[next[n]])	{
+            count++;
+        }
+        int[] path = new int[count];
+        int i = 0;
+        for (int n = origin; n != goal; n = graph.targets[next[n]])	{
+            path[i++] = next[n];
+        }
+        return path;
+    }
+}
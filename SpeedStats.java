@@ -0,0 +1,119 @@
+package sim.app.geo.MK_1;
+
+/**
+ * Running statistics of the speeds of the agents still travelling, kept up
+ * to date by the agents as their speeds change, so that the chart and the
+ * metrics can read them without looking at every agent.
+ *
+ * Speeds are held as whole numbers of a small unit, 1/2^20 of the top
+ * speed, so adding and taking away speeds keeps the sum exact however long
+ * the model runs. A histogram of BUCKETS buckets from 0 to the top speed
+ * gives the slowest and fastest speeds to within one bucket, found by
+ * looking along the buckets rather than at the agents. Speeds over the top
+ * speed are counted in the last bucket.
+ *
+ * It is not thread safe: agents moved on several threads at once have to
+ * tell it about their changes afterwards, on one thread.
+ */
+public final class SpeedStats	{
+
+    static final int BUCKETS = 1024;
+    static final int UNITS = BUCKETS * 1024;	// units in the top speed
+    static final int UNITS_PER_BUCKET = UNITS / BUCKETS;
+
+    final double top;
+    private final int[] buckets = new int[BUCKETS];
+    private long sum = 0;		// in units
+    private int count = 0;
+
+
+    /**
+     * @param top the highest speed an agent can have, its moveRate
+     */
+    public SpeedStats(double top)	{
+        this.top = (top > 0) ? top : 1;
+    }
+
+
+    private int units(double speed)	{
+        return (int) Math.min(UNITS, Math.round(Math.abs(speed) / top * UNITS));
+    }
+
+    private static int bucket(int units)	{
+        return Math.min(BUCKETS - 1, units / UNITS_PER_BUCKET);
+    }
+
+
+    /**
+     * An agent has set off, at the given speed
+     */
+    public void add(double speed)	{
+        int u = units(speed);
+        buckets[bucket(u)]++;
+        sum += u;
+        count++;
+    }
+
+    /**
+     * An agent going at the given speed has stopped
+     */
+    public void remove(double speed)	{
+        int u = units(speed);
+        buckets[bucket(u)]--;
+        sum -= u;
+        count--;
+    }
+
+    /**
+     * A travelling agent's speed has changed
+     */
+    public void change(double from, double to)	{
+        int u = units(from), v = units(to);
+        if (u != v)	{
+            buckets[bucket(u)]--;
+            buckets[bucket(v)]++;
+            sum += v - u;
+        }
+    }
+
+
+    /**
+     * @return the number of agents travelling
+     */
+    public int getCount()	{
+        return count;
+    }
+
+    /**
+     * @return the mean speed of the agents travelling, or 0 if there are none
+     */
+    public double getMean()	{
+        return (count == 0) ? 0 : sum * top / UNITS / count;
+    }
+
+    /**
+     * @return the lower end of the slowest bucket holding an agent, or 0 if
+     * none are travelling
+     */
+    public double getMin()	{
+        for (int b = 0; b < BUCKETS && count > 0; b++)	{
+            if (buckets[b] > 0)	{
+                return b * top / BUCKETS;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the upper end of the fastest bucket holding an agent, or 0 if
+     * none are travelling
+     */
+    public double getMax()	{
+        for (int b = BUCKETS - 1; b >= 0 && count > 0; b--)	{
+            if (buckets[b] > 0)	{
+                return (b + 1) * top / BUCKETS;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,368 @@
+package sim.app.geo.MK_1;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.MasonGeometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A made-up road network and population of any size, for load testing the
+ * model without the ITN data.
+ *
+ * The roads join the junctions of a grid whose points are moved a random
+ * distance off the grid, so that no two roads have quite the same length.
+ * A random spanning tree of the grid is always kept, so every junction can
+ * reach every other, and each of the other roads is dropped with a given
+ * probability. Each road is a straight line with an integer ROAD_ID
+ * attribute, numbered from 1, just as the roads layer read from
+ * NorfolkITN.shp is, and a DESCTERM road class: "A Road" along the grid
+ * lines that bound the LSOA areas, and "Local Street" elsewhere.
+ *
+ * The other layers are filled in as well, so that every part of the model
+ * has something to work on. The LSOA layer is cut into square areas of
+ * areaSize by areaSize grid cells. Flood Zone 3 is a band one cell high
+ * across the middle of the grid, and Flood Zone 2 the band a cell wider
+ * each side of it. Both stop a quarter of the way short of the east side,
+ * so that closing the flooded roads leaves a way around.
+ *
+ * Population files are written in the column layout of the ITN population
+ * files: FID, OBJECTID, Count, ROAD_ID and Work.
+ *
+ * The same parameters and seed always give the same network and population.
+ */
+public final class SyntheticNetwork	{
+
+    final int columns, rows;	// junctions across and down
+    final double spacing;		// distance between grid lines
+    final double jitter;		// how far off the grid a junction is moved, as a fraction of spacing
+    final double dropFraction;	// chance of leaving out a road not in the spanning tree
+    final long seed;
+    int areaSize = 10;			// grid cells across an LSOA area
+    double minX = 600000, minY = 300000;	// south west corner
+
+    private double[] x, y;		// where each junction is
+    private int[] from, to;		// the junctions at each end of each road
+    private int numRoads = 0;
+
+
+    /**
+     * @param columns how many junctions across, at least 2
+     * @param rows how many junctions down, at least 2
+     * @param spacing the distance between grid lines
+     * @param jitter how far a junction may move off the grid, from 0 to
+     * below 0.5 of spacing, so that roads do not cross
+     * @param dropFraction the chance of leaving out each road that is not
+     * needed to connect the network
+     * @param seed the random number seed
+     */
+    public SyntheticNetwork(int columns, int rows, double spacing, double jitter,
+    		double dropFraction, long seed)	{
+        if (columns < 2 || rows < 2)	{
+            throw new IllegalArgumentException("need at least 2 by 2 junctions: "
+            		+columns + " by " +rows);
+        }
+        if (!(jitter >= 0 && jitter < 0.5))	{
+            throw new IllegalArgumentException("jitter must be from 0 to below 0.5: " +jitter);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.spacing = spacing;
+        this.jitter = jitter;
+        this.dropFraction = dropFraction;
+        this.seed = seed;
+        generate();
+    }
+
+
+    /**
+     * Place the junctions and choose the roads
+     */
+    private void generate()	{
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        int nodes = columns * rows;
+        x = new double[nodes];
+        y = new double[nodes];
+        for (int r = 0; r < rows; r++)	{
+            for (int c = 0; c < columns; c++)	{
+                int n = r * columns + c;
+                x[n] = minX + spacing * (c + jitter * (2 * random.nextDouble() - 1));
+                y[n] = minY + spacing * (r + jitter * (2 * random.nextDouble() - 1));
+            }
+        }
+
+        // every link of the grid, in random order
+        int links = rows * (columns - 1) + columns * (rows - 1);
+        int[] a = new int[links], b = new int[links];
+        int k = 0;
+        for (int r = 0; r < rows; r++)	{
+            for (int c = 0; c < columns; c++)	{
+                int n = r * columns + c;
+                if (c + 1 < columns)	{
+                    a[k] = n;
+                    b[k++] = n + 1;
+                }
+                if (r + 1 < rows)	{
+                    a[k] = n;
+                    b[k++] = n + columns;
+                }
+            }
+        }
+        for (int i = links - 1; i > 0; i--)	{
+            int j = random.nextInt(i + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+            t = b[i];
+            b[i] = b[j];
+            b[j] = t;
+        }
+
+        // keep a link if it joins two parts not yet joined (Kruskal's
+        // algorithm on the random order), otherwise keep it by chance
+        int[] parent = new int[nodes];
+        for (int n = 0; n < nodes; n++)	{
+            parent[n] = n;
+        }
+        from = new int[links];
+        to = new int[links];
+        for (int i = 0; i < links; i++)	{
+            int ra = root(parent, a[i]), rb = root(parent, b[i]);
+            boolean joins = ra != rb;
+            if (joins)	{
+                parent[ra] = rb;
+            }
+            // the draw is made for every link, so the tree does not depend
+            // on dropFraction
+            boolean drop = random.nextDouble() < dropFraction;
+            if (joins || !drop)	{
+                from[numRoads] = a[i];
+                to[numRoads] = b[i];
+                numRoads++;
+            }
+        }
+    }
+
+    /**
+     * @return whether road i runs along a grid line between LSOA areas
+     */
+    boolean isMainRoad(int i)	{
+        boolean across = to[i] - from[i] == 1;
+        int line = across ? from[i] / columns : from[i] % columns;
+        return line % areaSize == 0;
+    }
+
+    private static int root(int[] parent, int n)	{
+        while (parent[n] != n)	{
+            parent[n] = parent[parent[n]];
+            n = parent[n];
+        }
+        return n;
+    }
+
+
+    /**
+     * Fill empty layers with the network and its surroundings, in place of
+     * reading the shapefiles
+     */
+    public void fill(GeomVectorField roads, GeomVectorField lsoa,
+    		GeomVectorField flood3, GeomVectorField flood2)	{
+        GeometryFactory fact = new GeometryFactory();
+        for (int i = 0; i < numRoads; i++)	{
+            LineString line = fact.createLineString(new Coordinate[]	{
+            		new Coordinate(x[from[i]], y[from[i]]),
+            		new Coordinate(x[to[i]], y[to[i]]) });
+            MasonGeometry mg = new MasonGeometry(line);
+            mg.addIntegerAttribute("ROAD_ID", i + 1);
+            mg.addStringAttribute("DESCTERM", isMainRoad(i) ? "A Road" : "Local Street");
+            roads.addGeometry(mg);
+        }
+
+        // LSOA areas
+        int area = 0;
+        for (int r = 0; r < rows - 1; r += areaSize)	{
+            for (int c = 0; c < columns - 1; c += areaSize)	{
+                MasonGeometry mg = new MasonGeometry(box(fact, c, r,
+                		Math.min(columns - 1, c + areaSize), Math.min(rows - 1, r + areaSize)));
+                mg.addStringAttribute("LSOA_CODE", "S" +area++);
+                lsoa.addGeometry(mg);
+            }
+        }
+
+        // the flood bands, along the middle row of cells
+        int middle = (rows - 1) / 2;
+        double east = 0.75 * (columns - 1);
+        flood3.addGeometry(new MasonGeometry(box(fact, -1, middle, east, middle + 1)));
+        flood2.addGeometry(new MasonGeometry(box(fact, -1, middle - 1, east, middle + 2)));
+    }
+
+    /**
+     * @return the rectangle between two grid positions
+     */
+    private Polygon box(GeometryFactory fact, double c0, double r0,
+    		double c1, double r1)	{
+        double x0 = minX + spacing * c0, y0 = minY + spacing * r0;
+        double x1 = minX + spacing * c1, y1 = minY + spacing * r1;
+        return fact.createPolygon(fact.createLinearRing(new Coordinate[]	{
+        		new Coordinate(x0, y0), new Coordinate(x1, y0), new Coordinate(x1, y1),
+        		new Coordinate(x0, y1), new Coordinate(x0, y0) }), null);
+    }
+
+
+    /**
+     * @return the number of roads
+     */
+    public int getRoadCount()	{
+        return numRoads;
+    }
+
+    /**
+     * @return the number of junctions
+     */
+    public int getJunctionCount()	{
+        return columns * rows;
+    }
+
+
+    /**
+     * @return the ROAD_ID of the road nearest the middle of the network, a
+     * goal every agent can reach
+     */
+    public int centralRoad()	{
+        double cx = minX + spacing * (columns - 1) / 2, cy = minY + spacing * (rows - 1) / 2;
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < numRoads; i++)	{
+            double dx = (x[from[i]] + x[to[i]]) / 2 - cx;
+            double dy = (y[from[i]] + y[to[i]]) / 2 - cy;
+            if (dx * dx + dy * dy < bestDistance)	{
+                bestDistance = dx * dx + dy * dy;
+                best = i;
+            }
+        }
+        return best + 1;
+    }
+
+
+    /**
+     * Write a population file of agents spread over random roads
+     * @param file where to write it
+     * @param agents how many agents in all
+     * @param perRow how many agents start on each road chosen, at most
+     * @param seed the random number seed
+     */
+    public void writePopulation(File file, long agents, int perRow, long seed)
+    		throws IOException	{
+        MersenneTwisterFast random = new MersenneTwisterFast(seed);
+        perRow = Math.max(1, perRow);
+        int areasAcross = (columns - 2) / areaSize + 1;
+        int areasDown = (rows - 2) / areaSize + 1;
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+        try	{
+            out.print("FID,OBJECTID,Count,ROAD_ID,Work\n");
+            long left = agents;
+            for (int row = 0; left > 0; row++)	{
+                int count = (int) Math.min(left, 1 + random.nextInt(perRow));
+                int road = random.nextInt(numRoads);
+                int c = (int) ((x[from[road]] - minX) / spacing);
+                int r = (int) ((y[from[road]] - minY) / spacing);
+                int area = Math.max(0, Math.min(areasDown - 1, r / areaSize)) * areasAcross
+                		+ Math.max(0, Math.min(areasAcross - 1, c / areaSize));
+                out.print(row);
+                out.print(',');
+                out.print(row + 1);
+                out.print(',');
+                out.print(count);
+                out.print(',');
+                out.print(road + 1);
+                out.print(",S");
+                out.print(area);
+                out.print('\n');
+                left -= count;
+            }
+        } finally	{
+            out.close();
+        }
+        if (out.checkError())	{
+            throw new IOException("Could not write " +file);
+        }
+    }
+
+
+    /**
+     * Write a population file for every kind of agent in a model into a
+     * directory, sharing out the agents between them
+     * @param agents how many agents in all
+     * @return the files, in the order of the model's profiles
+     */
+    public File[] writePopulations(MK_1 model, File directory, long agents, int perRow)
+    		throws IOException	{
+        directory.mkdirs();
+        AgentProfile[] profiles = model.profiles;
+        File[] files = new File[profiles.length];
+        for (int k = 0; k < profiles.length; k++)	{
+            files[k] = new File(directory, "population" +k + ".csv");
+            long share = agents / profiles.length + ((k < agents % profiles.length) ? 1 : 0);
+            writePopulation(files[k], share, perRow, seed + 1 + k);
+        }
+        return files;
+    }
+
+
+    /**
+     * Point the profiles of a model at population files and send their
+     * agents to the middle of the network
+     * @param files as written by writePopulations()
+     */
+    public void usePopulations(MK_1 model, File[] files)	{
+        Integer[] goals = { Integer.valueOf(centralRoad()) };
+        for (int k = 0; k < model.profiles.length; k++)	{
+            model.profiles[k].populationFile = files[k].getPath();
+            model.profiles[k].goals = goals;
+        }
+    }
+
+
+    /**
+     * Writes the population files of a network to a directory.
+     *
+     * Usage:
+     *   java sim.app.geo.MK_1.SyntheticNetwork [-columns C] [-rows R]
+     *       [-spacing METRES] [-jitter J] [-drop P] [-seed S] [-agents N]
+     *       [-perRow K] [-out DIRECTORY]
+     *
+     * Runs given the same parameters build the same network; see
+     * BatchRunner's -synthetic option.
+     */
+    public static void main(String[] args) throws IOException	{
+        int columns = Integer.parseInt(BatchRunner.argumentForKey("-columns", args, "100"));
+        int rows = Integer.parseInt(BatchRunner.argumentForKey("-rows", args, "100"));
+        double spacing = Double.parseDouble(BatchRunner.argumentForKey("-spacing", args, "100"));
+        double jitter = Double.parseDouble(BatchRunner.argumentForKey("-jitter", args, "0.3"));
+        double drop = Double.parseDouble(BatchRunner.argumentForKey("-drop", args, "0.2"));
+        long seed = Long.parseLong(BatchRunner.argumentForKey("-seed", args, "1"));
+        long agents = Long.parseLong(BatchRunner.argumentForKey("-agents", args, "10000"));
+        int perRow = Integer.parseInt(BatchRunner.argumentForKey("-perRow", args, "10"));
+        File out = new File(BatchRunner.argumentForKey("-out", args, "synthetic"));
+
+        long started = System.currentTimeMillis();
+        SyntheticNetwork network = new SyntheticNetwork(columns, rows, spacing, jitter, drop, seed);
+        File[] files = network.writePopulations(new MK_1(seed), out, agents, perRow);
+        System.out.println(network.getJunctionCount() + " junctions, " +network.getRoadCount()
+        		+ " roads, " +agents + " agents heading for ROAD_ID " +network.centralRoad());
+        for (File f : files)	{
+            System.out.println("	" +f);
+        }
+        System.out.println("Done in " +(System.currentTimeMillis() - started) / 1000.0 + " s");
+    }
+}
@@ -0,0 +1,409 @@
+package sim.app.geo.MK_1;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ *
+ * Dynamic traffic assignment by the method of successive averages (MSA):
+ * finds the routes that agents would settle on if they learned from each
+ * day's traffic, rather than the shortest routes every agent takes on
+ * empty roads.
+ *
+ * Each iteration runs the model without the GUI until every agent has
+ * reached its first destination, or for at most maxTicks. While it runs,
+ * the traffic on every road is read from edgeTraffic each tick. The
+ * measured travel time of a road is its free-flow time (from its class, as
+ * in TravelTimes) times the mean slowdown that progress() gave the agents
+ * on it. Traffic is only seen as it stands at the end of each tick, so a
+ * road agents pass along within a tick is taken to be clear. Then the best
+ * route between every origin and goal the agents use
+ * is found on the measured times, with the searches spread over a pool of
+ * threads, each with its own AStar over the shared, immutable RoadGraph.
+ * In iteration k, each agent switches to the best route with chance
+ * 1/(k+1), if it is better than its own. The next iteration starts the
+ * model again, the agents being placed in the same order and given these
+ * routes through MK_1.assignedRoutes.
+ *
+ * The iterations stop when the relative gap, how much more the agents'
+ * routes cost than the best routes did, summed over all the agents, falls
+ * below the target, or after the given number of iterations.
+ *
+ * Usage:
+ *   java sim.app.geo.MK_1.TrafficAssignment [-iterations K] [-gap G]
+ *       [-seed S] [-for MAXTICKS] [-threads T] [-out assignment.csv]
+ *       [-edges FILE] [-snapshot FILE] [-store] [-verbose]
+ *       [-synthetic COLUMNSxROWS [-agents N] [-population DIRECTORY]]
+ *
+ * One line per iteration is written to the -out file, and with -edges the
+ * measured travel times of the last iteration are written for every road.
+ */
+public class TrafficAssignment	{
+
+    static final String HEADER = "iteration,ticks,agents,arrived,agentTicks,"
+    		+ "meanRouteCost,relativeGap,rerouted,seconds";
+
+    final NetworkData network;
+    final RoadGraph graph;
+    final long seed;
+    final long maxTicks;
+    final int threads;
+    int logLevel = MK_1.LOG_QUIET;	// for every run's model
+    boolean useAgentStore = false;
+    SyntheticNetwork synthetic = null;	// the network is made up, if set
+    File[] populationFiles = null;		// and its population files
+
+    private final double[] freeFlow;	// of each directed edge
+    private final double[] cost;		// of each directed edge, as measured
+    private final double[] agentTicks;	// on each road, in the last run
+    private final double[] slowedTicks;	// the same, times the slowdown of each tick
+    private final EdgeCosts measured = new EdgeCosts()	{
+        public double cost(int d)	{
+            return cost[d];
+        }
+
+        public boolean isLengths()	{
+            return false;
+        }
+    };
+
+    Route[] routes = null;	// of each agent, in the order they are placed
+    int iteration = 0;
+    double relativeGap = Double.POSITIVE_INFINITY;	// at the last iteration
+
+
+    /**
+     * @param network the network the model runs on
+     * @param seed the random number seed of every run, and of the choice of
+     * agents that switch routes
+     * @param maxTicks the longest to run the model for in an iteration
+     * @param threads how many threads to find routes on
+     * @param classAttribute the road attribute giving its class, or null
+     */
+    public TrafficAssignment(NetworkData network, long seed, long maxTicks, int threads,
+    		String classAttribute)	{
+        this.network = network;
+        this.graph = network.graph;
+        this.seed = seed;
+        this.maxTicks = maxTicks;
+        this.threads = Math.max(1, threads);
+        freeFlow = TravelTimes.freeFlowTimes(graph, classAttribute);
+        cost = freeFlow.clone();
+        agentTicks = new double[graph.numRoads];
+        slowedTicks = new double[graph.numRoads];
+    }
+
+
+    /**
+     * Run the model once on the current routes, measure the travel times,
+     * and move some agents onto better routes
+     * @return the CSV line for the iteration
+     */
+    public String iterate() throws Exception	{
+        long started = System.currentTimeMillis();
+        iteration++;
+        MK_1 model = run();
+        ArrayList<Route> used = new ArrayList<Route>(model.agentRoutes);
+        measure(model);
+
+        // the best route for every trip the agents make, on the measured times
+        HashMap<Long, Integer> trips = new HashMap<Long, Integer>();
+        ArrayList<Route> firsts = new ArrayList<Route>();
+        for (Route r : used)	{
+            Long key = trip(r);
+            if (!r.isEmpty() && !trips.containsKey(key))	{
+                trips.put(key, firsts.size());
+                firsts.add(r);
+            }
+        }
+        Route[] best = bestRoutes(firsts);
+
+        // how far from the best the agents are, and MSA's step towards it
+        MersenneTwisterFast random = new MersenneTwisterFast(seed + iteration);
+        double step = 1.0 / (iteration + 1);
+        double total = 0, shortest = 0;
+        int agents = 0, rerouted = 0;
+        Route[] next = used.toArray(new Route[used.size()]);
+        for (int a = 0; a < next.length; a++)	{
+            Route r = next[a];
+            if (r.isEmpty())	{
+                continue;
+            }
+            Route b = best[trips.get(trip(r))];
+            double c = cost(r), cb = cost(b);
+            agents++;
+            total += c;
+            shortest += cb;
+            if (random.nextDouble() < step && cb < c && b != r)	{
+                next[a] = b;
+                rerouted++;
+            }
+        }
+        routes = next;
+        relativeGap = (total > 0) ? (total - shortest) / total : 0;
+
+        double ticks = 0;
+        for (int r = 0; r < graph.numRoads; r++)	{
+            ticks += agentTicks[r];
+        }
+        return String.format(Locale.ROOT, "%d,%.0f,%d,%d,%.0f,%.2f,%.6f,%d,%.3f",
+        		iteration, model.schedule.getTime(), agents,
+        		(model.legsCompleted > 0) ? agents : model.arrivals, ticks,
+        		(agents == 0) ? 0 : total / agents, relativeGap, rerouted,
+        		(System.currentTimeMillis() - started) / 1000.0);
+    }
+
+    /**
+     * @return the key of the trip a route makes, from its origin to its goal
+     */
+    private static Long trip(Route r)	{
+        return Long.valueOf(((long) r.origin << 32) | r.goal);
+    }
+
+    /**
+     * @return how much more the agents' routes cost than the best routes, as
+     * a fraction of their cost, at the last iteration
+     */
+    public double getRelativeGap()	{
+        return relativeGap;
+    }
+
+
+    /**
+     * Start the model on the current routes, and run it until everyone has
+     * arrived or maxTicks have passed, recording the traffic on every road
+     * @return the finished model
+     */
+    MK_1 run()	{
+        MK_1 model = new MK_1(seed, network);
+        model.setLogLevel(logLevel);
+        model.setUseAgentStore(useAgentStore);
+        if (populationFiles != null)	{
+            synthetic.usePopulations(model, populationFiles);
+        }
+        model.assignedRoutes = routes;
+        model.start();
+
+        Arrays.fill(agentTicks, 0);
+        Arrays.fill(slowedTicks, 0);
+        model.schedule.scheduleRepeating(new Steppable()	{
+            private static final long serialVersionUID = 1L;
+
+            public void step(SimState state)	{
+                record((MK_1) state);
+            }
+        }, Integer.MAX_VALUE - 1, 1.0);
+
+        while (model.legsCompleted == 0 && model.schedule.getTime() < maxTicks - 1
+        		&& model.schedule.step(model))	{
+        }
+        model.finish();
+        return model;
+    }
+
+
+    /**
+     * Add this tick's traffic on every road, and how much it slowed the
+     * agents down, as progress() works it out
+     */
+    void record(MK_1 model)	{
+        EdgeTraffic traffic = model.edgeTraffic;
+        for (int r = 0; r < graph.numRoads; r++)	{
+            int v = traffic.count(r);
+            if (v > 0)	{
+                double length = graph.geometry(r).getLength();
+                double slowdown = (length > 0) ? Math.max(1, v / (TravelTimes.CAPACITY * length)) : 1;
+                agentTicks[r] += v;
+                slowedTicks[r] += v * slowdown;
+            }
+        }
+    }
+
+
+    /**
+     * Work out the cost of every edge from the traffic recorded in the last
+     * run: its free-flow time times the mean slowdown on it, and its flood
+     * factor at the end of the run. Roads no one used cost their free-flow
+     * time.
+     */
+    void measure(MK_1 model)	{
+        RoadConditions conditions = model.roadConditions;
+        for (int d = 0; d < graph.numEdges; d++)	{
+            int r = graph.roads[d];
+            double slowdown = (agentTicks[r] > 0) ? slowedTicks[r] / agentTicks[r] : 1;
+            double f = (conditions == null) ? 1 : conditions.getFactor(r);
+            cost[d] = (f == RoadConditions.CLOSED) ? f : freeFlow[d] * slowdown * f;
+        }
+    }
+
+
+    /**
+     * @return the cost of a route on the measured times
+     */
+    double cost(Route route)	{
+        double c = 0;
+        for (int i = 0; i < route.size(); i++)	{
+            c += cost[route.edge(i)];
+        }
+        return c;
+    }
+
+
+    /**
+     * Find the best route on the measured times between the ends of each
+     * route, on the pool of threads
+     * @return the new routes, in the same order
+     */
+    Route[] bestRoutes(final ArrayList<Route> trips) throws Exception	{
+        final Route[] best = new Route[trips.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try	{
+            ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < threads; t++)	{
+                final int first = t;
+                tasks.add(new Callable<Object>()	{
+                    public Object call()	{
+                        AStar search = new AStar(graph, measured);
+                        for (int k = first; k < best.length; k += threads)	{
+                            Route r = trips.get(k);
+                            int[] path = search.astarPath(r.origin, r.goal);
+                            best[k] = (path.length == 0) ? r
+                            		: new Route(graph, r.origin, r.goal, path);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> f : pool.invokeAll(tasks))	{
+                f.get();
+            }
+        } finally	{
+            pool.shutdown();
+        }
+        return best;
+    }
+
+
+    /**
+     * Save the measured travel time of every road, by ROAD_ID: the time
+     * agents spent on it, the mean slowdown they had, and its travel time
+     * in map units at motorway speed, along the road's first direction
+     */
+    void writeEdges(File file) throws IOException	{
+        PrintWriter w = new PrintWriter(new FileWriter(file));
+        try	{
+            w.println("ROAD_ID,agentTicks,slowdown,travelTime");
+            for (int r = 0; r < graph.numRoads; r++)	{
+                Integer id = graph.road(r).getIntegerAttribute("ROAD_ID");
+                double slowdown = (agentTicks[r] > 0) ? slowedTicks[r] / agentTicks[r] : 1;
+                int d = graph.roadDirectedEdges[graph.roadOffsets[r]];
+                w.println(String.format(Locale.ROOT, "%d,%.0f,%.4f,%.2f",
+                		id, agentTicks[r], slowdown, cost[d]));
+            }
+        } finally	{
+            w.close();
+        }
+    }
+
+
+    /**
+     * Main function runs the assignment to convergence
+     */
+    public static void main(String[] args) throws Exception	{
+        int iterations = Integer.parseInt(BatchRunner.argumentForKey("-iterations", args, "20"));
+        double gap = Double.parseDouble(BatchRunner.argumentForKey("-gap", args, "0.01"));
+        long seed = Long.parseLong(BatchRunner.argumentForKey("-seed", args, "1"));
+        long steps = Long.parseLong(BatchRunner.argumentForKey("-for", args, "5000"));
+        int threads = Integer.parseInt(BatchRunner.argumentForKey("-threads", args,
+        		"" + Runtime.getRuntime().availableProcessors()));
+        String out = BatchRunner.argumentForKey("-out", args, "assignment.csv");
+        String edges = BatchRunner.argumentForKey("-edges", args, null);
+        boolean verbose = BatchRunner.keyExists("-verbose", args);
+
+        PrintStream console = System.out;
+        String size = BatchRunner.argumentForKey("-synthetic", args, null);
+        SyntheticNetwork synthetic = null;
+        File[] populationFiles = null;
+        NetworkData network;
+        if (size != null)	{
+            String[] dimensions = size.toLowerCase(Locale.ROOT).split("x");
+            synthetic = new SyntheticNetwork(Integer.parseInt(dimensions[0]),
+            		Integer.parseInt(dimensions[1]), 100, 0.3, 0.2, seed);
+            console.println("Generating network of " +synthetic.getRoadCount() + " roads...");
+            network = NetworkData.generate(synthetic, false, null);
+            String directory = BatchRunner.argumentForKey("-population", args, null);
+            File populations = (directory != null) ? new File(directory)
+            		: Files.createTempDirectory("population").toFile();
+            populationFiles = synthetic.writePopulations(new MK_1(seed), populations,
+            		Long.parseLong(BatchRunner.argumentForKey("-agents", args, "10000")), 10);
+        } else	{
+            console.println("Loading network...");
+            network = NetworkData.load(BatchRunner.argumentForKey("-snapshot", args, null),
+            		false, null);
+        }
+        if (network == null)	{
+            System.exit(1);
+        }
+
+        if (!verbose)	{
+            System.setOut(new PrintStream(new OutputStream()	{
+                public void write(int b)	{
+                }
+                public void write(byte[] b, int off, int len)	{
+                }
+            }));
+        }
+
+        TrafficAssignment assignment = new TrafficAssignment(network, seed, steps, threads,
+        		new MK_1(seed).getRoadClassAttribute());
+        assignment.synthetic = synthetic;
+        assignment.populationFiles = populationFiles;
+        assignment.useAgentStore = BatchRunner.keyExists("-store", args);
+        if (verbose)	{
+            assignment.logLevel = MK_1.LOG_INFO;
+        }
+
+        long started = System.currentTimeMillis();
+        PrintWriter w = new PrintWriter(new FileWriter(out));
+        try	{
+            w.println(HEADER);
+            console.println(HEADER);
+            for (int k = 0; k < iterations; k++)	{
+                String line = assignment.iterate();
+                w.println(line);
+                w.flush();
+                console.println(line);
+                if (assignment.getRelativeGap() < gap)	{
+                    break;
+                }
+            }
+        } finally	{
+            w.close();
+            System.setOut(console);
+        }
+        if (edges != null)	{
+            assignment.writeEdges(new File(edges));
+        }
+        console.println("Done in " +(System.currentTimeMillis() - started) / 1000.0
+        		+ " s. Results written to " +out);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,180 @@
+package sim.app.geo.MK_1;
+
+import java.util.Arrays;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Travel-time costs for routing, so that agents are routed around busy
+ * roads rather than all onto the shortest one. The cost of each directed
+ * edge is kept in a primitive array, indexed like RoadGraph's, and brought
+ * up to date once a tick from the traffic on each road.
+ *
+ * The cost of an edge is the time it takes at its road's free-flow speed,
+ * slowed by the road's traffic with the BPR (Bureau of Public Roads) curve
+ *   free flow time * (1 + alpha * (traffic / capacity)^beta)
+ * and by the road's flood factor, if there is a flood. The free-flow time is
+ * the length of the road's line divided by the free-flow speed of its
+ * class, read from roadClassAttribute of the road (the DESCTERM of the OS
+ * ITN layer), as a fraction of motorway speed. Roads of an unknown class go
+ * at motorway speed. Times are measured in map units at motorway speed, so
+ * no edge costs less than its length, as EdgeCosts requires. The capacity
+ * of a road is the traffic at which progress() starts to slow agents down
+ * on it, CAPACITY per map unit of length, and at least one agent.
+ *
+ * Routes found on the old costs are dropped from the route cache whenever a
+ * tick changes any cost. The Contraction Hierarchy and the goal trees are
+ * built on lengths, so they are not used while routing on travel times.
+ */
+public final class TravelTimes implements EdgeCosts, Steppable	{
+    private static final long serialVersionUID = 1L;
+
+    // OS ITN road classes, matched at the start of the DESCTERM, and their
+    // free-flow speeds as fractions of motorway speed
+    static final String[] CLASSES =	{
+    		"Motorway", "A Road", "B Road", "Minor Road", "Local Street",
+    		"Private Road", "Alley", "Pedestrianised Street"
+    };
+    static final double[] CLASS_SPEEDS =	{
+    		1.0, 0.85, 0.7, 0.6, 0.45, 0.3, 0.2, 0.15
+    };
+
+    // agents per map unit of road before progress() slows them down
+    static final double CAPACITY = 1000 / 5.0;
+
+    final MK_1 world;
+    final RoadGraph graph;
+    final double alpha, beta;
+
+    private final double[] freeFlow;	// time of each directed edge on an empty road
+    private final double[] capacity;	// of each road
+    private final double[] cost;		// of each directed edge
+    private final int[] traffic;		// on each road, when its costs were last worked out
+    private final double[] factor;		// flood factor of each road, likewise
+    private int jammed = 0;				// roads with more traffic than capacity
+
+
+    /**
+     * Work out the costs of every edge on the model's roads as they are now
+     * @param world the model, whose graph, edgeTraffic and roadConditions
+     * must have been set up
+     * @param classAttribute the road attribute giving its class, or null
+     * for every road to go at motorway speed
+     * @param alpha how much a road at capacity is slowed down
+     * @param beta how sharply roads slow as they fill up
+     */
+    public TravelTimes(MK_1 world, String classAttribute, double alpha, double beta)	{
+        this.world = world;
+        this.graph = world.graph;
+        this.alpha = alpha;
+        this.beta = beta;
+
+        freeFlow = freeFlowTimes(graph, classAttribute);
+        capacity = new double[graph.numRoads];
+        for (int r = 0; r < graph.numRoads; r++)	{
+            capacity[r] = Math.max(1, CAPACITY * graph.geometry(r).getLength());
+        }
+
+        cost = freeFlow.clone();
+        traffic = new int[graph.numRoads];
+        factor = new double[graph.numRoads];
+        Arrays.fill(factor, 1.0);
+        update();
+    }
+
+
+    /**
+     * @return the time of each directed edge of graph on an empty road, in
+     * map units at motorway speed
+     * @param classAttribute the road attribute giving its class, or null
+     */
+    static double[] freeFlowTimes(RoadGraph graph, String classAttribute)	{
+        double[] speed = new double[graph.numRoads];
+        for (int r = 0; r < graph.numRoads; r++)	{
+            Object c = (classAttribute == null) ? null
+            		: graph.road(r).getAttribute(classAttribute);
+            speed[r] = classSpeed((c == null) ? null : c.toString());
+        }
+        double[] times = new double[graph.numEdges];
+        for (int d = 0; d < graph.numEdges; d++)	{
+            int r = graph.roads[d];
+            times[d] = Math.max(graph.lengths[d], graph.geometry(r).getLength()) / speed[r];
+        }
+        return times;
+    }
+
+
+    /**
+     * @return the free-flow speed of a road class, as a fraction of motorway
+     * speed, or 1 if the class is not known
+     */
+    static double classSpeed(String roadClass)	{
+        for (int k = 0; roadClass != null && k < CLASSES.length; k++)	{
+            if (roadClass.startsWith(CLASSES[k]))	{
+                return CLASS_SPEEDS[k];
+            }
+        }
+        return 1;
+    }
+
+
+    public double cost(int d)	{
+        return cost[d];
+    }
+
+    public boolean isLengths()	{
+        return false;
+    }
+
+
+    /**
+     * @return the number of roads carrying more than their capacity when the
+     * costs were last worked out
+     */
+    public int getJammedRoads()	{
+        return jammed;
+    }
+
+
+    /**
+     * Bring the cost of every road whose traffic or flood factor has changed
+     * up to date
+     * @return whether any cost changed
+     */
+    boolean update()	{
+        EdgeTraffic counts = world.edgeTraffic;
+        RoadConditions conditions = world.roadConditions;
+        boolean changed = false;
+        for (int r = 0; r < graph.numRoads; r++)	{
+            int v = counts.count(r);
+            double f = (conditions == null) ? 1 : conditions.getFactor(r);
+            if (v == traffic[r] && f == factor[r])	{
+                continue;
+            }
+            if ((v > capacity[r]) != (traffic[r] > capacity[r]))	{
+                jammed += (v > capacity[r]) ? 1 : -1;
+            }
+            traffic[r] = v;
+            factor[r] = f;
+            double slowed = (v == 0) ? f : f * (1 + alpha * Math.pow(v / capacity[r], beta));
+            for (int k = graph.roadOffsets[r]; k < graph.roadOffsets[r + 1]; k++)	{
+                int d = graph.roadDirectedEdges[k];
+                cost[d] = (f == RoadConditions.CLOSED)
+                		? RoadConditions.CLOSED : freeFlow[d] * slowed;	// even if it has no length
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+
+    /**
+     * Called every tick, after the agents have moved
+     */
+    public void step(SimState state)	{
+        if (update())	{
+            world.edgeCostsChanged();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package sim.app.geo.MK_1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * The synthetic networks and populations the benchmarks run on, made once
+ * per JVM and shared by every benchmark in it, so that no benchmark needs
+ * the Norfolk data.
+ *
+ * A network is named by the number of junctions along each side of its
+ * grid. Junctions are 100 m apart, moved up to 30 m off the grid, and a
+ * fifth of the roads not needed to connect it are left out, as with
+ * BatchRunner's -synthetic option.
+ */
+final class BenchmarkNetworks	{
+
+    static final long SEED = 1;
+
+    private static final HashMap<Integer, SyntheticNetwork> synthetic =
+        new HashMap<Integer, SyntheticNetwork>();
+    private static final HashMap<Integer, NetworkData> networks =
+        new HashMap<Integer, NetworkData>();
+    private static final HashMap<String, File[]> populations = new HashMap<String, File[]>();
+
+    private BenchmarkNetworks()	{
+    }
+
+
+    /**
+     * @return the made-up network of side by side junctions
+     */
+    static synchronized SyntheticNetwork synthetic(int side)	{
+        SyntheticNetwork s = synthetic.get(side);
+        if (s == null)	{
+            s = new SyntheticNetwork(side, side, 100, 0.3, 0.2, SEED);
+            synthetic.put(side, s);
+        }
+        return s;
+    }
+
+
+    /**
+     * @return the road network of side by side junctions, ready to route on
+     */
+    static synchronized NetworkData network(int side)	{
+        NetworkData n = networks.get(side);
+        if (n == null)	{
+            n = NetworkData.generate(synthetic(side), false, null);
+            networks.put(side, n);
+        }
+        return n;
+    }
+
+
+    /**
+     * @return population files of a network for every kind of agent, with
+     * agents agents in all, written to a temporary directory that is
+     * removed when the JVM exits
+     */
+    static synchronized File[] populations(int side, long agents) throws IOException	{
+        String key = side + "/" + agents;
+        File[] files = populations.get(key);
+        if (files == null)	{
+            File directory = Files.createTempDirectory("population").toFile();
+            directory.deleteOnExit();
+            files = synthetic(side).writePopulations(new MK_1(SEED), directory, agents, 10);
+            for (File f : files)	{
+                f.deleteOnExit();
+            }
+            populations.put(key, files);
+        }
+        return files;
+    }
+
+
+    /**
+     * @return a model on a shared network, with its population files set
+     * up but not yet started
+     */
+    static MK_1 model(int side, long agents) throws IOException	{
+        MK_1 model = new MK_1(SEED, network(side));
+        model.setLogLevel(MK_1.LOG_QUIET);
+        synthetic(side).usePopulations(model, populations(side, agents));
+        return model;
+    }
+}
@@ -0,0 +1,100 @@
+package sim.app.geo.MK_1;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What it costs an agent to move onto its next road, for an Agent and for
+ * an agent in the AgentStore: setupEdge() alone, and transitionToNextEdge()
+ * with no distance left over, which is setupEdge() plus the bookkeeping
+ * along the path. Agents are taken in turn and sent back to the start of
+ * their paths before they would arrive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeBenchmark	{
+
+    static final int AGENTS = 10000;
+
+    MK_1 objects, stored;
+    Agent[] list;
+    AgentStore store;
+    int next = 0;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException	{
+        objects = BenchmarkNetworks.model(100, AGENTS);
+        objects.start();
+        list = objects.agentList.toArray(new Agent[0]);
+
+        stored = BenchmarkNetworks.model(100, AGENTS);
+        stored.setUseAgentStore(true);
+        stored.start();
+        store = stored.agentStore;
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()	{
+        objects.finish();
+        stored.finish();
+    }
+
+
+    @Benchmark
+    public double agentSetupEdge()	{
+        Agent a = list[next++ % list.length];
+        a.indexOnPath = (a.indexOnPath + 1) % a.route.size();
+        a.setupEdge(objects.graph.roads[a.route.edge(a.indexOnPath)]);
+        return a.currentIndex;
+    }
+
+    @Benchmark
+    public double storeSetupEdge()	{
+        int i = next++ % store.size();
+        store.indexOnPath[i] = (store.indexOnPath[i] + 1) % store.path[i].size();
+        store.setupEdge(i, stored.graph.roads[store.path[i].edge(store.indexOnPath[i])]);
+        return store.currentIndex[i];
+    }
+
+
+    @Benchmark
+    public double agentTransition()	{
+        Agent a = list[next++ % list.length];
+        if (a.indexOnPath + 1 >= a.route.size())	{
+            a.indexOnPath = -1;
+        }
+        a.pathDirection = 1;
+        a.transitionToNextEdge(0);
+        return a.currentIndex;
+    }
+
+    @Benchmark
+    public double storeTransition()	{
+        int i = next++ % store.size();
+        if (store.indexOnPath[i] + 1 >= store.path[i].size())	{
+            store.indexOnPath[i] = -1;
+        }
+        store.pathDirection[i] = 1;
+        store.transitionToNextEdge(i, 0);
+        return store.currentIndex[i];
+    }
+}
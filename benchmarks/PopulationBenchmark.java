@@ -0,0 +1,77 @@
+package sim.app.geo.MK_1;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long the population takes to load: parsing one population file, and
+ * a whole model start up, which reads every file, routes every agent and
+ * puts it on the schedule, one file after another or with parallelSetup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PopulationBenchmark	{
+
+    @Param({"10000", "100000", "1000000"})
+    long agents;
+
+    File file;		// the first kind of agent's file, a quarter of the agents
+    MK_1 model;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException	{
+        file = BenchmarkNetworks.populations(100, agents)[0];
+    }
+
+
+    @Benchmark
+    public PopulationFile readPopulation() throws IOException	{
+        return PopulationFile.read(file.getPath());
+    }
+
+
+    @Setup(Level.Invocation)
+    public void newModel() throws IOException	{
+        model = BenchmarkNetworks.model(100, agents);
+        model.setUseAgentStore(true);
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishModel()	{
+        model.finish();
+    }
+
+
+    @Benchmark
+    public int populate()	{
+        model.start();
+        return model.agentStore.size();
+    }
+
+    @Benchmark
+    public int populateInParallel()	{
+        model.setParallelSetup(true);
+        model.start();
+        return model.agentStore.size();
+    }
+}
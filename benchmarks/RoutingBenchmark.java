@@ -0,0 +1,68 @@
+package sim.app.geo.MK_1;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * How long one route takes to find on small, medium and large networks:
+ * an A* search between random junctions, and the shortest path tree that
+ * answers every search into one goal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark	{
+
+    // junctions along each side: 900, 10,000 and 90,000 junctions
+    @Param({"30", "100", "300"})
+    int side;
+
+    RoadGraph graph;
+    AStar astar;
+    int[] origins, goals;	// the searches, taken in turn
+    int next = 0;
+
+
+    @Setup
+    public void setup()	{
+        graph = BenchmarkNetworks.network(side).graph;
+        astar = new AStar(graph);
+        MersenneTwisterFast random = new MersenneTwisterFast(BenchmarkNetworks.SEED);
+        origins = new int[1024];
+        goals = new int[1024];
+        for (int i = 0; i < origins.length; i++)	{
+            origins[i] = random.nextInt(graph.numNodes);
+            goals[i] = random.nextInt(graph.numNodes);
+        }
+    }
+
+
+    @Benchmark
+    public int[] astarPath()	{
+        int i = next++ & (origins.length - 1);
+        return astar.astarPath(origins[i], goals[i]);
+    }
+
+
+    @Benchmark
+    public ShortestPathTree goalTree()	{
+        int i = next++ & (goals.length - 1);
+        return new ShortestPathTree(graph, goals[i]);
+    }
+}
@@ -0,0 +1,77 @@
+package sim.app.geo.MK_1;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long one tick of the whole model takes for N agents on the medium
+ * network, each way of moving the agents:
+ *   objects - an Agent per agent, each on the schedule
+ *   store - the AgentStore, stepped in turn
+ *   phases - the AgentStore, stepped in two phases on 4 threads
+ *   events - the AgentStore, moved by the EdgeExitEngine
+ * The medium network has about 18,000 roads, so the agent counts give
+ * roughly 0.05, 0.5 and 5 agents per road.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickBenchmark	{
+
+    @Param({"1000", "10000", "100000"})
+    int agents;
+
+    @Param({"objects", "store", "phases", "events"})
+    String mode;
+
+    MK_1 model;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException	{
+        model = BenchmarkNetworks.model(100, agents);
+        model.setUseAgentStore(!mode.equals("objects"));
+        model.setStepThreads(mode.equals("phases") ? 4 : 0);
+        model.setUseEdgeExitEvents(mode.equals("events"));
+        model.start();
+        // get everyone going before timing
+        while (model.schedule.getTime() < 10)	{
+            model.schedule.step(model);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown()	{
+        model.finish();
+    }
+
+
+    /**
+     * One tick: every step of the schedule up to the next whole time
+     */
+    @Benchmark
+    public double tick()	{
+        double end = Math.floor(model.schedule.getTime()) + 1;
+        while (model.schedule.getTime() < end && model.schedule.step(model))	{
+        }
+        return model.schedule.getTime();
+    }
+}
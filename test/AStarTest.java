@@ -0,0 +1,262 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.planargraph.DirectedEdgeStar;
+import com.vividsolutions.jts.planargraph.Node;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.GeomPlanarGraphDirectedEdge;
+
+/**
+ * AStar's heap and CSR arrays must find exactly the paths the original
+ * ArrayList search found, tie for tie, since the model's results depend on
+ * which of two equally short routes each agent takes.
+ */
+public class AStarTest	{
+
+    /**
+     * Every pair of junctions on grids with no jitter, where nearly every
+     * route ties with others of exactly the same cost
+     */
+    @Test
+    public void sameAsOriginalOnTiedGrids()	{
+        assertSameForAllPairs(TestNetworks.network(10, 0, 0).network);
+        assertSameForAllPairs(TestNetworks.network(10, 0, 0.3).network);
+    }
+
+    /**
+     * Random pairs on a road-like network, jittered with roads left out
+     */
+    @Test
+    public void sameAsOriginalOnRoadLikeNetwork()	{
+        GeomPlanarGraph network = TestNetworks.network(30).network;
+        RoadGraph graph = new RoadGraph(network);
+        AStar astar = new AStar(graph);
+        LegacyAStar legacy = new LegacyAStar();
+        MersenneTwisterFast random = new MersenneTwisterFast(2);
+        for (int i = 0; i < 500; i++)	{
+            Node start = graph.node(random.nextInt(graph.numNodes));
+            Node goal = graph.node(random.nextInt(graph.numNodes));
+            assertSamePath(legacy.astarPath(start, goal), astar.astarPath(start, goal));
+        }
+    }
+
+    /**
+     * Two routes of the same length around a square, a longer way round, and
+     * a road that cannot be reached
+     */
+    @Test
+    public void sameAsOriginalOnDiamond()	{
+        GeomPlanarGraph network = TestNetworks.graph(new double[][]	{
+        		{ 0, 0, 1, 1 }, { 0, 0, 1, -1 }, { 1, 1, 2, 0 }, { 1, -1, 2, 0 },
+        		{ 0, 0, 0, 3 }, { 0, 3, 2, 0 }, { 5, 5, 6, 6 } });
+        assertSameForAllPairs(network);
+
+        RoadGraph graph = new RoadGraph(network);
+        Node from = node(network, 0, 0), to = node(network, 2, 0);
+        assertEquals(2, new AStar(graph).astarPath(from, to).size());
+        assertTrue(new AStar(graph).astarPath(from, node(network, 6, 6)).isEmpty());
+    }
+
+    /**
+     * The searches keep their storage between queries, so one AStar must
+     * give the same paths in any order
+     */
+    @Test
+    public void reusedSearchMatchesFreshOne()	{
+        RoadGraph graph = TestNetworks.network(30).graph;
+        AStar reused = new AStar(graph);
+        MersenneTwisterFast random = new MersenneTwisterFast(3);
+        for (int i = 0; i < 200; i++)	{
+            int start = random.nextInt(graph.numNodes), goal = random.nextInt(graph.numNodes);
+            int[] expected = new AStar(graph).astarPath(start, goal);
+            int[] found = reused.astarPath(start, goal);
+            assertEquals(expected.length, found.length);
+            for (int k = 0; k < found.length; k++)	{
+                assertEquals(expected[k], found[k]);
+            }
+        }
+    }
+
+
+    private static void assertSameForAllPairs(GeomPlanarGraph network)	{
+        RoadGraph graph = new RoadGraph(network);
+        AStar astar = new AStar(graph);
+        LegacyAStar legacy = new LegacyAStar();
+        for (int s = 0; s < graph.numNodes; s++)	{
+            for (int g = 0; g < graph.numNodes; g++)	{
+                Node start = graph.node(s), goal = graph.node(g);
+                assertSamePath(legacy.astarPath(start, goal), astar.astarPath(start, goal));
+            }
+        }
+    }
+
+    private static void assertSamePath(List<GeomPlanarGraphDirectedEdge> expected,
+    		List<GeomPlanarGraphDirectedEdge> found)	{
+        assertEquals(expected.size(), found.size());
+        for (int k = 0; k < expected.size(); k++)	{
+            assertSame(expected.get(k), found.get(k));
+        }
+    }
+
+    private static Node node(GeomPlanarGraph network, double x, double y)	{
+        return network.findNode(new Coordinate(x, y));
+    }
+
+
+
+    /**
+     * AStar as it was before the heap, with ArrayList open and closed sets
+     * and a linear scan for the nearest open node, kept as the reference
+     */
+    @SuppressWarnings("restriction")
+    static class LegacyAStar
+    {
+
+        public ArrayList<GeomPlanarGraphDirectedEdge> astarPath(Node start, Node goal)
+        {
+            ArrayList<GeomPlanarGraphDirectedEdge> result =
+                new ArrayList<GeomPlanarGraphDirectedEdge>();
+
+            HashMap<Node, AStarNodeWrapper> foundNodes =
+                new HashMap<Node, AStarNodeWrapper>();
+
+            AStarNodeWrapper startNode = new AStarNodeWrapper(start);
+            AStarNodeWrapper goalNode = new AStarNodeWrapper(goal);
+            foundNodes.put(start, startNode);
+            foundNodes.put(goal, goalNode);
+
+            startNode.gx = 0;
+            startNode.hx = heuristic(start, goal);
+            startNode.fx = heuristic(start, goal);
+
+            ArrayList<AStarNodeWrapper> closedSet = new ArrayList<AStarNodeWrapper>(),
+                openSet = new ArrayList<AStarNodeWrapper>();
+            openSet.add(startNode);
+
+            while (openSet.size() > 0)
+            {
+                AStarNodeWrapper x = findMin(openSet);
+                if (x.node == goal)
+                {
+                    return reconstructPath(goalNode);
+                }
+                openSet.remove(x);
+                closedSet.add(x);
+
+                DirectedEdgeStar des = x.node.getOutEdges();
+                for (Object o : des.getEdges().toArray())
+                {
+                    GeomPlanarGraphDirectedEdge l = (GeomPlanarGraphDirectedEdge) o;
+                    Node next = l.getToNode();
+
+                    AStarNodeWrapper nextNode;
+                    if (foundNodes.containsKey(next))
+                    {
+                        nextNode = foundNodes.get(next);
+                    } else
+                    {
+                        nextNode = new AStarNodeWrapper(next);
+                        foundNodes.put(next, nextNode);
+                    }
+
+                    if (closedSet.contains(nextNode))
+                    {
+                        continue;
+                    }
+
+                    double tentativeCost = x.gx + length(l);
+                    boolean better = false;
+
+                    if (!openSet.contains(nextNode))
+                    {
+                        openSet.add(nextNode);
+                        nextNode.hx = heuristic(next, goal);
+                        better = true;
+                    } else if (tentativeCost < nextNode.gx)
+                    {
+                        better = true;
+                    }
+
+                    if (better)
+                    {
+                        nextNode.cameFrom = x;
+                        nextNode.edgeFrom = l;
+                        nextNode.gx = tentativeCost;
+                        nextNode.fx = nextNode.gx + nextNode.hx;
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        ArrayList<GeomPlanarGraphDirectedEdge> reconstructPath(AStarNodeWrapper n)
+        {
+            ArrayList<GeomPlanarGraphDirectedEdge> result =
+                new ArrayList<GeomPlanarGraphDirectedEdge>();
+            AStarNodeWrapper x = n;
+            while (x.cameFrom != null)
+            {
+                result.add(0, x.edgeFrom);
+                x = x.cameFrom;
+            }
+            return result;
+        }
+
+        double heuristic(Node x, Node y)
+        {
+            Coordinate xnode = x.getCoordinate();
+            Coordinate ynode = y.getCoordinate();
+            return Math.sqrt(Math.pow(xnode.x - ynode.x, 2)
+                + Math.pow(xnode.y - ynode.y, 2));
+        }
+
+        double length(GeomPlanarGraphDirectedEdge e)
+        {
+            Coordinate xnode = e.getFromNode().getCoordinate();
+            Coordinate ynode = e.getToNode().getCoordinate();
+            return Math.sqrt(Math.pow(xnode.x - ynode.x, 2)
+                + Math.pow(xnode.y - ynode.y, 2));
+        }
+
+        AStarNodeWrapper findMin(ArrayList<AStarNodeWrapper> set)
+        {
+            double min = 100000;
+            AStarNodeWrapper minNode = null;
+            for (AStarNodeWrapper n : set)
+            {
+                if (n.fx < min)
+                {
+                    min = n.fx;
+                    minNode = n;
+                }
+            }
+            return minNode;
+        }
+
+        class AStarNodeWrapper
+        {
+            Node node;
+            AStarNodeWrapper cameFrom;
+            GeomPlanarGraphDirectedEdge edgeFrom;
+            double gx, hx, fx;
+
+            AStarNodeWrapper(Node n)
+            {
+                node = n;
+            }
+        }
+    }
+}
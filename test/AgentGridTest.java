@@ -0,0 +1,156 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.Bag;
+import sim.util.IntBag;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The agent grid must find the same agents as looking at every one of them,
+ * however the agents are moved.
+ */
+public class AgentGridTest	{
+
+    static final int SIDE = 25;
+
+    @Test
+    public void agentObjects() throws IOException	{
+        check(false, false, 0);
+    }
+
+    @Test
+    public void agentStore() throws IOException	{
+        check(true, false, 0);
+    }
+
+    @Test
+    public void agentStoreInPhases() throws IOException	{
+        check(true, false, 4);
+    }
+
+    @Test
+    public void edgeExitEvents() throws IOException	{
+        check(true, true, 0);
+    }
+
+
+    private static void check(boolean store, boolean events, int threads) throws IOException	{
+        MK_1 model = TestNetworks.model(SIDE, 3000);
+        model.setUseAgentStore(store);
+        model.setUseEdgeExitEvents(events);
+        model.setStepThreads(threads);
+        model.setUseAgentGrid(true);
+        model.setAgentGridCellSize(250);
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            while (model.schedule.getTime() < 40)	{
+                model.schedule.step(model);
+            }
+        } finally	{
+            System.setOut(out);
+        }
+
+        AgentGrid grid = model.agentGrid;
+        double[][] at = positions(model);
+        assertEquals(at.length, grid.size());
+        GeometryFactory fact = new GeometryFactory();
+        MersenneTwisterFast random = new MersenneTwisterFast(4);
+        IntBag found = new IntBag();
+        for (int q = 0; q < 100; q++)	{
+            double px = 600000 + random.nextDouble() * 100 * SIDE;
+            double py = 300000 + random.nextDouble() * 100 * SIDE;
+            double distance = random.nextDouble() * 600;
+
+            // by number
+            HashSet<Integer> expected = new HashSet<Integer>();
+            for (int i = 0; i < at.length; i++)	{
+                double dx = at[i][0] - px, dy = at[i][1] - py;
+                if (dx * dx + dy * dy <= distance * distance)	{
+                    expected.add(i);
+                }
+            }
+            grid.getAgentsWithinDistance(px, py, distance, found);
+            assertEquals(expected, set(found));
+            assertEquals(expected.size(), grid.countAgentsWithinDistance(px, py, distance));
+
+            // by point, as a GeomVectorField answers
+            Bag points = model.getAgentsWithinDistance(
+            		fact.createPoint(new Coordinate(px, py)), distance);
+            assertSamePoints(model, expected, at, points);
+
+            // and near a line
+            Geometry line = fact.createLineString(new Coordinate[]	{
+            		new Coordinate(px, py), new Coordinate(px + 300, py - 200) });
+            expected.clear();
+            for (int i = 0; i < at.length; i++)	{
+                if (line.isWithinDistance(fact.createPoint(new Coordinate(at[i][0], at[i][1])),
+                		distance))	{
+                    expected.add(i);
+                }
+            }
+            assertSamePoints(model, expected, at, grid.getObjectsWithinDistance(line, distance));
+        }
+    }
+
+    /**
+     * @return where every agent is, numbered as the grid numbers them
+     */
+    private static double[][] positions(MK_1 model)	{
+        int objects = model.agentList.size();
+        AgentStore store = model.agentStore;
+        if (model.edgeExitEngine != null)	{
+            model.edgeExitEngine.updatePositions(model.schedule.getTime());
+        }
+        double[][] at = new double[objects + ((store == null) ? 0 : store.size())][];
+        for (int i = 0; i < objects; i++)	{
+            Coordinate c = model.agentList.get(i).getPosition();
+            at[i] = new double[] { c.x, c.y };
+        }
+        for (int i = objects; i < at.length; i++)	{
+            at[i] = new double[] { store.x[i - objects], store.y[i - objects] };
+        }
+        return at;
+    }
+
+    private static HashSet<Integer> set(IntBag bag)	{
+        HashSet<Integer> s = new HashSet<Integer>();
+        for (int k = 0; k < bag.numObjs; k++)	{
+            s.add(bag.objs[k]);
+        }
+        return s;
+    }
+
+    /**
+     * The points must be those of the expected agents, moved to where they are
+     */
+    private static void assertSamePoints(MK_1 model, HashSet<Integer> expected,
+    		double[][] at, Bag points)	{
+        assertEquals(expected.size(), points.size());
+        int objects = model.agentList.size();
+        HashSet<MasonGeometry> wanted = new HashSet<MasonGeometry>();
+        for (int i : expected)	{
+            MasonGeometry mg = (i < objects) ? model.agentList.get(i).getGeometry()
+            		: model.agentStore.location[i - objects];
+            wanted.add(mg);
+            Coordinate c = mg.getGeometry().getCoordinate();
+            assertTrue(c.x == at[i][0] && c.y == at[i][1]);
+        }
+        for (Object o : points)	{
+            assertTrue(wanted.contains(o));
+        }
+    }
+}
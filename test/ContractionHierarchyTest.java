@@ -0,0 +1,116 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * Paths from the Contraction Hierarchy must be as short as A*'s, and must be
+ * real paths through the road graph, from any thread and after a save.
+ */
+public class ContractionHierarchyTest	{
+
+    static RoadGraph graph;
+    static ContractionHierarchy hierarchy;
+    static int[][] pairs;
+
+    @BeforeClass
+    public static void build()	{
+        graph = TestNetworks.network(40).graph;
+        hierarchy = new ContractionHierarchy(graph);
+        MersenneTwisterFast random = new MersenneTwisterFast(5);
+        pairs = new int[400][];
+        for (int k = 0; k < pairs.length; k++)	{
+            pairs[k] = new int[] { random.nextInt(graph.numNodes), random.nextInt(graph.numNodes) };
+        }
+    }
+
+
+    @Test
+    public void sameCostAsAStar()	{
+        AStar astar = new AStar(graph);
+        for (int[] p : pairs)	{
+            int[] expected = astar.astarPath(p[0], p[1]);
+            int[] found = hierarchy.path(p[0], p[1]);
+            assertConnected(p[0], p[1], found);
+            assertEquals(cost(expected), cost(found), 1e-6);
+        }
+    }
+
+    @Test
+    public void sameOnEveryThread() throws Exception	{
+        final int[][] serial = new int[pairs.length][];
+        for (int k = 0; k < pairs.length; k++)	{
+            serial[k] = hierarchy.path(pairs[k][0], pairs[k][1]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try	{
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < 4; t++)	{
+                final int first = t;
+                tasks.add(new Callable<Object>()	{
+                    public Object call()	{
+                        for (int k = first; k < pairs.length; k += 4)	{
+                            assertArrayEquals(serial[k], hierarchy.path(pairs[k][0], pairs[k][1]));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> f : pool.invokeAll(tasks))	{
+                f.get();
+            }
+        } finally	{
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException	{
+        File file = File.createTempFile("hierarchy", ".ch");
+        try	{
+            hierarchy.save(file);
+            ContractionHierarchy loaded = ContractionHierarchy.load(file, graph);
+            assertNotNull(loaded);
+            for (int[] p : pairs)	{
+                assertArrayEquals(hierarchy.path(p[0], p[1]), loaded.path(p[0], p[1]));
+            }
+            assertNull(ContractionHierarchy.load(file, TestNetworks.network(20).graph));
+        } finally	{
+            file.delete();
+        }
+    }
+
+
+    private static double cost(int[] path)	{
+        double cost = 0;
+        for (int d : path)	{
+            cost += graph.lengths[d];
+        }
+        return cost;
+    }
+
+    private static void assertConnected(int origin, int goal, int[] path)	{
+        int at = origin;
+        for (int d : path)	{
+            assertEquals(at, graph.sources[d]);
+            at = graph.targets[d];
+        }
+        assertEquals(goal, at);
+    }
+}
@@ -0,0 +1,71 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+/**
+ * Moving the agents by edge exit events must give much the same arrivals as
+ * stepping them every tick. The two differ in the details: agents leave at
+ * the epoch, their speed is fixed as they enter a road, and they turn back
+ * as soon as a leg ends rather than on their next step. So the first leg is
+ * compared to within a few percent, and after that the events must keep
+ * finishing legs at least as fast as the ticks.
+ */
+public class EdgeExitEngineTest	{
+
+    static final int SIDE = 25;
+    static final int AGENTS = 3000;
+    static final int TICKS = 100;
+
+    @Test
+    public void arrivalsMatchTickModel() throws IOException	{
+        int[][] ticks = run(false);
+        int[][] events = run(true);
+        for (int k = 0; k < TICKS && ticks[0][k] == 0 && events[0][k] == 0; k++)	{
+            assertTrue("at tick " + k + ": " + ticks[1][k] + " against " + events[1][k],
+            		Math.abs(ticks[1][k] - events[1][k]) <= 0.03 * AGENTS);
+        }
+        assertTrue(ticks[0][TICKS - 1] > 5);
+        assertTrue(events[0][TICKS - 1] >= ticks[0][TICKS - 1]);
+    }
+
+
+    /**
+     * @return the legs completed and the arrivals on the current leg, at
+     * every tick
+     */
+    private static int[][] run(boolean events) throws IOException	{
+        MK_1 model = TestNetworks.model(SIDE, AGENTS);
+        model.setUseAgentStore(true);
+        model.setUseEdgeExitEvents(events);
+        int[][] trace = new int[2][TICKS];
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            int travellers = model.agentStore.size();
+            for (int k = 0; k < TICKS; k++)	{
+                while (model.schedule.getTime() < k)	{
+                    model.schedule.step(model);
+                }
+                trace[0][k] = model.legsCompleted;
+                trace[1][k] = model.arrivals;
+
+                // every agent is counted on exactly one road
+                int total = 0;
+                for (int r = 0; r < model.graph.numRoads; r++)	{
+                    total += model.edgeTraffic.count(r);
+                }
+                assertEquals(travellers, total);
+            }
+        } finally	{
+            System.setOut(out);
+            model.finish();
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,144 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * When the flood closes roads, every agent with a way round must be sent
+ * round it, and the run must not depend on whether the way round came from
+ * A* or from the goal trees.
+ */
+public class FloodRoutingTest	{
+
+    static final int SIDE = 25;
+
+    @Test
+    public void agentObjects() throws IOException	{
+        assertEquals(run(false, false), run(false, true));
+    }
+
+    @Test
+    public void agentStore() throws IOException	{
+        assertEquals(run(true, false), run(true, true));
+    }
+
+    @Test
+    public void travelTimes() throws IOException	{
+        run(true, true, true);
+    }
+
+    /**
+     * A flood script's bad lines must be skipped as it is read, rather than
+     * stopping the run when their tick comes round
+     */
+    @Test
+    public void badScriptLinesSkipped() throws IOException	{
+        NetworkData network = TestNetworks.network(SIDE);
+        Iterator<Integer> ids = network.idsToEdges.keySet().iterator();
+        int slowed = ids.next(), closed = ids.next(), bad = ids.next();
+        File script = File.createTempFile("flood", ".csv");
+        MK_1 model = TestNetworks.model(SIDE, 3000);
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            PrintWriter w = new PrintWriter(new FileWriter(script));
+            try	{
+                w.println("tick,ROAD_ID,factor");
+                w.println("5," + slowed + ",2.5");
+                w.println("5," + bad + ",0.5");
+                w.println("5," + bad + ",0");
+                w.println("5," + bad + ",slow");
+                w.println("5,road" + bad + ",closed");
+                w.println("5," + bad + ".5,closed");
+                w.println("5x," + bad + ",closed");
+                w.println("1e999," + bad + ",closed");
+                w.println("6," + closed + ",closed");
+            } finally	{
+                w.close();
+            }
+            model.setFloodScript(script.getPath());
+            model.start();
+            while (model.schedule.getTime() < 10)	{
+                model.schedule.step(model);
+            }
+        } finally	{
+            System.setOut(out);
+            model.finish();
+            script.delete();
+        }
+        RoadConditions conditions = model.roadConditions;
+        assertEquals(2.5, conditions.getFactor(model.graph.roadId(network.idsToEdges.get(slowed))), 0);
+        assertTrue(conditions.isClosed(model.graph.roadId(network.idsToEdges.get(closed))));
+        assertEquals(1, conditions.getFactor(model.graph.roadId(network.idsToEdges.get(bad))), 0);
+    }
+
+
+    private static ArrayList<String> run(boolean store, boolean goalTrees) throws IOException	{
+        return run(store, goalTrees, false);
+    }
+
+    /**
+     * Run through a flood and back, checking every tick that only stranded
+     * agents have a closed road ahead of them
+     * @return what the run did, tick by tick
+     */
+    private static ArrayList<String> run(boolean store, boolean goalTrees, boolean travelTimes)
+    		throws IOException	{
+        MK_1 model = TestNetworks.model(SIDE, 3000);
+        model.setUseAgentStore(store);
+        model.setUseGoalTrees(goalTrees);
+        model.setRouteOnTravelTime(travelTimes);
+        model.setFloodTime(20);
+        model.setFloodRecedeTime(150);
+        ArrayList<String> trace = new ArrayList<String>();
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            while (model.schedule.getTime() < 200)	{
+                model.schedule.step(model);
+                FloodRouting flooding = model.flooding;
+                int blocked = blockedAgents(model);
+                assertTrue(blocked + " agents blocked, " + flooding.getStrandedAgents() + " stranded",
+                		blocked <= flooding.getStrandedAgents());
+                trace.add(model.schedule.getTime() + ": " + model.arrivals + " arrived, "
+                		+ model.legsCompleted + " legs, " + flooding.getReroutedAgents()
+                		+ " re-routed, " + flooding.getStrandedAgents() + " stranded");
+            }
+        } finally	{
+            System.setOut(out);
+            model.finish();
+        }
+        assertTrue(model.flooding.getReroutedAgents() > 0);
+        return trace;
+    }
+
+    /**
+     * @return how many travelling agents have a closed road ahead of them
+     */
+    private static int blockedAgents(MK_1 model)	{
+        FloodRouting flooding = model.flooding;
+        int blocked = 0;
+        for (Agent a : model.agentList)	{
+            if (!a.reachedDestination && flooding.blocked(a.route, a.indexOnPath, a.pathDirection))	{
+                blocked++;
+            }
+        }
+        AgentStore s = model.agentStore;
+        for (int i = 0; s != null && i < s.size(); i++)	{
+            if (!s.reachedDestination[i]
+            		&& flooding.blocked(s.path[i], s.indexOnPath[i], s.pathDirection[i]))	{
+                blocked++;
+            }
+        }
+        return blocked;
+    }
+}
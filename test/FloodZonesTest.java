@@ -0,0 +1,130 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.LineString;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The flood zones of every road must be those found by testing its line
+ * against every polygon, on any number of threads.
+ */
+public class FloodZonesTest	{
+
+    static final int SIDE = 30;
+
+    /**
+     * The synthetic network's flood bands
+     */
+    @Test
+    public void floodBands()	{
+        NetworkData network = TestNetworks.network(SIDE);
+        check(network.graph, network.flood2, network.flood3);
+    }
+
+    /**
+     * The bands, with a ring around the middle of the network added to FZ2
+     * and one around the whole network to FZ3. The roads in a hole are not
+     * in its ring, though they lie within its envelope.
+     */
+    @Test
+    public void polygonsWithHoles()	{
+        NetworkData network = TestNetworks.network(SIDE);
+        RoadGraph graph = network.graph;
+        Envelope e = network.roads.getMBR();
+        GeometryFactory fact = new GeometryFactory();
+        Geometry middle = ring(fact, e, 0.3, 0.15), outside = ring(fact, e, 0.6, 0.55);
+        GeomVectorField flood2 = copy(network.flood2), flood3 = copy(network.flood3);
+        flood2.addGeometry(new MasonGeometry(middle));
+        flood3.addGeometry(new MasonGeometry(outside));
+        check(graph, flood2, flood3);
+
+        GeomVectorField rings = new GeomVectorField();
+        rings.addGeometry(new MasonGeometry(middle));
+        FloodZones zones = new FloodZones(graph, rings, rings, 1);
+        Geometry hole = fact.createPolygon(square(fact, e, 0.15), null);
+        int inHole = 0;
+        for (int r = 0; r < graph.numRoads; r++)	{
+            if (graph.roadEdges[r].getLine().within(hole))	{
+                inHole++;
+                assertFalse("road " + r, zones.inZone2(r));
+            }
+        }
+        assertTrue(inHole > 0);
+        assertTrue(zones.getZone2Count() > 0);
+    }
+
+
+    /**
+     * Check the zones found on 1, 2 and 5 threads against a brute force test
+     * of every road against every polygon
+     * @return the zones found on one thread
+     */
+    private static FloodZones check(RoadGraph graph, GeomVectorField flood2,
+    		GeomVectorField flood3)	{
+        FloodZones one = new FloodZones(graph, flood2, flood3, 1);
+        FloodZones[] all = { one, new FloodZones(graph, flood2, flood3, 2),
+        		new FloodZones(graph, flood2, flood3, 5) };
+        int in2 = 0, in3 = 0;
+        for (int r = 0; r < graph.numRoads; r++)	{
+            LineString line = graph.roadEdges[r].getLine();
+            boolean z2 = intersects(line, flood2), z3 = intersects(line, flood3);
+            for (FloodZones zones : all)	{
+                assertEquals("road " + r, z2, zones.inZone2(r));
+                assertEquals("road " + r, z3, zones.inZone3(r));
+            }
+            in2 += z2 ? 1 : 0;
+            in3 += z3 ? 1 : 0;
+        }
+        assertEquals(in2, one.getZone2Count());
+        assertEquals(in3, one.getZone3Count());
+        assertTrue(in3 > 0 && in2 > in3 && in2 < graph.numRoads);
+        return one;
+    }
+
+    private static boolean intersects(LineString line, GeomVectorField layer)	{
+        for (Object o : layer.getGeometries())	{
+            if (((MasonGeometry) o).geometry.intersects(line))	{
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static GeomVectorField copy(GeomVectorField layer)	{
+        GeomVectorField copy = new GeomVectorField();
+        for (Object o : layer.getGeometries())	{
+            copy.addGeometry((MasonGeometry) o);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a square ring about the middle of e, its outer and inner
+     * edges the given fractions of e's width and height from the middle
+     */
+    private static Geometry ring(GeometryFactory fact, Envelope e, double outer, double inner)	{
+        return fact.createPolygon(square(fact, e, outer), new LinearRing[] { square(fact, e, inner) });
+    }
+
+    private static LinearRing square(GeometryFactory fact, Envelope e, double half)	{
+        Coordinate c = e.centre();
+        double dx = half * e.getWidth(), dy = half * e.getHeight();
+        return fact.createLinearRing(new Coordinate[]	{
+        		new Coordinate(c.x - dx, c.y - dy), new Coordinate(c.x + dx, c.y - dy),
+        		new Coordinate(c.x + dx, c.y + dy), new Coordinate(c.x - dx, c.y + dy),
+        		new Coordinate(c.x - dx, c.y - dy) });
+    }
+}
@@ -0,0 +1,178 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.Bag;
+import sim.util.geo.AttributeValue;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * A snapshot must give back the layers it was written from, and a stale,
+ * cut short or garbled one must be refused so the shapefiles are read
+ * instead.
+ */
+public class NetworkSnapshotTest	{
+
+    static final long CHECKSUM = 0x1234abcdL;
+
+    File directory;
+    File file;
+    GeomVectorField roads, lsoa, flood3, flood2;
+
+
+    @Before
+    public void setUp() throws IOException	{
+        directory = Files.createTempDirectory("snapshot").toFile();
+        file = new File(directory, "network.snapshot");
+        roads = new GeomVectorField();
+        lsoa = new GeomVectorField();
+        flood3 = new GeomVectorField();
+        flood2 = new GeomVectorField();
+        TestNetworks.synthetic(20).fill(roads, lsoa, flood3, flood2);
+        roads.getGeometries().objs[0] = withAttributes(
+        		(MasonGeometry) roads.getGeometries().objs[0]);
+    }
+
+    @After
+    public void tearDown()	{
+        for (File f : directory.listFiles())	{
+            f.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * A road with a value of every type the snapshot keeps
+     */
+    private static MasonGeometry withAttributes(MasonGeometry mg)	{
+        mg.addDoubleAttribute("LENGTH", 123.25);
+        mg.addAttribute("ONEWAY", Boolean.TRUE);
+        mg.addStringAttribute("NAME", "Prince of Wales Road é");
+        return mg;
+    }
+
+
+    @Test
+    public void roundTrip() throws IOException	{
+        NetworkSnapshot.write(file, CHECKSUM, roads, lsoa, flood3, flood2);
+        GeomVectorField[] read = layers(4);
+        assertTrue(NetworkSnapshot.read(file, CHECKSUM, read));
+        assertSameLayer(roads, read[0]);
+        assertSameLayer(lsoa, read[1]);
+        assertSameLayer(flood3, read[2]);
+        assertSameLayer(flood2, read[3]);
+        assertEquals(1, directory.listFiles().length);	// no temporary file left over
+    }
+
+    @Test
+    public void rewriteReplacesSnapshot() throws IOException	{
+        NetworkSnapshot.write(file, CHECKSUM, roads, lsoa, flood3, flood2);
+        NetworkSnapshot.write(file, CHECKSUM + 1, roads, lsoa, flood3, flood2);
+        assertFalse(NetworkSnapshot.read(file, CHECKSUM, layers(4)));
+        assertTrue(NetworkSnapshot.read(file, CHECKSUM + 1, layers(4)));
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public void staleSnapshotRefused() throws IOException	{
+        NetworkSnapshot.write(file, CHECKSUM, roads, lsoa, flood3, flood2);
+        assertFalse(NetworkSnapshot.read(file, CHECKSUM + 1, layers(4)));
+        assertFalse(NetworkSnapshot.read(file, CHECKSUM, layers(3)));
+        assertFalse(NetworkSnapshot.read(new File(directory, "missing"), CHECKSUM, layers(4)));
+    }
+
+    @Test
+    public void cutShortSnapshotRefused() throws IOException	{
+        NetworkSnapshot.write(file, CHECKSUM, roads, lsoa, flood3, flood2);
+        long size = file.length();
+        for (long length = size - 1; length > 0; length = length * 7 / 8)	{
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try	{
+                raf.setLength(length);
+            } finally	{
+                raf.close();
+            }
+            assertFalse("cut to " + length, NetworkSnapshot.read(file, CHECKSUM, layers(4)));
+        }
+    }
+
+    @Test
+    public void garbledLengthRefused() throws IOException	{
+        NetworkSnapshot.write(file, CHECKSUM, roads, lsoa, flood3, flood2);
+        for (int value : new int[] { -1, Integer.MIN_VALUE, Integer.MAX_VALUE })	{
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try	{
+                raf.seek(24);	// the WKB length of the first road
+                raf.writeInt(value);
+            } finally	{
+                raf.close();
+            }
+            assertFalse("length " + value, NetworkSnapshot.read(file, CHECKSUM, layers(4)));
+        }
+    }
+
+    /**
+     * With a source shapefile missing the run must stop as it did before
+     * there were snapshots, on a FileNotFoundException, and write nothing
+     */
+    @Test
+    public void missingSourceFile() throws IOException	{
+        try	{
+            NetworkSnapshot.checksum(file.toURI().toURL(), null);
+            fail();
+        } catch (FileNotFoundException e)	{
+        }
+
+        assumeTrue(MK_1.class.getResource("/data/NorfolkITN.shp") == null);
+        MK_1 model = new MK_1(TestNetworks.SEED);
+        model.setSnapshotFile(file.getPath());
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            assertNull(model.loadNetwork());
+        } finally	{
+            System.setOut(out);
+        }
+        assertFalse(file.exists());
+    }
+
+
+    private static GeomVectorField[] layers(int n)	{
+        GeomVectorField[] layers = new GeomVectorField[n];
+        for (int i = 0; i < n; i++)	{
+            layers[i] = new GeomVectorField();
+        }
+        return layers;
+    }
+
+    private static void assertSameLayer(GeomVectorField expected, GeomVectorField found)	{
+        Bag a = expected.getGeometries(), b = found.getGeometries();
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++)	{
+            MasonGeometry x = (MasonGeometry) a.get(i), y = (MasonGeometry) b.get(i);
+            assertTrue(x.getGeometry().equalsExact(y.getGeometry()));
+            Map<String, AttributeValue> ax = x.getAttributes(), ay = y.getAttributes();
+            assertEquals(ax.keySet(), ay.keySet());
+            for (String name : ax.keySet())	{
+                assertEquals(name, ax.get(name).getValue(), ay.get(name).getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * PopulationFile must read every row as the old readLine and split loader
+ * did: the count, the ROAD_ID cut to its whole part, and the work area.
+ */
+public class PopulationFileTest	{
+
+    /**
+     * A file of a few MB, so that lines run across the blocks it is read in
+     */
+    @Test
+    public void sameAsSplitOnSyntheticFile() throws IOException	{
+        File file = File.createTempFile("population", ".csv");
+        try	{
+            TestNetworks.synthetic(50).writePopulation(file, 300000, 10, 8);
+            PopulationFile read = PopulationFile.read(file.getPath());
+            BufferedReader d = new BufferedReader(new FileReader(file));
+            try	{
+                assertSameAsSplit(d, read);
+            } finally	{
+                d.close();
+            }
+            assertEquals(300000, read.getAgents());
+        } finally	{
+            file.delete();
+        }
+    }
+
+    /**
+     * Windows line ends, fractional ROAD_IDs, extra columns, blank lines and
+     * no line end at the end of the file
+     */
+    @Test
+    public void sameAsSplitOnAwkwardLines() throws IOException	{
+        String text = "FID,OBJECTID,Count,ROAD_ID,Work\r\n"
+        		+ "0,1,12,4001.0,E01026599\r\n"
+        		+ "1,2,3,17.75,E01026599,extra,columns\n"
+        		+ "\n"
+        		+ "2,3,0,5,\n"
+        		+ "3,4,250,123456,E01026600\n"
+        		+ "4,5,1,9,E01026599";
+        PopulationFile read = new PopulationFile(stream(text));
+        assertSameAsSplit(new BufferedReader(new StringReader(text)), read);
+
+        // each work area is made into a String once
+        assertEquals(3, read.numWorkNames);
+        assertSame(read.workName(0), read.workName(4));
+    }
+
+
+    private static InputStream stream(String text)	{
+        return new ByteArrayInputStream(text.getBytes(Charset.forName("UTF-8")));
+    }
+
+
+    /**
+     * Read the lines as the old loader did and compare them row by row
+     */
+    private static void assertSameAsSplit(BufferedReader d, PopulationFile read)
+    		throws IOException	{
+        ArrayList<String[]> rows = new ArrayList<String[]>();
+        d.readLine(); // the header
+        String s;
+        while ((s = d.readLine()) != null)	{
+            if (s.length() > 0)	{
+                rows.add(s.split(",", -1));
+            }
+        }
+        assertEquals(rows.size(), read.size());
+        for (int k = 0; k < rows.size(); k++)	{
+            String[] bits = rows.get(k);
+            assertEquals(Integer.parseInt(bits[2]), read.count[k]);
+            assertEquals((int) Double.parseDouble(bits[3]), read.roadId[k]);
+            assertEquals(bits[4], read.workName(k));
+        }
+        assertTrue(read.size() > 0);
+    }
+}
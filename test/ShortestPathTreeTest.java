@@ -0,0 +1,88 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A goal's tree must give every node a path as short as A* finds to the
+ * goal, and must still do so once update() has repaired it after roads are
+ * closed, slowed or cleared. Where routes tie, the two may pick different
+ * ones.
+ */
+public class ShortestPathTreeTest	{
+
+    @Test
+    public void sameLengthAsAStar()	{
+        RoadGraph graph = TestNetworks.network(30).graph;
+        AStar astar = new AStar(graph);
+        MersenneTwisterFast random = new MersenneTwisterFast(6);
+        for (int g = 0; g < 5; g++)	{
+            int goal = random.nextInt(graph.numNodes);
+            ShortestPathTree tree = new ShortestPathTree(graph, goal);
+            for (int origin = 0; origin < graph.numNodes; origin++)	{
+                int[] path = tree.pathFrom(origin);
+                assertConnected(graph, origin, goal, path);
+                assertEquals(cost(graph, astar.astarPath(origin, goal)), cost(graph, path), 1e-6);
+                assertEquals(tree.distance[origin], cost(graph, path), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * Random changes to a few roads at a time, each followed by a repair,
+     * must leave the tree as a fresh one built on the same conditions
+     */
+    @Test
+    public void repairedTreeMatchesFreshTree()	{
+        RoadGraph graph = TestNetworks.network(30).graph;
+        RoadConditions conditions = new RoadConditions(graph);
+        MersenneTwisterFast random = new MersenneTwisterFast(7);
+        int goal = random.nextInt(graph.numNodes);
+        ShortestPathTree tree = new ShortestPathTree(graph, goal, conditions);
+        double[] factors = { RoadConditions.CLOSED, 1, 1.5, 4 };
+        for (int change = 0; change < 300; change++)	{
+            int[] roads = new int[1 + random.nextInt(8)];
+            for (int k = 0; k < roads.length; k++)	{
+                roads[k] = random.nextInt(graph.numRoads);
+                conditions.set(roads[k], factors[random.nextInt(factors.length)]);
+            }
+            tree.update(roads);
+
+            ShortestPathTree fresh = new ShortestPathTree(graph, goal, conditions);
+            for (int n = 0; n < graph.numNodes; n++)	{
+                assertEquals(fresh.reaches(n), tree.reaches(n));
+                assertEquals(fresh.distance[n], tree.distance[n], 1e-6);
+                if (tree.reaches(n))	{
+                    int[] path = tree.pathFrom(n);
+                    assertConnected(graph, n, goal, path);
+                    double cost = 0;
+                    for (int d : path)	{
+                        cost += conditions.cost(d);
+                    }
+                    assertEquals(tree.distance[n], cost, 1e-6);
+                }
+            }
+        }
+    }
+
+
+    static double cost(RoadGraph graph, int[] path)	{
+        double cost = 0;
+        for (int d : path)	{
+            cost += graph.lengths[d];
+        }
+        return cost;
+    }
+
+    static void assertConnected(RoadGraph graph, int origin, int goal, int[] path)	{
+        int at = origin;
+        for (int d : path)	{
+            assertEquals(at, graph.sources[d]);
+            at = graph.targets[d];
+        }
+        assertEquals(goal, at);
+    }
+}
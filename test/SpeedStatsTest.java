@@ -0,0 +1,112 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+/**
+ * The running speed statistics must agree with a scan of every agent, at
+ * every tick and however the agents are moved: the count exactly, the mean
+ * to within rounding, and the slowest and fastest speeds to within a bucket.
+ */
+public class SpeedStatsTest	{
+
+    @Test
+    public void agentObjects() throws IOException	{
+        check(false, 0, false);
+    }
+
+    @Test
+    public void agentStore() throws IOException	{
+        check(true, 0, false);
+    }
+
+    @Test
+    public void agentStoreInPhases() throws IOException	{
+        check(true, 4, false);
+    }
+
+    @Test
+    public void edgeExitEvents() throws IOException	{
+        check(true, 0, true);
+    }
+
+    @Test
+    public void addAndRemove()	{
+        SpeedStats stats = new SpeedStats(1000);
+        stats.add(250);
+        stats.add(1000);
+        stats.add(2000);	// over the top speed, so counted in the last bucket
+        stats.change(250, 500);
+        stats.remove(2000);
+        assertEquals(2, stats.getCount());
+        assertEquals(750, stats.getMean(), 1e-9);
+        assertEquals(500, stats.getMin(), 1000.0 / SpeedStats.BUCKETS);
+        assertEquals(1000, stats.getMax(), 1000.0 / SpeedStats.BUCKETS);
+        stats.remove(500);
+        stats.remove(1000);
+        assertEquals(0, stats.getMean(), 0);
+        assertEquals(0, stats.getMax(), 0);
+    }
+
+
+    private static void check(boolean store, int threads, boolean events) throws IOException	{
+        MK_1 model = TestNetworks.model(30, 3000);
+        model.setUseAgentStore(store);
+        model.setStepThreads(threads);
+        model.setUseEdgeExitEvents(events);
+        model.setFloodTime(20);
+        model.setFloodRecedeTime(60);
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            while (model.schedule.getTime() < 150)	{
+                double end = Math.floor(model.schedule.getTime()) + 1;
+                while (model.schedule.getTime() < end && model.schedule.step(model))	{
+                }
+                assertAgreesWithScan(model);
+            }
+        } finally	{
+            System.setOut(out);
+            model.finish();
+        }
+        assertTrue(model.legsCompleted > 0);
+    }
+
+    private static void assertAgreesWithScan(MK_1 model)	{
+        double max = 0, min = Double.POSITIVE_INFINITY, sum = 0;
+        int n = 0;
+        for (Agent a : model.agentList)	{
+            if (!a.reachedDestination)	{
+                double s = Math.abs(a.speed);
+                n++;
+                sum += s;
+                max = Math.max(max, s);
+                min = Math.min(min, s);
+            }
+        }
+        AgentStore store = model.agentStore;
+        for (int i = 0; store != null && i < store.size(); i++)	{
+            if (!store.reachedDestination[i])	{
+                double s = Math.abs(store.speed[i]);
+                n++;
+                sum += s;
+                max = Math.max(max, s);
+                min = Math.min(min, s);
+            }
+        }
+
+        SpeedStats stats = model.speeds;
+        assertEquals(n, stats.getCount());
+        if (n > 0)	{
+            double bucket = stats.top / SpeedStats.BUCKETS + 1e-9;
+            assertEquals(sum / n, stats.getMean(), 1e-3);
+            assertEquals(max, stats.getMax(), bucket);
+            assertEquals(min, stats.getMin(), bucket);
+        }
+    }
+}
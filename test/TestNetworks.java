@@ -0,0 +1,147 @@
+package sim.app.geo.MK_1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import sim.field.geo.GeomVectorField;
+import sim.util.geo.GeomPlanarGraph;
+import sim.util.geo.MasonGeometry;
+
+/**
+ * The networks and populations the checks run on, made once per JVM and
+ * shared by every check in it. They are SyntheticNetwork grids, as for the
+ * benchmarks, so no check needs the Norfolk data.
+ */
+final class TestNetworks	{
+
+    static final long SEED = 1;
+
+    private static final HashMap<String, SyntheticNetwork> synthetic =
+        new HashMap<String, SyntheticNetwork>();
+    private static final HashMap<String, NetworkData> networks =
+        new HashMap<String, NetworkData>();
+    private static final HashMap<String, File[]> populations = new HashMap<String, File[]>();
+
+    private TestNetworks()	{
+    }
+
+
+    /**
+     * @return the made-up network of side by side junctions, 100 m apart,
+     * moved up to jitter of that off the grid, with dropFraction of the
+     * roads not needed to connect it left out
+     */
+    static synchronized SyntheticNetwork synthetic(int side, double jitter, double dropFraction)	{
+        String key = side + "/" + jitter + "/" + dropFraction;
+        SyntheticNetwork s = synthetic.get(key);
+        if (s == null)	{
+            s = new SyntheticNetwork(side, side, 100, jitter, dropFraction, SEED);
+            synthetic.put(key, s);
+        }
+        return s;
+    }
+
+    /**
+     * @return the road-like network of side by side junctions, as
+     * BatchRunner's -synthetic option makes it
+     */
+    static SyntheticNetwork synthetic(int side)	{
+        return synthetic(side, 0.3, 0.2);
+    }
+
+
+    /**
+     * @return the road network of a made-up network, ready to route on
+     */
+    static synchronized NetworkData network(int side, double jitter, double dropFraction)	{
+        String key = side + "/" + jitter + "/" + dropFraction;
+        NetworkData n = networks.get(key);
+        if (n == null)	{
+            PrintStream out = quiet();
+            try	{
+                n = NetworkData.generate(synthetic(side, jitter, dropFraction), false, null);
+            } finally	{
+                System.setOut(out);
+            }
+            networks.put(key, n);
+        }
+        return n;
+    }
+
+    static NetworkData network(int side)	{
+        return network(side, 0.3, 0.2);
+    }
+
+
+    /**
+     * @return a planar graph of straight roads, each given as x0, y0, x1, y1
+     */
+    static GeomPlanarGraph graph(double[][] lines)	{
+        GeometryFactory fact = new GeometryFactory();
+        GeomVectorField roads = new GeomVectorField();
+        for (int i = 0; i < lines.length; i++)	{
+            double[] l = lines[i];
+            MasonGeometry mg = new MasonGeometry(fact.createLineString(new Coordinate[]	{
+            		new Coordinate(l[0], l[1]), new Coordinate(l[2], l[3]) }));
+            mg.addIntegerAttribute("ROAD_ID", i + 1);
+            roads.addGeometry(mg);
+        }
+        GeomPlanarGraph network = new GeomPlanarGraph();
+        network.createFromGeomField(roads);
+        return network;
+    }
+
+
+    /**
+     * @return population files of a network for every kind of agent, with
+     * agents agents in all, written to a temporary directory that is
+     * removed when the JVM exits
+     */
+    static synchronized File[] populations(int side, long agents) throws IOException	{
+        String key = side + "/" + agents;
+        File[] files = populations.get(key);
+        if (files == null)	{
+            File directory = Files.createTempDirectory("population").toFile();
+            directory.deleteOnExit();
+            files = synthetic(side).writePopulations(new MK_1(SEED), directory, agents, 10);
+            for (File f : files)	{
+                f.deleteOnExit();
+            }
+            populations.put(key, files);
+        }
+        return files;
+    }
+
+
+    /**
+     * @return a quiet model on a shared network, with its population files
+     * set up but not yet started
+     */
+    static MK_1 model(int side, long agents) throws IOException	{
+        MK_1 model = new MK_1(SEED, network(side));
+        model.setLogLevel(MK_1.LOG_QUIET);
+        synthetic(side).usePopulations(model, populations(side, agents));
+        return model;
+    }
+
+
+    /**
+     * Throw away what the model prints, until System.out is set back to
+     * the stream returned
+     */
+    static PrintStream quiet()	{
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream()	{
+            public void write(int b)	{
+            }
+        }));
+        return out;
+    }
+}
@@ -0,0 +1,46 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * The assignment must bring the agents' routes closer to an equilibrium:
+ * on a congested network the relative gap must come down at every one
+ * of a few iterations.
+ */
+public class TrafficAssignmentTest	{
+
+    static final int SIDE = 12;
+    static final long AGENTS = 20000;
+    static final int ITERATIONS = 5;
+
+    @Test
+    public void gapComesDown() throws Exception	{
+        TrafficAssignment assignment = new TrafficAssignment(TestNetworks.network(SIDE),
+        		TestNetworks.SEED, 2000, 2, new MK_1(TestNetworks.SEED).getRoadClassAttribute());
+        assignment.synthetic = TestNetworks.synthetic(SIDE);
+        assignment.populationFiles = TestNetworks.populations(SIDE, AGENTS);
+        assignment.useAgentStore = true;
+
+        double[] gaps = new double[ITERATIONS];
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            for (int k = 0; k < ITERATIONS; k++)	{
+                assignment.iterate();
+                gaps[k] = assignment.getRelativeGap();
+            }
+        } finally	{
+            System.setOut(out);
+        }
+        String trace = Arrays.toString(gaps);
+        assertTrue(trace, gaps[0] > 0);
+        for (int k = 1; k < ITERATIONS; k++)	{
+            assertTrue(trace, gaps[k] >= 0 && gaps[k] <= gaps[k - 1]);
+        }
+        assertTrue(trace, gaps[ITERATIONS - 1] < 0.5 * gaps[0]);
+    }
+}
@@ -0,0 +1,110 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.junit.Test;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+ * A* on travel times must find paths as cheap as Dijkstra's on the same
+ * costs, which holds only while no edge costs less than its length.
+ */
+public class TravelTimesTest	{
+
+    @Test
+    public void aStarMatchesDijkstraOnTrafficCosts() throws IOException	{
+        MK_1 model = TestNetworks.model(30, 20000);
+        model.setUseAgentStore(true);
+        model.setRouteOnTravelTime(true);
+        model.setFloodTime(30);
+        model.setFloodRecedeTime(200);
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            while (model.schedule.getTime() < 60)	{
+                model.schedule.step(model);
+            }
+        } finally	{
+            System.setOut(out);
+        }
+
+        TravelTimes times = model.travelTimes;
+        RoadGraph graph = model.graph;
+        boolean slowed = false;
+        for (int d = 0; d < graph.numEdges; d++)	{
+            assertTrue(times.cost(d) >= graph.lengths[d] - 1e-9);
+            slowed |= times.cost(d) > 1.5 * graph.lengths[d];
+        }
+        assertTrue(slowed);
+
+        AStar astar = new AStar(graph, times);
+        MersenneTwisterFast random = new MersenneTwisterFast(9);
+        for (int k = 0; k < 300; k++)	{
+            int origin = random.nextInt(graph.numNodes), goal = random.nextInt(graph.numNodes);
+            double best = dijkstra(graph, times, origin, goal);
+            int[] path = astar.astarPath(origin, goal);
+            if (best == Double.POSITIVE_INFINITY)	{
+                assertEquals(0, path.length);
+                continue;
+            }
+            double cost = 0;
+            for (int d : path)	{
+                cost += times.cost(d);
+            }
+            assertEquals(best, cost, 1e-6 * Math.max(1, best));
+        }
+        model.finish();
+    }
+
+    @Test
+    public void classSpeeds()	{
+        assertEquals(1, TravelTimes.classSpeed("Motorway"), 0);
+        assertEquals(0.85, TravelTimes.classSpeed("A Road"), 0);
+        assertEquals(0.45, TravelTimes.classSpeed("Local Street"), 0);
+        assertEquals(1, TravelTimes.classSpeed("Ferry"), 0);
+        assertEquals(1, TravelTimes.classSpeed(null), 0);
+    }
+
+
+    /**
+     * @return the cost of the cheapest path from origin to goal
+     */
+    private static double dijkstra(RoadGraph graph, EdgeCosts costs, int origin, int goal)	{
+        double[] distance = new double[graph.numNodes];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        distance[origin] = 0;
+        PriorityQueue<double[]> queue = new PriorityQueue<double[]>(16, new Comparator<double[]>()	{
+            public int compare(double[] a, double[] b)	{
+                return Double.compare(a[0], b[0]);
+            }
+        });
+        queue.add(new double[] { 0, origin });
+        while (!queue.isEmpty())	{
+            double[] e = queue.poll();
+            int x = (int) e[1];
+            if (e[0] > distance[x])	{
+                continue;
+            }
+            if (x == goal)	{
+                return distance[x];
+            }
+            for (int l = graph.offsets[x]; l < graph.offsets[x + 1]; l++)	{
+                double alt = distance[x] + costs.cost(l);
+                int y = graph.targets[l];
+                if (alt < distance[y])	{
+                    distance[y] = alt;
+                    queue.add(new double[] { alt, y });
+                }
+            }
+        }
+        return distance[goal];
+    }
+}
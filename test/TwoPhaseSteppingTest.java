@@ -0,0 +1,66 @@
+package sim.app.geo.MK_1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Two-phase stepping must give the same run for a seed however many threads
+ * work out the moves.
+ */
+public class TwoPhaseSteppingTest	{
+
+    static final int SIDE = 20;
+
+    @Test
+    public void sameOnAnyNumberOfThreads() throws IOException	{
+        ArrayList<String> one = run(1);
+        assertEquals(one, run(4));
+        assertEquals(one, run(7));
+    }
+
+
+    /**
+     * @return the state of every agent and road, tick by tick
+     */
+    private static ArrayList<String> run(int threads) throws IOException	{
+        MK_1 model = TestNetworks.model(SIDE, 4000);
+        model.setStepThreads(threads);
+        ArrayList<String> trace = new ArrayList<String>();
+        PrintStream out = TestNetworks.quiet();
+        try	{
+            model.start();
+            while (model.schedule.getTime() < 300)	{
+                model.schedule.step(model);
+                AgentStore s = model.agentStore;
+                int n = s.size();
+                int[] traffic = new int[model.graph.numRoads];
+                int total = 0;
+                for (int r = 0; r < traffic.length; r++)	{
+                    traffic[r] = model.edgeTraffic.count(r);
+                    total += traffic[r];
+                }
+                assertEquals(n, total);
+                trace.add(model.arrivals + "/" + model.legsCompleted
+                		+ " x " + Arrays.hashCode(Arrays.copyOf(s.x, n))
+                		+ " y " + Arrays.hashCode(Arrays.copyOf(s.y, n))
+                		+ " road " + Arrays.hashCode(Arrays.copyOf(s.road, n))
+                		+ " index " + Arrays.hashCode(Arrays.copyOf(s.indexOnPath, n))
+                		+ " speed " + Arrays.hashCode(Arrays.copyOf(s.speed, n))
+                		+ " arrived " + Arrays.hashCode(Arrays.copyOf(s.reachedDestination, n))
+                		+ " traffic " + Arrays.hashCode(traffic));
+            }
+        } finally	{
+            System.setOut(out);
+            model.finish();
+        }
+        assertTrue(model.arrivals > 0);
+        return trace;
+    }
+}